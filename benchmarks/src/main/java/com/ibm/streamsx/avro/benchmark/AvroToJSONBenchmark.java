@@ -0,0 +1,51 @@
+//
+// *******************************************************************************
+// * Copyright (C)2020, International Business Machines Corporation and *
+// * others. All Rights Reserved. *
+// *******************************************************************************
+//
+
+package com.ibm.streamsx.avro.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.avro.generic.GenericRecord;
+import org.apache.avro.io.Decoder;
+import org.apache.avro.io.DecoderFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The AvroToJSON hot path for messages without embedded schema: binary
+ * decoding of a record and rendering it as JSON string.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AvroToJSONBenchmark {
+
+	@Benchmark
+	public GenericRecord decodeBinary(SchemaState state) throws Exception {
+		Decoder decoder = DecoderFactory.get().binaryDecoder(state.binary, null);
+		return state.reader.read(null, decoder);
+	}
+
+	@Benchmark
+	public String decodeBinaryAndRender(SchemaState state) throws Exception {
+		Decoder decoder = DecoderFactory.get().binaryDecoder(state.binary, null);
+		return state.reader.read(null, decoder).toString();
+	}
+
+	@Benchmark
+	public String render(SchemaState state) {
+		return state.datum.toString();
+	}
+
+}
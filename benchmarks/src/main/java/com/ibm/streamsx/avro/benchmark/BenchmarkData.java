@@ -0,0 +1,181 @@
+//
+// *******************************************************************************
+// * Copyright (C)2020, International Business Machines Corporation and *
+// * others. All Rights Reserved. *
+// *******************************************************************************
+//
+
+package com.ibm.streamsx.avro.benchmark;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.apache.avro.Schema;
+import org.apache.avro.Schema.Field;
+import org.apache.avro.SchemaBuilder;
+import org.apache.avro.SchemaBuilder.FieldAssembler;
+
+import com.ibm.streams.operator.StreamSchema;
+import com.ibm.streams.operator.Tuple;
+import com.ibm.streams.operator.Type;
+import com.ibm.streams.operator.types.RString;
+
+/**
+ * Schemas and records used by the benchmarks. The Streams tuple type of a
+ * benchmark is derived from its Avro schema, so every schema the toolkit
+ * converter supports can be benchmarked.
+ */
+public class BenchmarkData {
+
+	/** Number of fields of the synthetic wide schema */
+	public static final int WIDE_SCHEMA_FIELDS = 100;
+	/** Length of generated strings */
+	public static final int STRING_LENGTH = 32;
+	/** Number of elements of generated lists */
+	public static final int LIST_SIZE = 10;
+
+	private static final String CHARACTERS = "abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789 ";
+
+	/*
+	 * Load one of the benchmark schemas: twitter, twitter_complex or wide
+	 */
+	public static Schema loadSchema(String name) throws IOException {
+		if ("wide".equals(name))
+			return wideSchema(WIDE_SCHEMA_FIELDS);
+		InputStream avscInput = BenchmarkData.class.getResourceAsStream("/schemas/" + name + ".avsc");
+		if (avscInput == null)
+			throw new IllegalArgumentException("Unknown benchmark schema: " + name);
+		try {
+			return new Schema.Parser().parse(avscInput);
+		} finally {
+			avscInput.close();
+		}
+	}
+
+	/*
+	 * A flat record with the given number of fields that cycles through all
+	 * primitive types, a string list and a float64 list
+	 */
+	public static Schema wideSchema(int numberOfFields) {
+		FieldAssembler<Schema> fields = SchemaBuilder.record("wide_schema").namespace("com.ibm.streamsx.avro.benchmark")
+				.fields();
+		for (int i = 0; i < numberOfFields; i++) {
+			String fieldName = "field" + i;
+			switch (i % 8) {
+			case 0:
+				fields = fields.requiredString(fieldName);
+				break;
+			case 1:
+				fields = fields.requiredLong(fieldName);
+				break;
+			case 2:
+				fields = fields.requiredInt(fieldName);
+				break;
+			case 3:
+				fields = fields.requiredDouble(fieldName);
+				break;
+			case 4:
+				fields = fields.requiredFloat(fieldName);
+				break;
+			case 5:
+				fields = fields.requiredBoolean(fieldName);
+				break;
+			case 6:
+				fields = fields.name(fieldName).type().array().items().stringType().noDefault();
+				break;
+			default:
+				fields = fields.name(fieldName).type().array().items().doubleType().noDefault();
+			}
+		}
+		return fields.endRecord();
+	}
+
+	/*
+	 * Derive the Streams tuple type that maps to an Avro record schema
+	 */
+	public static String toSplType(Schema avroSchema) {
+		switch (avroSchema.getType()) {
+		case RECORD:
+			StringBuilder tupleType = new StringBuilder("tuple<");
+			for (Field field : avroSchema.getFields()) {
+				if (tupleType.length() > 6)
+					tupleType.append(", ");
+				tupleType.append(toSplType(field.schema())).append(' ').append(field.name());
+			}
+			return tupleType.append('>').toString();
+		case ARRAY:
+			return "list<" + toSplType(avroSchema.getElementType()) + ">";
+		case STRING:
+			return "rstring";
+		case LONG:
+			return "int64";
+		case INT:
+			return "int32";
+		case DOUBLE:
+			return "float64";
+		case FLOAT:
+			return "float32";
+		case BOOLEAN:
+			return "boolean";
+		default:
+			throw new IllegalArgumentException("Avro type " + avroSchema.getType() + " has no Streams mapping");
+		}
+	}
+
+	/*
+	 * The Streams schema that maps to an Avro record schema
+	 */
+	public static StreamSchema toStreamSchema(Schema avroSchema) {
+		return Type.Factory.getStreamSchema(toSplType(avroSchema));
+	}
+
+	/*
+	 * Create a tuple with random values for every attribute
+	 */
+	public static Tuple newTuple(StreamSchema streamSchema, Schema avroSchema, Random random) {
+		Map<String, Object> values = new HashMap<String, Object>();
+		for (Field field : avroSchema.getFields())
+			values.put(field.name(), newValue(field.schema(), random));
+		return streamSchema.getTuple(values);
+	}
+
+	private static Object newValue(Schema avroSchema, Random random) {
+		switch (avroSchema.getType()) {
+		case RECORD:
+			StreamSchema subSchema = Type.Factory.getStreamSchema(toSplType(avroSchema));
+			return newTuple(subSchema, avroSchema, random);
+		case ARRAY:
+			List<Object> list = new ArrayList<Object>(LIST_SIZE);
+			for (int i = 0; i < LIST_SIZE; i++)
+				list.add(newValue(avroSchema.getElementType(), random));
+			return list;
+		case STRING:
+			return new RString(newString(random));
+		case LONG:
+			return random.nextLong();
+		case INT:
+			return random.nextInt();
+		case DOUBLE:
+			return random.nextDouble();
+		case FLOAT:
+			return random.nextFloat();
+		case BOOLEAN:
+			return random.nextBoolean();
+		default:
+			throw new IllegalArgumentException("Avro type " + avroSchema.getType() + " has no Streams mapping");
+		}
+	}
+
+	private static String newString(Random random) {
+		char[] chars = new char[STRING_LENGTH];
+		for (int i = 0; i < chars.length; i++)
+			chars[i] = CHARACTERS.charAt(random.nextInt(CHARACTERS.length()));
+		return new String(chars);
+	}
+
+}
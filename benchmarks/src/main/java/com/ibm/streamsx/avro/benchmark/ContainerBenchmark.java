@@ -0,0 +1,100 @@
+//
+// *******************************************************************************
+// * Copyright (C)2020, International Business Machines Corporation and *
+// * others. All Rights Reserved. *
+// *******************************************************************************
+//
+
+package com.ibm.streamsx.avro.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.avro.file.DataFileStream;
+import org.apache.avro.file.DataFileWriter;
+import org.apache.avro.generic.GenericDatumReader;
+import org.apache.avro.generic.GenericDatumWriter;
+import org.apache.avro.generic.GenericRecord;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Writing and reading Avro containers with embedded schema, as TupleToAvro
+ * and JSONToAvro build them and AvroToJSON reads them, for different block
+ * sizes. Throughput is reported per record.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@OperationsPerInvocation(ContainerBenchmark.RECORDS)
+public class ContainerBenchmark {
+
+	/** Number of records written and read per invocation */
+	public static final int RECORDS = 10000;
+
+	@State(Scope.Thread)
+	public static class ContainerState {
+
+		/** Number of records per container, like parameter tuplesPerMessage */
+		@Param({ "1", "10", "100", "1000", "10000" })
+		public int recordsPerBlock;
+
+		public DataFileWriter<GenericRecord> avroDataFileWriter;
+		public ByteArrayOutputStream avroBlockByteArray = new ByteArrayOutputStream();
+		public byte[][] containers;
+
+		@Setup(Level.Trial)
+		public void setup(SchemaState schemaState) throws Exception {
+			avroDataFileWriter = new DataFileWriter<GenericRecord>(
+					new GenericDatumWriter<GenericRecord>(schemaState.avroSchema));
+			containers = new byte[RECORDS / recordsPerBlock][];
+			for (int i = 0; i < containers.length; i++)
+				containers[i] = write(schemaState);
+		}
+
+		byte[] write(SchemaState schemaState) throws Exception {
+			avroBlockByteArray.reset();
+			avroDataFileWriter.create(schemaState.avroSchema, avroBlockByteArray);
+			for (int i = 0; i < recordsPerBlock; i++)
+				avroDataFileWriter.append(schemaState.datum);
+			avroDataFileWriter.close();
+			return avroBlockByteArray.toByteArray();
+		}
+	}
+
+	@Benchmark
+	public void writeContainers(SchemaState schemaState, ContainerState state, Blackhole blackhole) throws Exception {
+		for (int i = 0; i < state.containers.length; i++)
+			blackhole.consume(state.write(schemaState));
+	}
+
+	@Benchmark
+	public void readContainers(ContainerState state, Blackhole blackhole) throws Exception {
+		GenericRecord consumedDatum = null;
+		for (byte[] container : state.containers) {
+			DataFileStream<GenericRecord> dataFileReader = new DataFileStream<GenericRecord>(
+					new ByteArrayInputStream(container), new GenericDatumReader<GenericRecord>());
+			while (dataFileReader.hasNext()) {
+				consumedDatum = dataFileReader.next(consumedDatum);
+				blackhole.consume(consumedDatum);
+			}
+			dataFileReader.close();
+		}
+	}
+
+}
@@ -0,0 +1,52 @@
+//
+// *******************************************************************************
+// * Copyright (C)2020, International Business Machines Corporation and *
+// * others. All Rights Reserved. *
+// *******************************************************************************
+//
+
+package com.ibm.streamsx.avro.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.avro.generic.GenericRecord;
+import org.apache.avro.io.Decoder;
+import org.apache.avro.io.DecoderFactory;
+import org.apache.avro.io.EncoderFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The JSONToAvro hot path: JSON decoding to an Avro record, as the operator
+ * does it for every tuple, and binary encoding of the record.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class JSONToAvroBenchmark {
+
+	@Benchmark
+	public GenericRecord decodeJson(SchemaState state) throws Exception {
+		Decoder decodedJson = DecoderFactory.get().jsonDecoder(state.avroSchema, state.json);
+		return state.reader.read(null, decodedJson);
+	}
+
+	@Benchmark
+	public int decodeJsonAndEncode(SchemaState state) throws Exception {
+		Decoder decodedJson = DecoderFactory.get().jsonDecoder(state.avroSchema, state.json);
+		GenericRecord datum = state.reader.read(null, decodedJson);
+		state.buffer.reset();
+		state.encoder = EncoderFactory.get().binaryEncoder(state.buffer, state.encoder);
+		state.writer.write(datum, state.encoder);
+		state.encoder.flush();
+		return state.buffer.size();
+	}
+
+}
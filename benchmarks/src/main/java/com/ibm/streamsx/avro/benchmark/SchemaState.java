@@ -0,0 +1,82 @@
+//
+// *******************************************************************************
+// * Copyright (C)2020, International Business Machines Corporation and *
+// * others. All Rights Reserved. *
+// *******************************************************************************
+//
+
+package com.ibm.streamsx.avro.benchmark;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Random;
+
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericDatumReader;
+import org.apache.avro.generic.GenericDatumWriter;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.avro.io.BinaryEncoder;
+import org.apache.avro.io.EncoderFactory;
+import org.apache.avro.io.JsonEncoder;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.ibm.streams.operator.StreamSchema;
+import com.ibm.streams.operator.Tuple;
+import com.ibm.streamsx.avro.convert.TupleToAvroConverter;
+
+/**
+ * Benchmark state for one schema: the tuple, the Avro record and its JSON and
+ * binary representation, plus the reusable readers, writers and buffers the
+ * operators hold.
+ */
+@State(Scope.Thread)
+public class SchemaState {
+
+	@Param({ "twitter", "twitter_complex", "wide" })
+	public String schemaName;
+
+	public Schema avroSchema;
+	public StreamSchema streamSchema;
+	public Tuple tuple;
+	public GenericRecord datum;
+	public String json;
+	public byte[] binary;
+
+	public GenericDatumWriter<GenericRecord> writer;
+	public GenericDatumReader<GenericRecord> reader;
+	public ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+	public BinaryEncoder encoder;
+
+	@Setup
+	public void setup() throws Exception {
+		avroSchema = BenchmarkData.loadSchema(schemaName);
+		streamSchema = BenchmarkData.toStreamSchema(avroSchema);
+		tuple = BenchmarkData.newTuple(streamSchema, avroSchema, new Random(42));
+		datum = TupleToAvroConverter.convertTupleToAvro(tuple, streamSchema, avroSchema);
+		writer = new GenericDatumWriter<GenericRecord>(avroSchema);
+		reader = new GenericDatumReader<GenericRecord>(avroSchema);
+
+		// JSON encoding as JSONToAvro expects it
+		ByteArrayOutputStream jsonBuffer = new ByteArrayOutputStream();
+		JsonEncoder jsonEncoder = EncoderFactory.get().jsonEncoder(avroSchema, jsonBuffer);
+		writer.write(datum, jsonEncoder);
+		jsonEncoder.flush();
+		json = jsonBuffer.toString("UTF-8");
+
+		binary = encode(datum);
+	}
+
+	/*
+	 * Encode a record to binary Avro with the reusable encoder and buffer
+	 */
+	public byte[] encode(GenericRecord record) throws Exception {
+		buffer.reset();
+		encoder = EncoderFactory.get().binaryEncoder(buffer, encoder);
+		writer.write(record, encoder);
+		encoder.flush();
+		return buffer.toByteArray();
+	}
+
+}
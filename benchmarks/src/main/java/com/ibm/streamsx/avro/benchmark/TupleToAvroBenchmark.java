@@ -0,0 +1,51 @@
+//
+// *******************************************************************************
+// * Copyright (C)2020, International Business Machines Corporation and *
+// * others. All Rights Reserved. *
+// *******************************************************************************
+//
+
+package com.ibm.streamsx.avro.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.avro.generic.GenericRecord;
+import org.apache.avro.io.EncoderFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.ibm.streamsx.avro.convert.TupleToAvroConverter;
+
+/**
+ * The TupleToAvro hot path: tuple to Avro record conversion and binary
+ * encoding of the record.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TupleToAvroBenchmark {
+
+	@Benchmark
+	public GenericRecord convertTupleToAvro(SchemaState state) {
+		return TupleToAvroConverter.convertTupleToAvro(state.tuple, state.streamSchema, state.avroSchema);
+	}
+
+	@Benchmark
+	public int convertAndEncode(SchemaState state) throws Exception {
+		GenericRecord datum = TupleToAvroConverter.convertTupleToAvro(state.tuple, state.streamSchema,
+				state.avroSchema);
+		state.buffer.reset();
+		state.encoder = EncoderFactory.get().binaryEncoder(state.buffer, state.encoder);
+		state.writer.write(datum, state.encoder);
+		state.encoder.flush();
+		return state.buffer.size();
+	}
+
+}
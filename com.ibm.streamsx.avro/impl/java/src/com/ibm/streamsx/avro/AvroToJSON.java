@@ -8,13 +8,19 @@
 package com.ibm.streamsx.avro;
 
 import java.io.ByteArrayInputStream;
-import java.io.FileInputStream;
-import java.io.InputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 
 import org.apache.avro.Schema;
 import org.apache.avro.file.DataFileStream;
 import org.apache.avro.generic.GenericDatumReader;
 import org.apache.avro.generic.GenericRecord;
+import org.apache.avro.io.BinaryDecoder;
 import org.apache.avro.io.DatumReader;
 import org.apache.avro.io.Decoder;
 import org.apache.avro.io.DecoderFactory;
@@ -32,6 +38,8 @@ import com.ibm.streams.operator.Tuple;
 import com.ibm.streams.operator.Type.MetaType;
 import com.ibm.streams.operator.compile.OperatorContextChecker;
 import com.ibm.streams.operator.log4j.TraceLevel;
+import com.ibm.streams.operator.metrics.Metric;
+import com.ibm.streams.operator.model.CustomMetric;
 import com.ibm.streams.operator.model.InputPortSet;
 import com.ibm.streams.operator.model.InputPortSet.WindowMode;
 import com.ibm.streams.operator.model.InputPortSet.WindowPunctuationInputMode;
@@ -45,6 +53,16 @@ import com.ibm.streams.operator.model.Parameter;
 import com.ibm.streams.operator.model.PrimitiveOperator;
 import com.ibm.streams.operator.state.ConsistentRegionContext;
 import com.ibm.streams.operator.types.Blob;
+import com.ibm.streams.operator.types.ValueFactory;
+import com.ibm.streamsx.avro.convert.BlockFilter;
+import com.ibm.streamsx.avro.convert.ColumnarOutput;
+import com.ibm.streamsx.avro.convert.ErrorReporter;
+import com.ibm.streamsx.avro.convert.FieldProfiler;
+import com.ibm.streamsx.avro.convert.JsonAppender;
+import com.ibm.streamsx.avro.convert.LruCache;
+import com.ibm.streamsx.avro.convert.PassThroughAttributes;
+import com.ibm.streamsx.avro.convert.SchemaCache;
+import com.ibm.streamsx.avro.convert.SchemaCache.CachedSchema;
 
 /**
  * Processes Avro tuples and converts them to a JSON string
@@ -55,7 +73,9 @@ import com.ibm.streams.operator.types.Blob;
 @InputPorts({
 		@InputPortSet(description = "Port that receives the Apache Avro data blocks. Window punctuation markers are passed to the output port.", cardinality = 1, optional = false, windowingMode = WindowMode.NonWindowed, windowPunctuationInputMode = WindowPunctuationInputMode.Oblivious) })
 @OutputPorts({
-		@OutputPortSet(description = "Port that produces tuples with the JSON message string and optionally with the JSON key string. Window punctuation markers are forwarded from the input port.", cardinality = 1, optional = false, windowPunctuationOutputMode = WindowPunctuationOutputMode.Generating) })
+		@OutputPortSet(description = "Port that produces tuples with the JSON message string and optionally with the JSON key string. Window punctuation markers are forwarded from the input port.", cardinality = 1, optional = false, windowPunctuationOutputMode = WindowPunctuationOutputMode.Generating),
+		@OutputPortSet(description = "Optional port that receives the input tuples whose Avro message could not be converted. The attributes of the input tuple "
+				+ "are copied to the attributes of the same name, and the attribute named by parameter `outputErrorReason` receives a short reason.", cardinality = 1, optional = true, windowPunctuationOutputMode = WindowPunctuationOutputMode.Free) })
 @Icons(location16 = "icons/AvroToJson_16.gif", location32 = "icons/AvroToJson_32.gif")
 @Libraries(value = { "opt/downloaded/*" })
 public class AvroToJSON extends AbstractOperator {
@@ -67,17 +87,67 @@ public class AvroToJSON extends AbstractOperator {
 	private String inputAvroMessage = null;
 	private final String DEFAULT_INPUT_AVRO_MSG_ATTRIBUTE = "avroMessage";
 	private String inputAvroKey = null;
+	private String inputAvroOffset = null;
+	private String inputAvroLength = null;
 	private final String DEFAULT_INPUT_AVRO_KEY_ATTRIBUTE = "avroKey";
 	private String outputJsonMessage = null;
 	private final String DEFAULT_OUTPUT_JSON_MSG_ATTRIBUTE = "jsonMessage";
 	private String outputJsonKey = null;
 	private final String DEFAULT_OUTPUT_JSON_KEY_ATTRIBUTE = "jsonKey";
+	// Keys longer than this number of bytes are not cached
+	private static final int MAX_CACHED_KEY_LENGTH = 1024;
 
 	protected String avroMessageSchemaFile = "";
 	protected String avroKeySchemaFile = "";
 	protected boolean avroSchemaEmbedded = true;
+	private int profileSampleRate = 0;
+	private int profileTopFields = 10;
+	private JsonOutputFormat outputFormat = JsonOutputFormat.record;
+	private boolean outputJsonMessageBlob = false;
+	private boolean multipleRecords = false;
+	private String outputErrorReason = "errorReason";
+	private String filterField = null;
+	private String filterValue = null;
+	private String filterMinValue = null;
+	private String filterMaxValue = null;
+	private int keyCacheSize = 0;
 	Schema messageSchema;
 	Schema keySchema;
+	CachedSchema cachedMessageSchema;
+	CachedSchema cachedKeySchema;
+	FieldProfiler profiler;
+	ErrorReporter errorReporter;
+	BlockFilter blockFilter;
+	ColumnarOutput columnarOutput;
+	PassThroughAttributes passThrough;
+	// JSON strings of recently decoded Avro keys, by the bytes of the key
+	LruCache<ByteBuffer, String> keyCache;
+
+	// Buffer in which the JSON strings of all records of a blob are collected
+	// in the bulk output formats
+	final JsonAppender jsonAppender = new JsonAppender();
+	final StringBuilder bulkBuffer = new StringBuilder();
+	int bulkRecords = 0;
+	// Buffer in which the bulk buffer is encoded to UTF-8 for a blob output
+	// attribute
+	final CharsetEncoder bulkEncoder = StandardCharsets.UTF_8.newEncoder()
+			.onMalformedInput(CodingErrorAction.REPLACE).onUnmappableCharacter(CodingErrorAction.REPLACE);
+	ByteBuffer bulkBytes = ByteBuffer.allocate(0);
+
+	/**
+	 * How the JSON strings of the records in an Avro message blob are
+	 * submitted.
+	 */
+	public enum JsonOutputFormat {
+		/** One output tuple per record */
+		record,
+		/** One output tuple per blob with newline-delimited JSON */
+		ndjson,
+		/** One output tuple per blob with a JSON array of the records */
+		jsonArray,
+		/** One output tuple per blob with a list of values per field */
+		columns
+	}
 
 	@Parameter(optional = true, description = "The input stream attribute which contains the input Avro message blob. This attribute must be of type blob. Default is the sole output attribute when the schema has one attribute otherwise `avroMessage`.")
 	public void setInputAvroMessage(String inputAvroMessage) {
@@ -89,7 +159,29 @@ public class AvroToJSON extends AbstractOperator {
 		this.inputAvroKey = inputAvroKey;
 	}
 
-	@Parameter(optional = true, description = "The output stream attribute which contains the output JSON message string. This attribute must be of `rstring` or `ustring` type. Default is the sole output attribute when the schema has one attribute otherwise `jsonMessage`.")
+	@Parameter(optional = true, description = "The input stream attribute of type int64 which contains the byte offset in the Avro message blob at which the Avro message "
+			+ "or message block to convert starts. Together with parameter `inputAvroLength`, a single Avro message block can be converted from a blob that holds "
+			+ "many blocks, for example a file written from the blocks of TupleToAvro, at the offset and length that the index output port of TupleToAvro "
+			+ "submitted for the block. Default is to start at the beginning of the blob.")
+	public void setInputAvroOffset(String inputAvroOffset) {
+		this.inputAvroOffset = inputAvroOffset;
+	}
+
+	@Parameter(optional = true, description = "The input stream attribute of type int64 which contains the length in bytes of the Avro message or message block "
+			+ "to convert, see parameter `inputAvroOffset`. Default is the remainder of the blob.")
+	public void setInputAvroLength(String inputAvroLength) {
+		this.inputAvroLength = inputAvroLength;
+	}
+
+	@Parameter(optional = true, description = "If the Avro schema is not embedded, decode all Avro messages that are encoded one after "
+			+ "the other in the input blob, for example created by TupleToAvro with parameter `inputRecords`, and submit a tuple for "
+			+ "every message. Default is false, only the first message of the blob is decoded and any bytes that follow it are ignored.")
+	public void setMultipleRecords(Boolean multipleRecords) {
+		this.multipleRecords = multipleRecords;
+	}
+
+	@Parameter(optional = true, description = "The output stream attribute which contains the output JSON message string. This attribute must be of `rstring` or `ustring` type, "
+			+ "or of type `blob` with the UTF-8 encoded JSON if parameter `outputFormat` is `ndjson` or `jsonArray`. Default is the sole output attribute when the schema has one attribute otherwise `jsonMessage`.")
 	public void setOutputJsonMessage(String outputJsonMessage) {
 		this.outputJsonMessage = outputJsonMessage;
 	}
@@ -113,6 +205,124 @@ public class AvroToJSON extends AbstractOperator {
 			avroSchemaEmbedded = false;
 	}
 
+	@Parameter(optional = true, description = "Controls how the records of an Avro message blob are submitted. With `record`, the default, "
+			+ "a tuple is submitted for every record. With `ndjson`, a single tuple is submitted for every blob, its JSON message attribute "
+			+ "holds the JSON strings of all records, each followed by a newline. With `jsonArray`, a single tuple is submitted for every blob, "
+			+ "its JSON message attribute holds a JSON array of all records. With `columns`, a single tuple is submitted for every blob, "
+			+ "every list attribute of the output port with an element type of boolean, int32, int64, float32, float64, rstring or ustring "
+			+ "holds the values of the top-level Avro field of the same name in all records, for example `list<int64> timestamp`. "
+			+ "The Avro types must map to the element types as in TupleToAvro, null values are stored as 0, false or the empty string. "
+			+ "No JSON message attribute is needed in this format. No tuple is submitted for a blob without records.")
+	public void setOutputFormat(JsonOutputFormat outputFormat) {
+		this.outputFormat = outputFormat;
+	}
+
+	@Parameter(optional = true, description = "Profile the conversion cost of every Avro field for 1 in N Avro messages, where N is the value of this parameter. "
+			+ "The time spent on every field path and the number of bytes the field occupies in the Avro encoding are accumulated, "
+			+ "the fields with the highest cost are logged every minute and published as custom metrics `profile.<field path>.nanosPerRecord` "
+			+ "and `profile.<field path>.bytesPerRecord`. Default is 0 (disabled).")
+	public void setProfileSampleRate(Integer profileSampleRate) {
+		this.profileSampleRate = profileSampleRate;
+	}
+
+	@Parameter(optional = true, description = "Number of fields with the highest cost that are logged and published as custom metrics "
+			+ "when parameter `profileSampleRate` is set. Default is 10.")
+	public void setProfileTopFields(Integer profileTopFields) {
+		this.profileTopFields = profileTopFields;
+	}
+
+	@Parameter(optional = true, description = "The attribute of the optional error output port which receives the reason why an Avro message could not be converted. "
+			+ "This attribute must be of `rstring` or `ustring` type. Default is `errorReason`.")
+	public void setOutputErrorReason(String outputErrorReason) {
+		this.outputErrorReason = outputErrorReason;
+	}
+
+	@Parameter(optional = true, description = "Top-level field of the Avro schema used to skip Avro message blocks. If the block header holds statistics "
+			+ "for this field, written by TupleToAvro or JSONToAvro with parameter `statisticsFields` or `bloomFilterField`, blocks that cannot contain "
+			+ "a record matching `filterValue`, `filterMinValue` or `filterMaxValue` are skipped without decoding them. Blocks that may match are converted "
+			+ "completely, records are not filtered. Only valid if Avro schema is embedded in the input.")
+	public void setFilterField(String filterField) {
+		this.filterField = filterField;
+	}
+
+	@Parameter(optional = true, description = "The value the filter field must have in at least one record of a block. The value is converted to the type of the field.")
+	public void setFilterValue(String filterValue) {
+		this.filterValue = filterValue;
+	}
+
+	@Parameter(optional = true, description = "The lowest value of the filter field that a block must contain to be converted. The value is converted to the type of the field.")
+	public void setFilterMinValue(String filterMinValue) {
+		this.filterMinValue = filterMinValue;
+	}
+
+	@Parameter(optional = true, description = "The highest value of the filter field that a block must contain to be converted. The value is converted to the type of the field.")
+	public void setFilterMaxValue(String filterMaxValue) {
+		this.filterMaxValue = filterMaxValue;
+	}
+
+	@Parameter(optional = true, description = "Number of Avro keys whose JSON string is cached, so that keys which are received again, "
+			+ "for example device or customer identifiers, are not decoded again. A key is found in the cache by its bytes, the least recently "
+			+ "used entries are evicted. Keys longer than " + MAX_CACHED_KEY_LENGTH + " bytes are not cached. Default is 0 (disabled).")
+	public void setKeyCacheSize(Integer keyCacheSize) {
+		this.keyCacheSize = keyCacheSize;
+	}
+
+	// Metrics
+	Metric nMessagesProcessed;
+	Metric nRecordsConverted;
+	Metric nBytesIn;
+	Metric nBytesOut;
+	Metric nConversionErrors;
+	Metric nMessagesSkipped;
+	Metric nKeyCacheHits;
+	Metric nKeyCacheMisses;
+	Metric nKeyCacheEvictions;
+
+	@CustomMetric(name = "nMessagesProcessed", kind = Metric.Kind.COUNTER, description = "Number of Avro message blobs received on the input port.")
+	public void setnMessagesProcessed(Metric nMessagesProcessed) {
+		this.nMessagesProcessed = nMessagesProcessed;
+	}
+
+	@CustomMetric(name = "nRecordsConverted", kind = Metric.Kind.COUNTER, description = "Number of Avro records converted to JSON strings.")
+	public void setnRecordsConverted(Metric nRecordsConverted) {
+		this.nRecordsConverted = nRecordsConverted;
+	}
+
+	@CustomMetric(name = "nBytesIn", kind = Metric.Kind.COUNTER, description = "Number of bytes of all Avro message and key blobs received on the input port.")
+	public void setnBytesIn(Metric nBytesIn) {
+		this.nBytesIn = nBytesIn;
+	}
+
+	@CustomMetric(name = "nBytesOut", kind = Metric.Kind.COUNTER, description = "Number of characters of all JSON message and key strings submitted to the output port.")
+	public void setnBytesOut(Metric nBytesOut) {
+		this.nBytesOut = nBytesOut;
+	}
+
+	@CustomMetric(name = "nConversionErrors", kind = Metric.Kind.COUNTER, description = "Number of Avro message blobs that could not be converted to JSON and were skipped or submitted to the error output port.")
+	public void setnConversionErrors(Metric nConversionErrors) {
+		this.nConversionErrors = nConversionErrors;
+	}
+
+	@CustomMetric(name = "nKeyCacheHits", kind = Metric.Kind.COUNTER, description = "Number of Avro keys whose JSON string was found in the cache. Only updated if parameter `keyCacheSize` is set.")
+	public void setnKeyCacheHits(Metric nKeyCacheHits) {
+		this.nKeyCacheHits = nKeyCacheHits;
+	}
+
+	@CustomMetric(name = "nKeyCacheMisses", kind = Metric.Kind.COUNTER, description = "Number of Avro keys whose JSON string was not found in the cache. Only updated if parameter `keyCacheSize` is set.")
+	public void setnKeyCacheMisses(Metric nKeyCacheMisses) {
+		this.nKeyCacheMisses = nKeyCacheMisses;
+	}
+
+	@CustomMetric(name = "nKeyCacheEvictions", kind = Metric.Kind.COUNTER, description = "Number of JSON strings of Avro keys evicted from the cache to make room for others. Only updated if parameter `keyCacheSize` is set.")
+	public void setnKeyCacheEvictions(Metric nKeyCacheEvictions) {
+		this.nKeyCacheEvictions = nKeyCacheEvictions;
+	}
+
+	@CustomMetric(name = "nMessagesSkipped", kind = Metric.Kind.COUNTER, description = "Number of Avro message blocks skipped because their statistics do not match the filter.")
+	public void setnMessagesSkipped(Metric nMessagesSkipped) {
+		this.nMessagesSkipped = nMessagesSkipped;
+	}
+
 	/**
 	 * Compile time operator checks: Do not use the operator in a consistent region
 	 * @param checker
@@ -162,26 +372,40 @@ public class AvroToJSON extends AbstractOperator {
 		if (inputAvroKey != null)
 			tracer.log(TraceLevel.TRACE, "Input Avro key attribute: " + inputAvroKey);
 
-		// If no output JSON message attribute specified, use default
-		if (outputJsonMessage == null) {
-			if (ssOp0.getAttributeCount() == 1) {
-				outputJsonMessage = ssOp0.getAttribute(0).getName();
-			} else {
-				outputJsonMessage = DEFAULT_OUTPUT_JSON_MSG_ATTRIBUTE;
-			}
-		}
-		tracer.log(TraceLevel.TRACE, "Output JSON message attribute: " + outputJsonMessage);
-		Attribute outputJsonMessageAttribute = ssOp0.getAttribute(outputJsonMessage);
-		if (outputJsonMessageAttribute == null) {
-			tracer.log(TraceLevel.ERROR, Messages.getString("AVRO_OUTPUT_ATTRIBUTE_NOT_FOUND", "outputJsonMessage", outputJsonMessage));
-			throw new IllegalArgumentException(Messages.getString("AVRO_OUTPUT_ATTRIBUTE_NOT_FOUND", "outputJsonMessage", outputJsonMessage));
+		// The range of the blob to convert is optionally given by input
+		// attributes
+		checkInt64Attribute(ssIp0, "inputAvroOffset", inputAvroOffset);
+		checkInt64Attribute(ssIp0, "inputAvroLength", inputAvroLength);
+
+		// In the columnar output format, the list attributes of the output
+		// port receive the field values instead of a JSON message
+		if (outputFormat == JsonOutputFormat.columns) {
+			columnarOutput = new ColumnarOutput(tracer, ssOp0);
 		} else {
-			MetaType attributeType = outputJsonMessageAttribute.getType().getMetaType();
-			if(attributeType!=MetaType.USTRING && attributeType!=MetaType.RSTRING) {
-				tracer.log(TraceLevel.ERROR, Messages.getString("AVRO_ATTRIBUTE_WRONG_TYPE", "outputJsonMessage", outputJsonMessage, "rstring or ustring"));
-				throw new IllegalArgumentException(Messages.getString("AVRO_ATTRIBUTE_WRONG_TYPE", "outputJsonMessage", outputJsonMessage, "rstring or ustring"));
+			// If no output JSON message attribute specified, use default
+			if (outputJsonMessage == null) {
+				if (ssOp0.getAttributeCount() == 1) {
+					outputJsonMessage = ssOp0.getAttribute(0).getName();
+				} else {
+					outputJsonMessage = DEFAULT_OUTPUT_JSON_MSG_ATTRIBUTE;
+				}
+			}
+			tracer.log(TraceLevel.TRACE, "Output JSON message attribute: " + outputJsonMessage);
+			Attribute outputJsonMessageAttribute = ssOp0.getAttribute(outputJsonMessage);
+			if (outputJsonMessageAttribute == null) {
+				tracer.log(TraceLevel.ERROR, Messages.getString("AVRO_OUTPUT_ATTRIBUTE_NOT_FOUND", "outputJsonMessage", outputJsonMessage));
+				throw new IllegalArgumentException(Messages.getString("AVRO_OUTPUT_ATTRIBUTE_NOT_FOUND", "outputJsonMessage", outputJsonMessage));
+			} else {
+				MetaType attributeType = outputJsonMessageAttribute.getType().getMetaType();
+				if (attributeType == MetaType.BLOB && outputFormat != JsonOutputFormat.record) {
+					outputJsonMessageBlob = true;
+				} else if(attributeType!=MetaType.USTRING && attributeType!=MetaType.RSTRING) {
+					tracer.log(TraceLevel.ERROR, Messages.getString("AVRO_ATTRIBUTE_WRONG_TYPE", "outputJsonMessage", outputJsonMessage, "rstring or ustring"));
+					throw new IllegalArgumentException(Messages.getString("AVRO_ATTRIBUTE_WRONG_TYPE", "outputJsonMessage", outputJsonMessage, "rstring or ustring"));
+				}
 			}
 		}
+		tracer.log(TraceLevel.TRACE, "Output format: " + outputFormat);
 
 		// If no JSON key attribute specified, check if optional attribute is
 		// available in the output tuple
@@ -208,25 +432,76 @@ public class AvroToJSON extends AbstractOperator {
 		// Get the Avro message schema file to parse the Avro messages
 		if (!avroMessageSchemaFile.isEmpty()) {
 			tracer.log(TraceLevel.TRACE, "Retrieving and parsing Avro message schema file " + avroMessageSchemaFile);
-			InputStream avscMessageInput = new FileInputStream(avroMessageSchemaFile);
-			messageSchema = new Schema.Parser().parse(avscMessageInput);
+			cachedMessageSchema = SchemaCache.get(avroMessageSchemaFile);
+			messageSchema = cachedMessageSchema.getSchema();
 		}
 
 		// Get the Avro key schema file to parse the Avro messages
 		if (!avroKeySchemaFile.isEmpty()) {
 			tracer.log(TraceLevel.TRACE, "Retrieving and parsing Avro key schema file " + avroKeySchemaFile);
-			InputStream avscKeyInput = new FileInputStream(avroKeySchemaFile);
-			keySchema = new Schema.Parser().parse(avscKeyInput);
+			cachedKeySchema = SchemaCache.get(avroKeySchemaFile);
+			keySchema = cachedKeySchema.getSchema();
 		}
 
 		// If the schema is embedded in the message, the schema file must not be specified
 		if (!avroSchemaEmbedded && avroKeySchemaFile.isEmpty() && (inputAvroKey != null))
 			throw new IllegalArgumentException(Messages.getString("AVRO_NO_SCHEMA_FILE"));
-		
+
+		// Skip blocks whose statistics do not match the filter
+		if (filterField != null) {
+			if (!avroSchemaEmbedded)
+				throw new IllegalArgumentException(Messages.getString("AVRO_EMBEDDED_SCHEMA_INPUT_REQUIRED", "filterField, filterValue, filterMinValue, filterMaxValue"));
+			blockFilter = new BlockFilter(filterField, filterValue, filterMinValue, filterMaxValue);
+			tracer.log(TraceLevel.TRACE, "Filter field: " + filterField + ", value: " + filterValue + ", range: " + filterMinValue + " - " + filterMaxValue);
+		}
+
+		// Cache the JSON strings of keys that are received repeatedly
+		if (keyCacheSize < 0)
+			throw new IllegalArgumentException(Messages.getString("AVRO_PARAMETER_MIN_VALUE", "keyCacheSize", 0, keyCacheSize));
+		if (keyCacheSize > 0 && inputAvroKey != null) {
+			keyCache = new LruCache<ByteBuffer, String>(keyCacheSize);
+			tracer.log(TraceLevel.TRACE, "Key cache size: " + keyCacheSize);
+		}
+
+		// Profile the field conversion cost of sampled records if requested
+		if (profileSampleRate < 0)
+			throw new IllegalArgumentException(Messages.getString("AVRO_PARAMETER_MIN_VALUE", "profileSampleRate", 0, profileSampleRate));
+		if (profileTopFields < 1)
+			throw new IllegalArgumentException(Messages.getString("AVRO_PARAMETER_MIN_VALUE", "profileTopFields", 1, profileTopFields));
+		if (profileSampleRate > 0)
+			profiler = new FieldProfiler(operatorContext.getName(), profileSampleRate, profileTopFields, operatorContext.getMetrics());
+
+		// Match the input attributes that are copied to the output tuples
+		// once, instead of assigning the input tuple to every output tuple
+		passThrough = (columnarOutput == null) ? new PassThroughAttributes(ssIp0, ssOp0, outputJsonMessage)
+				: new PassThroughAttributes(ssIp0, ssOp0);
+		tracer.log(TraceLevel.TRACE, "Number of pass-through attributes: " + passThrough.size());
+
+		// Errors are submitted to the optional error output port, if present,
+		// and logged with a rate limit
+		errorReporter = new ErrorReporter(tracer, "converting Avro message to JSON",
+				(operatorContext.getNumberOfStreamingOutputs() > 1) ? getOutput(1) : null, outputErrorReason);
+
 		tracer.log(TraceLevel.TRACE, "AvroToJSON operator initialized, ready to receive tuples");
 
 	}
 
+	// Check that an optional input attribute exists and has type int64
+	private static void checkInt64Attribute(StreamSchema schema, String parameterName, String attributeName) {
+		if (attributeName == null)
+			return;
+		Attribute attribute = schema.getAttribute(attributeName);
+		if (attribute == null) {
+			tracer.log(TraceLevel.ERROR, Messages.getString("AVRO_INPUT_ATTRIBUTE_NOT_FOUND", parameterName, attributeName));
+			throw new IllegalArgumentException(Messages.getString("AVRO_INPUT_ATTRIBUTE_NOT_FOUND", parameterName, attributeName));
+		}
+		if (attribute.getType().getMetaType() != MetaType.INT64) {
+			tracer.log(TraceLevel.ERROR, Messages.getString("AVRO_ATTRIBUTE_WRONG_TYPE", parameterName, attributeName, "int64"));
+			throw new IllegalArgumentException(Messages.getString("AVRO_ATTRIBUTE_WRONG_TYPE", parameterName, attributeName, "int64"));
+		}
+		tracer.log(TraceLevel.TRACE, "Input attribute of parameter " + parameterName + ": " + attributeName);
+	}
+
 	/**
 	 * Process an incoming tuple that arrived on the specified port.
 	 * 
@@ -237,29 +512,40 @@ public class AvroToJSON extends AbstractOperator {
 		// Create a new tuple for output port 0
 		StreamingOutput<OutputTuple> outStream = getOutput(0);
 		OutputTuple outTuple = outStream.newTuple();
-		outTuple.assign(tuple);
+		passThrough.copy(tuple, outTuple);
 
 		// Get the incoming binary Avro message record(s)
 		Blob avroMessage = tuple.getBlob(inputAvroMessage);
 		if (tracer.isTraceEnabled())
 			tracer.log(TraceLevel.TRACE, "Processing Avro message with length " + avroMessage.getLength());
+		nMessagesProcessed.increment();
+		nBytesIn.incrementValue(avroMessage.getLength());
 		// Get the incoming binary Avro key (if specified)
 		Blob avroKey = null;
 		if (inputAvroKey != null) {
 			avroKey = tuple.getBlob(inputAvroKey);
 			if (tracer.isTraceEnabled())
 				tracer.log(TraceLevel.TRACE, "Processing Avro key with length " + avroKey.getLength());
+			nBytesIn.incrementValue(avroKey.getLength());
 		}
 
 		// Submit JSON tuples based on the Avro content received in the Blob
 		try {
+			// Convert only the range of the blob given by the offset and
+			// length attributes, if specified
+			byte[] data = avroMessage.getData();
+			long offset = (inputAvroOffset != null) ? tuple.getLong(inputAvroOffset) : 0;
+			long length = (inputAvroLength != null) ? tuple.getLong(inputAvroLength) : data.length - offset;
+			if (offset < 0 || length < 0 || offset + length > data.length)
+				throw new IllegalArgumentException(Messages.getString("AVRO_BLOB_RANGE_INVALID", offset, length, data.length));
 			if (!avroSchemaEmbedded) {
-				processAvroMessage(avroMessage, avroKey, outStream, outTuple, messageSchema, keySchema);
+				processAvroMessage(data, (int) offset, (int) length, avroKey, outStream, outTuple, messageSchema, keySchema);
 			} else {
-				processAvroMessage(avroMessage, outStream, outTuple);
+				processAvroMessage(data, (int) offset, (int) length, outStream, outTuple);
 			}
 		} catch (Exception e) {
-			e.printStackTrace();
+			nConversionErrors.increment();
+			errorReporter.report(e, tuple, "Avro message with length " + avroMessage.getLength());
 		}
 	}
 
@@ -268,8 +554,14 @@ public class AvroToJSON extends AbstractOperator {
 	 * schema. This is the pattern when Avro objects are passed over messaging
 	 * infrastructure such as Apache Kafka.
 	 * 
-	 * @param avroMessage
-	 *            The Blob that holds the single Avro message object
+	 * @param data
+	 *            The content of the blob that holds the Avro message object,
+	 *            or with multipleRecords several objects encoded one after
+	 *            the other
+	 * @param offset
+	 *            The offset of the Avro message in the data
+	 * @param length
+	 *            The length of the Avro message
 	 * @param avroKey
 	 *            The Blob that holds the single Avro key object (if passed)
 	 * @param outStream
@@ -282,29 +574,63 @@ public class AvroToJSON extends AbstractOperator {
 	 *            The schema of the Avro key object
 	 * @throws Exception
 	 */
-	private void processAvroMessage(Blob avroMessage, Blob avroKey, StreamingOutput<OutputTuple> outStream,
+	private void processAvroMessage(byte[] data, int offset, int length, Blob avroKey, StreamingOutput<OutputTuple> outStream,
 			OutputTuple outTuple, Schema messageSchema, Schema keySchema) throws Exception {
-		// Deserialize message
-		GenericDatumReader<GenericRecord> consumer = new GenericDatumReader<GenericRecord>(messageSchema);
-		ByteArrayInputStream consumedByteArray = new ByteArrayInputStream(avroMessage.getData());
-		Decoder consumedDecoder = DecoderFactory.get().binaryDecoder(consumedByteArray, null);
-		GenericRecord consumedDatum = consumer.read(null, consumedDecoder);
-		if (tracer.isTraceEnabled())
-			tracer.log(TraceLevel.TRACE, "JSON representation of Avro message: " + consumedDatum.toString());
-		outTuple.setString(outputJsonMessage, consumedDatum.toString());
-		// Deserialize key (if specified)
+		// Deserialize key (if specified), it applies to all records of the
+		// message
 		if (avroKey != null) {
-			consumer = new GenericDatumReader<GenericRecord>(keySchema);
-			consumedByteArray = new ByteArrayInputStream(avroKey.getData());
-			consumedDecoder = DecoderFactory.get().binaryDecoder(consumedByteArray, null);
-			consumedDatum = consumer.read(null, consumedDecoder);
+			String jsonKey = decodeKey(avroKey.getData());
 			if (tracer.isTraceEnabled())
-				tracer.log(TraceLevel.TRACE, "JSON representation of Avro key: " + consumedDatum.toString());
-			if (outputJsonKey != null)
-				outTuple.setString(outputJsonKey, consumedDatum.toString());
+				tracer.log(TraceLevel.TRACE, "JSON representation of Avro key: " + jsonKey);
+			if (outputJsonKey != null) {
+				outTuple.setString(outputJsonKey, jsonKey);
+				nBytesOut.incrementValue(jsonKey.length());
+			}
 		}
-		// Submit new tuple to output port 0
-		outStream.submit(outTuple);
+		// Measure the field cost of sampled messages
+		if (profiler != null && profiler.sampleNext()) {
+			profiler.profileDecode((offset == 0 && length == data.length) ? data
+					: Arrays.copyOfRange(data, offset, offset + length), messageSchema);
+			profiler.recordFinished();
+		}
+		// Deserialize message, with multipleRecords the message may hold
+		// several records encoded one after the other
+		GenericDatumReader<GenericRecord> consumer = cachedMessageSchema.getReader();
+		BinaryDecoder consumedDecoder = DecoderFactory.get().binaryDecoder(data, offset, length, null);
+		GenericRecord consumedDatum = null;
+		startBulk();
+		do {
+			consumedDatum = consumer.read(consumedDatum, consumedDecoder);
+			submitRecord(consumedDatum, outStream, outTuple);
+		} while (multipleRecords && !consumedDecoder.isEnd());
+		submitBulk(outStream, outTuple);
+	}
+
+	// Decode an Avro key to its JSON string, or take the JSON string from the
+	// cache if the same key was decoded recently
+	private String decodeKey(byte[] keyData) throws IOException {
+		ByteBuffer cacheKey = null;
+		if (keyCache != null && keyData.length <= MAX_CACHED_KEY_LENGTH) {
+			cacheKey = ByteBuffer.wrap(keyData);
+			String jsonKey = keyCache.get(cacheKey);
+			updateKeyCacheMetrics();
+			if (jsonKey != null)
+				return jsonKey;
+		}
+		GenericDatumReader<GenericRecord> keyConsumer = cachedKeySchema.getReader();
+		Decoder keyDecoder = DecoderFactory.get().binaryDecoder(keyData, null);
+		String jsonKey = keyConsumer.read(null, keyDecoder).toString();
+		if (cacheKey != null) {
+			keyCache.put(cacheKey, jsonKey);
+			updateKeyCacheMetrics();
+		}
+		return jsonKey;
+	}
+
+	private void updateKeyCacheMetrics() {
+		nKeyCacheHits.setValue(keyCache.getHits());
+		nKeyCacheMisses.setValue(keyCache.getMisses());
+		nKeyCacheEvictions.setValue(keyCache.getEvictions());
 	}
 
 	/**
@@ -313,32 +639,136 @@ public class AvroToJSON extends AbstractOperator {
 	 * file (either local file system or HDFS). Every Avro object in the blob is
 	 * converted to JSON and then submitted to the output port.
 	 * 
-	 * @param avroMessage
-	 *            The Blob that holds one or more Avro objects and the schema
+	 * @param data
+	 *            The content of the blob that holds one or more Avro objects
+	 *            and the schema
+	 * @param offset
+	 *            The offset of the Avro message block in the data
+	 * @param length
+	 *            The length of the Avro message block
 	 * @param outStream
 	 *            The stream to which the JSON string must be submitted
 	 * @param outTuple
 	 *            The tuple holding the JSON string
 	 * @throws Exception
 	 */
-	private void processAvroMessage(Blob avroMessage, StreamingOutput<OutputTuple> outStream, OutputTuple outTuple)
-			throws Exception {
-		ByteArrayInputStream is = new ByteArrayInputStream(avroMessage.getData());
+	private void processAvroMessage(byte[] data, int offset, int length, StreamingOutput<OutputTuple> outStream,
+			OutputTuple outTuple) throws Exception {
+		ByteArrayInputStream is = new ByteArrayInputStream(data, offset, length);
 		DatumReader<GenericRecord> reader = new GenericDatumReader<GenericRecord>();
 		DataFileStream<GenericRecord> dataFileReader = new DataFileStream<GenericRecord>(is, reader);
+		// Only the header has been read, skip the records if the block
+		// statistics do not match the filter
+		if (blockFilter != null && !blockFilter.mightMatch(dataFileReader)) {
+			if (tracer.isTraceEnabled())
+				tracer.log(TraceLevel.TRACE, "Skipping Avro message block, its statistics do not match the filter");
+			nMessagesSkipped.increment();
+			dataFileReader.close();
+			return;
+		}
 		GenericRecord consumedDatum = null;
+		startBulk();
 		while (dataFileReader.hasNext()) {
 			consumedDatum = dataFileReader.next(consumedDatum);
-			if (tracer.isTraceEnabled())
-				tracer.log(TraceLevel.TRACE, "JSON representation of Avro message: " + consumedDatum.toString());
-			// Submit new tuple to output port 0
-			outTuple.setString(outputJsonMessage, consumedDatum.toString());
-			outStream.submit(outTuple);
+			// Measure the field cost of sampled messages
+			if (profiler != null && profiler.sampleNext()) {
+				profiler.profileDecode(consumedDatum);
+				profiler.recordFinished();
+			}
+			submitRecord(consumedDatum, outStream, outTuple);
 		}
+		submitBulk(outStream, outTuple);
 		is.close();
 		dataFileReader.close();
 	}
 
+	// Start collecting the records of a blob in the bulk output formats
+	private void startBulk() {
+		bulkBuffer.setLength(0);
+		bulkRecords = 0;
+		if (columnarOutput != null)
+			columnarOutput.start();
+	}
+
+	// Submit the JSON string of a record, or add it to the bulk buffer
+	private void submitRecord(GenericRecord consumedDatum, StreamingOutput<OutputTuple> outStream, OutputTuple outTuple)
+			throws Exception {
+		if (tracer.isTraceEnabled())
+			tracer.log(TraceLevel.TRACE, "JSON representation of Avro message: " + consumedDatum.toString());
+		nRecordsConverted.increment();
+		switch (outputFormat) {
+		case ndjson:
+			jsonAppender.append(consumedDatum, bulkBuffer);
+			bulkBuffer.append('\n');
+			break;
+		case jsonArray:
+			bulkBuffer.append(bulkRecords == 0 ? '[' : ',');
+			jsonAppender.append(consumedDatum, bulkBuffer);
+			break;
+		case columns:
+			columnarOutput.add(consumedDatum);
+			break;
+		default:
+			// Submit new tuple to output port 0
+			String jsonMessage = consumedDatum.toString();
+			outTuple.setString(outputJsonMessage, jsonMessage);
+			outStream.submit(outTuple);
+			nBytesOut.incrementValue(jsonMessage.length());
+			return;
+		}
+		bulkRecords++;
+	}
+
+	// Submit the records of a blob collected in the bulk output formats
+	private void submitBulk(StreamingOutput<OutputTuple> outStream, OutputTuple outTuple) throws Exception {
+		if (bulkRecords == 0)
+			return;
+		if (columnarOutput != null) {
+			columnarOutput.setColumns(outTuple);
+			outStream.submit(outTuple);
+			if (tracer.isTraceEnabled())
+				tracer.log(TraceLevel.TRACE, "Submitted " + bulkRecords + " records as columns");
+			return;
+		}
+		if (outputFormat == JsonOutputFormat.jsonArray)
+			bulkBuffer.append(']');
+		if (outputJsonMessageBlob) {
+			ByteBuffer jsonBytes = encodeBulk();
+			outTuple.setBlob(outputJsonMessage, ValueFactory.newBlob(jsonBytes.array(), 0, jsonBytes.limit()));
+			nBytesOut.incrementValue(jsonBytes.limit());
+		} else {
+			outTuple.setString(outputJsonMessage, bulkBuffer.toString());
+			nBytesOut.incrementValue(bulkBuffer.length());
+		}
+		outStream.submit(outTuple);
+		if (tracer.isTraceEnabled())
+			tracer.log(TraceLevel.TRACE, "Submitted " + bulkRecords + " records as " + outputFormat);
+	}
+
+	// Encode the bulk buffer to UTF-8 into the reused byte buffer, which
+	// grows to the largest bulk output
+	private ByteBuffer encodeBulk() {
+		int maxBytes = (int) Math.ceil(bulkBuffer.length() * (double) bulkEncoder.maxBytesPerChar());
+		if (bulkBytes.capacity() < maxBytes)
+			bulkBytes = ByteBuffer.allocate(maxBytes);
+		bulkBytes.clear();
+		bulkEncoder.reset();
+		bulkEncoder.encode(CharBuffer.wrap(bulkBuffer), bulkBytes, true);
+		bulkEncoder.flush(bulkBytes);
+		bulkBytes.flip();
+		return bulkBytes;
+	}
+
+	/**
+	 * Logs the final field profile, if profiling is enabled.
+	 */
+	@Override
+	public void shutdown() throws Exception {
+		if (profiler != null)
+			profiler.publish();
+		super.shutdown();
+	}
+
 	static final String DESC = "This operator converts binary Avro messages and optionally message keys into a JSON string. "
 			+ "The operator has two operation modes::\\n"
 			+ "* Avro Schema Embedded: The operator processes a blob which contains one or more Avro messages and has the schema embedded. "
@@ -346,10 +776,20 @@ public class AvroToJSON extends AbstractOperator {
 			+ "object in the blob is converted to JSON and then submitted to the output port. This operation mode is entered "
 			+ "if both parameters `avroMessageSchemaFile` and `avroKeySchemaFile` are not existing or have an empty value.\\n"
 			+ "* No Avro Schema Embedded: The operator processes an Avro Blob containing a single message and with no embedded "
-			+ "schema. This is the pattern when Avro objects are passed over messaging infrastructure such as Apache Kafka. "
+			+ "schema. With parameter `multipleRecords`, the blob can hold several messages encoded one after the other, for example "
+			+ "created by TupleToAvro from a list of tuples, and a tuple is submitted for every message. This is the pattern when Avro objects are passed over messaging infrastructure such as Apache Kafka. "
 			+ "This operation mode is entered if one or both parameters `avroMessageSchemaFile` and `avroKeySchemaFile` "
 			+ "are specified.\\n"
+			+ "With parameter `outputFormat`, all records of a blob can be submitted in a single tuple as newline-delimited JSON "
+			+ "or as a JSON array, or with one list attribute per field as columns, instead of one tuple per record.\\n"
+			+ "With parameter `filterField`, Avro message blocks whose header statistics show that they cannot contain matching records "
+			+ "are skipped without decoding them.\\n"
+			+ "With parameters `inputAvroOffset` and `inputAvroLength`, only a range of the input blob is converted, for example a single "
+			+ "Avro message block of a file located with the index output port of TupleToAvro.\\n"
+			+ "With parameter `keyCacheSize`, the JSON strings of recently received Avro keys are cached, so that repeated keys are not decoded again.\\n"
 			+ "If an input or output message or key attribute is not found or has an incompatible type, the operator will fail.\\n"
+			+ "Avro messages that cannot be converted are skipped. If the optional second output port is present, the input tuple is "
+			+ "submitted to it together with a short reason. Conversion errors are logged at most " + ErrorReporter.MAX_LOGGED_ERRORS + " times per minute.\\n"
 			+ "This operator must not be used inside a consistent region.";
 
 }
@@ -8,18 +8,37 @@
 package com.ibm.streamsx.avro;
 
 import java.io.ByteArrayOutputStream;
-import java.io.FileInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
 
 import org.apache.avro.Schema;
 import org.apache.avro.file.DataFileWriter;
 import org.apache.avro.generic.GenericDatumReader;
 import org.apache.avro.generic.GenericDatumWriter;
 import org.apache.avro.generic.GenericRecord;
+import org.apache.avro.io.BinaryEncoder;
 import org.apache.avro.io.Decoder;
 import org.apache.avro.io.DecoderFactory;
 import org.apache.avro.io.Encoder;
 import org.apache.avro.io.EncoderFactory;
+import org.apache.avro.io.JsonDecoder;
 import org.apache.log4j.Logger;
 
 import com.ibm.streams.operator.AbstractOperator;
@@ -35,6 +54,8 @@ import com.ibm.streams.operator.StreamingData.Punctuation;
 import com.ibm.streams.operator.Type.MetaType;
 import com.ibm.streams.operator.compile.OperatorContextChecker;
 import com.ibm.streams.operator.log4j.TraceLevel;
+import com.ibm.streams.operator.metrics.Metric;
+import com.ibm.streams.operator.model.CustomMetric;
 import com.ibm.streams.operator.model.InputPortSet;
 import com.ibm.streams.operator.model.InputPortSet.WindowMode;
 import com.ibm.streams.operator.model.InputPortSet.WindowPunctuationInputMode;
@@ -47,7 +68,20 @@ import com.ibm.streams.operator.state.ConsistentRegionContext;
 import com.ibm.streams.operator.model.OutputPorts;
 import com.ibm.streams.operator.model.Parameter;
 import com.ibm.streams.operator.model.PrimitiveOperator;
+import com.ibm.streams.operator.types.Blob;
 import com.ibm.streams.operator.types.ValueFactory;
+import com.ibm.streamsx.avro.convert.BatchController;
+import com.ibm.streamsx.avro.convert.BlockBuffer;
+import com.ibm.streamsx.avro.convert.BlockSizeLimit;
+import com.ibm.streamsx.avro.convert.BlockSizeLimit.OversizePolicy;
+import com.ibm.streamsx.avro.convert.BlockStatistics;
+import com.ibm.streamsx.avro.convert.EncodedMessageCache;
+import com.ibm.streamsx.avro.convert.ErrorReporter;
+import com.ibm.streamsx.avro.convert.LruCache;
+import com.ibm.streamsx.avro.convert.PassThroughAttributes;
+import com.ibm.streamsx.avro.convert.PrimitiveArrayDatumWriter;
+import com.ibm.streamsx.avro.convert.SchemaCache.CachedSchema;
+import com.ibm.streamsx.avro.convert.SchemaSelector;
 
 /**
  * Processes Avro tuples and converts them to a JSON string
@@ -58,7 +92,9 @@ import com.ibm.streams.operator.types.ValueFactory;
 @InputPorts({
 		@InputPortSet(description = "Port that ingests JSON records.", cardinality = 1, optional = false, windowingMode = WindowMode.NonWindowed, windowPunctuationInputMode = WindowPunctuationInputMode.Oblivious) })
 @OutputPorts({
-		@OutputPortSet(description = "Port that produces Avro records.", cardinality = 1, optional = false, windowPunctuationOutputMode = WindowPunctuationOutputMode.Generating) })
+		@OutputPortSet(description = "Port that produces Avro records.", cardinality = 1, optional = false, windowPunctuationOutputMode = WindowPunctuationOutputMode.Generating),
+		@OutputPortSet(description = "Optional port that receives the input tuples whose JSON could not be converted. The attributes of the input tuple "
+				+ "are copied to the attributes of the same name, and the attribute named by parameter `outputErrorReason` receives a short reason.", cardinality = 1, optional = true, windowPunctuationOutputMode = WindowPunctuationOutputMode.Free) })
 @Icons(location16 = "icons/JsonToAvro_16.gif", location32 = "icons/JsonToAvro_32.gif")
 @Libraries(value = { "opt/downloaded/*" })
 public class JSONToAvro extends AbstractOperator {
@@ -72,16 +108,44 @@ public class JSONToAvro extends AbstractOperator {
 	private String outputAvroMessage = null;
 	private final String DEFAULT_OUTPUT_AVRO_MSG_ATTRIBUTE = "avroMessage";
 
-	private String avroMessageSchemaFile = null;
+	private List<String> avroMessageSchemaFile = new ArrayList<String>();
+	private String avroMessageSchemaDirectory = null;
+	private String inputSchemaSelector = null;
+	private int maxOpenSchemas = 16;
 	private boolean embedAvroSchema = false;
 	private boolean submitOnPunct = false;
 	private long bytesPerMessage = 0;
+	private long maxBytesPerMessage = 0;
+	private OversizePolicy oversizePolicy = OversizePolicy.error;
 	private long tuplesPerMessage = 0;
 	private long timePerMessage = 0;
+	private double targetBatchLatency = 0;
+	private long preferredBytesPerMessage = 0;
+	// Maximum age of a block in milliseconds, from timePerMessage or
+	// targetBatchLatency
+	private long maxBlockAgeMillis = 0;
+	private BatchController batchController;
+	private long spillThreshold = 0;
+	private String spillDirectory = null;
+	private File spillDirectoryFile;
+	private String outputAvroFile = null;
 	private boolean ignoreParsingError = false;
+	private int parallelism = 1;
+	private boolean bulkInput = false;
+	private int encodingCacheSize = 0;
+	private boolean inputJsonMessageBlob = false;
+	private String outputErrorReason = "errorReason";
+	private List<String> statisticsFields = new ArrayList<String>();
+	private String bloomFilterField = null;
+	private double bloomFilterFalsePositiveRate = 0.01;
 	private Schema messageSchema;
+	private ErrorReporter errorReporter;
+	private PassThroughAttributes passThrough;
+	private BlockSizeLimit blockSizeLimit;
+	private EncodedMessageCache encodingCache;
 
-	@Parameter(optional = true, description = "The input stream attribute which contains the input JSON message string. This attribute must be of `rstring` or `ustring` type. Default is the sole input attribute when the schema has one attribute otherwise `jsonMessage`.")
+	@Parameter(optional = true, description = "The input stream attribute which contains the input JSON message string. This attribute must be of `rstring` or `ustring` type, "
+			+ "or of type `blob` with UTF-8 encoded JSON if parameter `bulkInput` is true. Default is the sole input attribute when the schema has one attribute otherwise `jsonMessage`.")
 	public void setInputJsonMessage(String inputJsonMessage) {
 		this.inputJsonMessage = inputJsonMessage;
 	}
@@ -91,11 +155,34 @@ public class JSONToAvro extends AbstractOperator {
 		this.outputAvroMessage = outputAvroMessage;
 	}
 
-	@Parameter(optional = false, description = "File that contains the Avro schema to serialize the Avro message(s).")
-	public void setAvroMessageSchemaFile(String avroMessageSchemaFile) {
+	@Parameter(optional = true, cardinality = -1, description = "File that contains the Avro schema to serialize the Avro message(s). "
+			+ "Several files can be given to convert JSON strings of different record types, the schema of every JSON string is selected "
+			+ "by parameter `inputSchemaSelector`. Either this parameter or `avroMessageSchemaDirectory` must be set.")
+	public void setAvroMessageSchemaFile(List<String> avroMessageSchemaFile) {
 		this.avroMessageSchemaFile = avroMessageSchemaFile;
 	}
 
+	@Parameter(optional = true, description = "Directory whose files with extension `.avsc` contain Avro schemas to serialize the Avro messages, "
+			+ "in addition to the files of parameter `avroMessageSchemaFile`.")
+	public void setAvroMessageSchemaDirectory(String avroMessageSchemaDirectory) {
+		this.avroMessageSchemaDirectory = avroMessageSchemaDirectory;
+	}
+
+	@Parameter(optional = true, description = "The input stream attribute which selects the Avro schema of the JSON string if more than one schema is given. "
+			+ "An attribute of type `rstring` or `ustring` holds the full name of the schema, including its namespace, an attribute "
+			+ "of type `int64` the 64-bit Rabin fingerprint of the parsing canonical form of the schema. Tuples whose attribute "
+			+ "selects no schema are handled like JSON strings that cannot be parsed. With parameter `bulkInput`, all documents of "
+			+ "an input tuple have the selected schema.")
+	public void setInputSchemaSelector(String inputSchemaSelector) {
+		this.inputSchemaSelector = inputSchemaSelector;
+	}
+
+	@Parameter(optional = true, description = "Maximum number of schemas for which a writer and, if the Avro schema is embedded, an Avro message block "
+			+ "are kept open. When a tuple selects another schema, the least recently used schema is closed and its block is submitted. Default is 16.")
+	public void setMaxOpenSchemas(Integer maxOpenSchemas) {
+		this.maxOpenSchemas = maxOpenSchemas;
+	}
+
 	@Parameter(optional = true, description = "Embed the schema in the generated Avro message. "
 			+ "When generating Avro messages that must be persisted to a file system, "
 			+ "the schema is expected to be included in the file. If this parameter is set to true, "
@@ -123,6 +210,21 @@ public class JSONToAvro extends AbstractOperator {
 		this.bytesPerMessage = bytesPerMessage;
 	}
 
+	@Parameter(optional = true, description = "This parameter controls the maximum size in bytes of an Avro message block. If appending a record "
+			+ "would make the block exceed this size, the block is submitted before the record is appended. The size of the record is exact, "
+			+ "the overhead of the block and the header metadata written for `statisticsFields` and `bloomFilterField` are estimated from above. "
+			+ "A record that exceeds this size on its own is handled according to parameter `oversizePolicy`. "
+			+ "Default value is 0l (disabled). Only valid if Avro schema is embedded in the output.")
+	public void setMaxBytesPerMessage(Long maxBytesPerMessage) {
+		this.maxBytesPerMessage = maxBytesPerMessage;
+	}
+
+	@Parameter(optional = true, description = "What happens to a record that exceeds `maxBytesPerMessage` on its own: `error` handles it like an invalid "
+			+ "JSON string, `submit` submits it in a block of its own that exceeds the maximum size. Default is `error`.")
+	public void setOversizePolicy(OversizePolicy oversizePolicy) {
+		this.oversizePolicy = oversizePolicy;
+	}
+
 	@Parameter(optional = true, description = "This parameter controls the minimum number of tuples that the Avro message block "
 			+ "should contain before it is submitted to the output port. Default is 0l (disabled). Only valid if Avro schema "
 			+ "is embedded in the output.")
@@ -136,23 +238,265 @@ public class JSONToAvro extends AbstractOperator {
 		this.timePerMessage = timePerMessage;
 	}
 
+	@Parameter(optional = true, description = "Adapt the number of records per Avro message block to the arrival rate of the records, "
+			+ "so that a block is submitted once it holds the number of records that arrive in this time in seconds. Like with `timePerMessage`, "
+			+ "the age of a block is only checked when a tuple arrives: a block that is older than this time is submitted with the next tuple, "
+			+ "if no more tuples arrive it waits for the final punctuation or, with `submitOnPunct`, a window punctuation. "
+			+ "The current number of records per block is published by metric `tuplesPerMessageSetpoint`. Default is 0.0 "
+			+ "(thresholds are fixed). Cannot be set together with `tuplesPerMessage`, `bytesPerMessage` and `timePerMessage`. "
+			+ "Only valid if Avro schema is embedded in the output.")
+	public void setTargetBatchLatency(Double targetBatchLatency) {
+		this.targetBatchLatency = targetBatchLatency;
+	}
+
+	@Parameter(optional = true, description = "The preferred size in bytes of an Avro message block if parameter `targetBatchLatency` is set. "
+			+ "A block is submitted once it reaches that size, and the number of records per block is limited to the records of that size. "
+			+ "Default is 0l (size is not limited).")
+	public void setPreferredBytesPerMessage(Long preferredBytesPerMessage) {
+		this.preferredBytesPerMessage = preferredBytesPerMessage;
+	}
+
+	@Parameter(optional = true, description = "Size in bytes from which on an Avro message block is spilled to a temporary file "
+			+ "instead of being held on the heap while it is collected. The heap used for a block is only limited to this size if "
+			+ "parameter `outputAvroFile` is set too: a block that is submitted as a blob is read back from the file, so that the "
+			+ "whole block is on the heap when it is submitted. "
+			+ "Default is 0l (blocks are not spilled). Only valid if Avro schema is embedded in the output.")
+	public void setSpillThreshold(Long spillThreshold) {
+		this.spillThreshold = spillThreshold;
+	}
+
+	@Parameter(optional = true, description = "Directory of the temporary files of spilled blocks and of the files written for "
+			+ "`outputAvroFile`. Default is the temporary directory of the JVM.")
+	public void setSpillDirectory(String spillDirectory) {
+		this.spillDirectory = spillDirectory;
+	}
+
+	@Parameter(optional = true, description = "The output stream attribute of type rstring which receives the path of a file that holds "
+			+ "the Avro message block, instead of the block itself. Every block is written to a new file in `spillDirectory`, the Avro "
+			+ "message attribute is empty. The receiver of the tuple owns the file and must delete it. "
+			+ "Only valid if Avro schema is embedded in the output.")
+	public void setOutputAvroFile(String outputAvroFile) {
+		this.outputAvroFile = outputAvroFile;
+	}
+
 	@Parameter(optional = true, description = "Ignore any JSON or Avro parsing errors. When set to true, errors that "
 			+ "occur when parsing the incoming JSON tuple or constructing the Avro tuple(s) will be ignored and the incoming tuple(s) "
-			+ "will be skipped. Default is false.")
+			+ "will be skipped. If the optional error output port is present, errors are always ignored and the incoming tuples are "
+			+ "submitted to the error output port. Default is false.")
 	public void setIgnoreParsingError(Boolean ignoreParsingError) {
 		this.ignoreParsingError = ignoreParsingError;
 	}
 
+	@Parameter(optional = true, description = "Number of threads that parse the incoming JSON strings and encode them to Avro. "
+			+ "When greater than 1, the messages are converted on a pool of worker threads and put back into the order of "
+			+ "the incoming tuples before they are submitted or added to the Avro message block. Default is 1, which converts "
+			+ "every tuple on the thread that delivers it.")
+	public void setParallelism(Integer parallelism) {
+		this.parallelism = parallelism;
+	}
+
+	@Parameter(optional = true, description = "When set to true, the input JSON message attribute holds many JSON documents, for example "
+			+ "separated by newlines. The documents are parsed one after the other with the same parser. If the Avro schema is embedded, "
+			+ "all records of an input tuple are added to the current Avro message block, otherwise an output tuple is submitted for every record. "
+			+ "If a document cannot be parsed, the remaining documents of the input tuple are skipped. Parameter `parallelism` "
+			+ "is ignored in this mode. Default is false.")
+	public void setBulkInput(Boolean bulkInput) {
+		this.bulkInput = bulkInput;
+	}
+
+	@Parameter(optional = true, description = "Number of JSON strings whose Avro encoding is cached, so that JSON strings which are received again, "
+			+ "for example heartbeats or reference records that are resent periodically, are not parsed and encoded again. A JSON string is found "
+			+ "in the cache by its hash and a full comparison, the least recently used entries are evicted. JSON strings longer than "
+			+ EncodedMessageCache.MAX_MESSAGE_LENGTH + " characters are not cached. Default is 0 (disabled). Only valid if Avro schema is not embedded in the output, "
+			+ "ignored if parameter `bulkInput` is true.")
+	public void setEncodingCacheSize(Integer encodingCacheSize) {
+		this.encodingCacheSize = encodingCacheSize;
+	}
+
+	@Parameter(optional = true, description = "The attribute of the optional error output port which receives the reason why a JSON string could not be converted. "
+			+ "This attribute must be of `rstring` or `ustring` type. Default is `errorReason`.")
+	public void setOutputErrorReason(String outputErrorReason) {
+		this.outputErrorReason = outputErrorReason;
+	}
+
+	@Parameter(optional = true, cardinality = -1, description = "Top-level fields of the Avro schema whose minimum and maximum value in every Avro message block "
+			+ "are written into the metadata of the block header, as `streamsx.avro.min.<field>` and `streamsx.avro.max.<field>`. "
+			+ "The fields must be of type int, long, float, double or string, or a union of null and one of these types. "
+			+ "Readers such as AvroToJSON can use them to skip blocks without decoding them. Only valid if Avro schema is embedded in the output.")
+	public void setStatisticsFields(List<String> statisticsFields) {
+		this.statisticsFields = statisticsFields;
+	}
+
+	@Parameter(optional = true, description = "Top-level field of the Avro schema whose values in every Avro message block are added to a Bloom filter, "
+			+ "which is written into the metadata of the block header as `streamsx.avro.bloom.<field>`. The field must have one of the types "
+			+ "allowed for `statisticsFields`. Only valid if Avro schema is embedded in the output.")
+	public void setBloomFilterField(String bloomFilterField) {
+		this.bloomFilterField = bloomFilterField;
+	}
+
+	@Parameter(optional = true, description = "The false positive rate the Bloom filter is sized for. Default is 0.01.")
+	public void setBloomFilterFalsePositiveRate(Double bloomFilterFalsePositiveRate) {
+		this.bloomFilterFalsePositiveRate = bloomFilterFalsePositiveRate;
+	}
+
 	// Variables
 	StreamingOutput<OutputTuple> outStream;
 	OutputTuple outTuple;
 	GenericDatumReader<GenericRecord> jsonReader;
 	GenericDatumWriter<GenericRecord> avroWriter;
 	DataFileWriter<GenericRecord> avroDataFileWriter;
-	ByteArrayOutputStream avroMessageByteArray = new ByteArrayOutputStream();
-	ByteArrayOutputStream avroBlockByteArray = new ByteArrayOutputStream();
-	long lastSubmitted = System.currentTimeMillis();
-	int numberOfBatchedMessages = 0;
+	// Segmented buffers that are copied only into the submitted blob
+	BlockBuffer avroMessageByteArray = new BlockBuffer();
+	BlockBuffer avroBlockByteArray;
+	BlockStatistics blockStatistics;
+	long lastSubmitted;
+	int numberOfBatchedMessages;
+	JsonDecoder bulkDecoder;
+	BinaryEncoder bulkEncoder;
+	GenericRecord bulkDatum;
+	ExecutorService workerPool;
+	// Submits the converted messages while no tuples arrive, so that the
+	// worker threads never wait for the lock of the operator
+	ExecutorService submitter;
+	ThreadLocal<Map<CachedSchema, JsonToAvroWorker>> workers;
+	Queue<PendingMessage> pendingMessages;
+	int maxPendingMessages;
+	// Failure of submitting the converted messages from a worker thread,
+	// thrown by the next call of the operator
+	Exception submitFailure;
+	// The writers and blocks of the open schemas, the fields above hold the
+	// state of the selected one
+	SchemaSelector schemaSelector;
+	LruCache<CachedSchema, SchemaBlock> schemaBlocks;
+	List<SchemaBlock> evictedBlocks = new ArrayList<SchemaBlock>();
+	SchemaBlock selectedBlock;
+
+	// Number of messages per worker thread that may be in flight before
+	// process() waits for the oldest one
+	private static final int PENDING_MESSAGES_PER_WORKER = 8;
+
+	// Metrics
+	Metric nRecordsConverted;
+	Metric nBytesOut;
+	Metric nMessagesSubmitted;
+	Metric avgMessageSize;
+	Metric avgRecordsPerBlock;
+	Metric nFlushesByTuples;
+	Metric nFlushesByBytes;
+	Metric nFlushesByTime;
+	Metric nFlushesByPunct;
+	Metric nFlushesByMaxBytes;
+	Metric nOversizeRecords;
+	Metric bufferedBytes;
+	Metric tuplesPerMessageSetpoint;
+	Metric nSpilledBlocks;
+	Metric nBytesIn;
+	Metric nParsingErrors;
+	Metric nCacheHits;
+	Metric nCacheMisses;
+	Metric nCacheEvictions;
+	Metric nSchemaEvictions;
+	long nRecordsSubmittedInBlocks = 0;
+
+	@CustomMetric(name = "nRecordsConverted", kind = Metric.Kind.COUNTER, description = "Number of JSON strings converted to Avro.")
+	public void setnRecordsConverted(Metric nRecordsConverted) {
+		this.nRecordsConverted = nRecordsConverted;
+	}
+
+	@CustomMetric(name = "nBytesIn", kind = Metric.Kind.COUNTER, description = "Number of characters of all JSON strings received on the input port.")
+	public void setnBytesIn(Metric nBytesIn) {
+		this.nBytesIn = nBytesIn;
+	}
+
+	@CustomMetric(name = "nBytesOut", kind = Metric.Kind.COUNTER, description = "Number of bytes of all Avro messages and message blocks submitted to the output port.")
+	public void setnBytesOut(Metric nBytesOut) {
+		this.nBytesOut = nBytesOut;
+	}
+
+	@CustomMetric(name = "nMessagesSubmitted", kind = Metric.Kind.COUNTER, description = "Number of Avro messages or, if the Avro schema is embedded, Avro message blocks submitted to the output port.")
+	public void setnMessagesSubmitted(Metric nMessagesSubmitted) {
+		this.nMessagesSubmitted = nMessagesSubmitted;
+	}
+
+	@CustomMetric(name = "avgMessageSize", kind = Metric.Kind.GAUGE, description = "Average size in bytes of the Avro messages or message blocks submitted to the output port.")
+	public void setavgMessageSize(Metric avgMessageSize) {
+		this.avgMessageSize = avgMessageSize;
+	}
+
+	@CustomMetric(name = "avgRecordsPerBlock", kind = Metric.Kind.GAUGE, description = "Average number of Avro records per submitted message block. Only updated if the Avro schema is embedded.")
+	public void setavgRecordsPerBlock(Metric avgRecordsPerBlock) {
+		this.avgRecordsPerBlock = avgRecordsPerBlock;
+	}
+
+	@CustomMetric(name = "nFlushesByTuples", kind = Metric.Kind.COUNTER, description = "Number of message blocks submitted because `tuplesPerMessage` was reached.")
+	public void setnFlushesByTuples(Metric nFlushesByTuples) {
+		this.nFlushesByTuples = nFlushesByTuples;
+	}
+
+	@CustomMetric(name = "nFlushesByBytes", kind = Metric.Kind.COUNTER, description = "Number of message blocks submitted because `bytesPerMessage` was reached.")
+	public void setnFlushesByBytes(Metric nFlushesByBytes) {
+		this.nFlushesByBytes = nFlushesByBytes;
+	}
+
+	@CustomMetric(name = "nFlushesByTime", kind = Metric.Kind.COUNTER, description = "Number of message blocks submitted because `timePerMessage` expired.")
+	public void setnFlushesByTime(Metric nFlushesByTime) {
+		this.nFlushesByTime = nFlushesByTime;
+	}
+
+	@CustomMetric(name = "nFlushesByPunct", kind = Metric.Kind.COUNTER, description = "Number of message blocks submitted because a window or final punctuation was received.")
+	public void setnFlushesByPunct(Metric nFlushesByPunct) {
+		this.nFlushesByPunct = nFlushesByPunct;
+	}
+
+	@CustomMetric(name = "nFlushesByMaxBytes", kind = Metric.Kind.COUNTER, description = "Number of message blocks submitted because appending a record would have exceeded `maxBytesPerMessage`.")
+	public void setnFlushesByMaxBytes(Metric nFlushesByMaxBytes) {
+		this.nFlushesByMaxBytes = nFlushesByMaxBytes;
+	}
+
+	@CustomMetric(name = "nOversizeRecords", kind = Metric.Kind.COUNTER, description = "Number of records that exceeded `maxBytesPerMessage` on their own.")
+	public void setnOversizeRecords(Metric nOversizeRecords) {
+		this.nOversizeRecords = nOversizeRecords;
+	}
+
+	@CustomMetric(name = "bufferedBytes", kind = Metric.Kind.GAUGE, description = "Current size in bytes of the Avro message block that is not yet submitted.")
+	public void setbufferedBytes(Metric bufferedBytes) {
+		this.bufferedBytes = bufferedBytes;
+	}
+
+	@CustomMetric(name = "tuplesPerMessageSetpoint", kind = Metric.Kind.GAUGE, description = "Current number of records per Avro message block if `targetBatchLatency` is set, 0 until the first block is submitted.")
+	public void settuplesPerMessageSetpoint(Metric tuplesPerMessageSetpoint) {
+		this.tuplesPerMessageSetpoint = tuplesPerMessageSetpoint;
+	}
+
+	@CustomMetric(name = "nSpilledBlocks", kind = Metric.Kind.COUNTER, description = "Number of Avro message blocks submitted that were spilled to a temporary file because they exceeded `spillThreshold`.")
+	public void setnSpilledBlocks(Metric nSpilledBlocks) {
+		this.nSpilledBlocks = nSpilledBlocks;
+	}
+
+	@CustomMetric(name = "nParsingErrors", kind = Metric.Kind.COUNTER, description = "Number of JSON strings that could not be converted to Avro and were skipped because `ignoreParsingError` is true, or were submitted to the error output port.")
+	public void setnParsingErrors(Metric nParsingErrors) {
+		this.nParsingErrors = nParsingErrors;
+	}
+
+	@CustomMetric(name = "nCacheHits", kind = Metric.Kind.COUNTER, description = "Number of JSON strings whose Avro encoding was found in the cache. Only updated if parameter `encodingCacheSize` is set.")
+	public void setnCacheHits(Metric nCacheHits) {
+		this.nCacheHits = nCacheHits;
+	}
+
+	@CustomMetric(name = "nCacheMisses", kind = Metric.Kind.COUNTER, description = "Number of JSON strings whose Avro encoding was not found in the cache. Only updated if parameter `encodingCacheSize` is set.")
+	public void setnCacheMisses(Metric nCacheMisses) {
+		this.nCacheMisses = nCacheMisses;
+	}
+
+	@CustomMetric(name = "nCacheEvictions", kind = Metric.Kind.COUNTER, description = "Number of Avro encodings evicted from the cache to make room for others. Only updated if parameter `encodingCacheSize` is set.")
+	public void setnCacheEvictions(Metric nCacheEvictions) {
+		this.nCacheEvictions = nCacheEvictions;
+	}
+
+	@CustomMetric(name = "nSchemaEvictions", kind = Metric.Kind.COUNTER, description = "Number of schemas that were closed because more than `maxOpenSchemas` schemas were in use.")
+	public void setnSchemaEvictions(Metric nSchemaEvictions) {
+		this.nSchemaEvictions = nSchemaEvictions;
+	}
 
 	/**
 	 * Compile time operator checks: Do not use the operator in a consistent region
@@ -200,7 +544,9 @@ public class JSONToAvro extends AbstractOperator {
 			throw new IllegalArgumentException(Messages.getString("AVRO_INPUT_ATTRIBUTE_NOT_FOUND", "inputJsonMessage", inputJsonMessage));
 		} else {
 			MetaType attributeType = inputJsonMessageAttribute.getType().getMetaType();
-			if (attributeType!=MetaType.RSTRING && attributeType!=MetaType.USTRING) {
+			if (attributeType == MetaType.BLOB && bulkInput) {
+				inputJsonMessageBlob = true;
+			} else if (attributeType!=MetaType.RSTRING && attributeType!=MetaType.USTRING) {
 				tracer.log(TraceLevel.ERROR, Messages.getString("AVRO_ATTRIBUTE_WRONG_TYPE", "inputJsonMessage", inputJsonMessage, "rstring or ustring"));
 				throw new IllegalArgumentException(Messages.getString("AVRO_ATTRIBUTE_WRONG_TYPE", "inputJsonMessage", inputJsonMessage, "rstring or ustring"));
 			}
@@ -227,31 +573,136 @@ public class JSONToAvro extends AbstractOperator {
 			}
 		}
 
-		// Get the Avro schema file to parse the Avro messages
-		tracer.log(TraceLevel.TRACE, "Retrieving and parsing Avro message schema file " + avroMessageSchemaFile);
-		InputStream avscInput = new FileInputStream(avroMessageSchemaFile);
-		Schema.Parser parser = new Schema.Parser();
-		messageSchema = parser.parse(avscInput);
+		// Get the Avro schema files to parse the Avro messages, the parsed
+		// schemas are shared by all operators in the PE that use the same files
+		schemaSelector = new SchemaSelector(tracer, avroMessageSchemaFile, avroMessageSchemaDirectory, ssIp0, inputSchemaSelector);
 
 		tracer.log(TraceLevel.TRACE, "Embed Avro schema in generated output Avro message block: " + embedAvroSchema);
 		tracer.log(TraceLevel.TRACE, "Submit Avro message block when punctuation is received: " + submitOnPunct);
 		tracer.log(TraceLevel.TRACE, "Ignore parsing error: " + ignoreParsingError);
+		tracer.log(TraceLevel.TRACE, "Parallelism: " + parallelism);
+
+		if (parallelism < 1)
+			throw new IllegalArgumentException(Messages.getString("AVRO_PARAMETER_MIN_VALUE", "parallelism", 1, parallelism));
 
 		// submitOnPunct.. is only valid if Avro schema is embedded in the output
-		if (!embedAvroSchema && ( submitOnPunct || (tuplesPerMessage != 0) || (bytesPerMessage != 0) || (timePerMessage != 0) ) )
-			throw new Exception(Messages.getString("AVRO_EMBEDDED_SCHEMA_REQUIRED","submitOnPunct, bytesPerMessage, timePerMessage, tuplesPerMessage"));
+		if (!embedAvroSchema && ( submitOnPunct || (tuplesPerMessage != 0) || (bytesPerMessage != 0) || (timePerMessage != 0) || (targetBatchLatency != 0) ) )
+			throw new Exception(Messages.getString("AVRO_EMBEDDED_SCHEMA_REQUIRED","submitOnPunct, bytesPerMessage, timePerMessage, tuplesPerMessage, targetBatchLatency"));
 		// If Avro schema is embedded in the output, submitOnPunct is mandatory
-		if (embedAvroSchema && !submitOnPunct && tuplesPerMessage == 0 && bytesPerMessage == 0 && timePerMessage == 0)
-			throw new Exception(Messages.getString("AVRO_MISSING_THRESHOLD","submitOnPunct, bytesPerMessage, timePerMessage, tuplesPerMessage"));
-
-		// Prepare and initialize variables that don't change for every input
-		// record
-		jsonReader = new GenericDatumReader<GenericRecord>(messageSchema);
-		avroWriter = new GenericDatumWriter<GenericRecord>(messageSchema);
-		avroDataFileWriter = new DataFileWriter<GenericRecord>(avroWriter);
-		if (embedAvroSchema)
-			avroDataFileWriter.create(messageSchema, avroBlockByteArray);
-		numberOfBatchedMessages = 0;
+		if (embedAvroSchema && !submitOnPunct && tuplesPerMessage == 0 && bytesPerMessage == 0 && timePerMessage == 0 && targetBatchLatency == 0)
+			throw new Exception(Messages.getString("AVRO_MISSING_THRESHOLD","submitOnPunct, bytesPerMessage, timePerMessage, tuplesPerMessage, targetBatchLatency"));
+		maxBlockAgeMillis = 1000 * timePerMessage;
+
+		// Adapt the thresholds to the arrival rate of the records, the
+		// controller sets tuplesPerMessage whenever a block is submitted
+		if (targetBatchLatency != 0) {
+			if (targetBatchLatency < 0)
+				throw new IllegalArgumentException(Messages.getString("AVRO_PARAMETER_MIN_VALUE", "targetBatchLatency", 0, targetBatchLatency));
+			if (tuplesPerMessage != 0 || bytesPerMessage != 0 || timePerMessage != 0) {
+				tracer.log(TraceLevel.ERROR, Messages.getString("AVRO_PARAMETERS_EXCLUSIVE", "targetBatchLatency", "tuplesPerMessage, bytesPerMessage, timePerMessage"));
+				throw new IllegalArgumentException(Messages.getString("AVRO_PARAMETERS_EXCLUSIVE", "targetBatchLatency", "tuplesPerMessage, bytesPerMessage, timePerMessage"));
+			}
+			maxBlockAgeMillis = Math.max(1, Math.round(1000 * targetBatchLatency));
+			bytesPerMessage = preferredBytesPerMessage;
+			batchController = new BatchController(maxBlockAgeMillis, preferredBytesPerMessage);
+			tracer.log(TraceLevel.TRACE, "Target batch latency: " + maxBlockAgeMillis + " ms, preferred bytes per message: " + preferredBytesPerMessage);
+		} else if (preferredBytesPerMessage != 0) {
+			tracer.log(TraceLevel.ERROR, Messages.getString("AVRO_PARAMETER_DEPENDENCY", "preferredBytesPerMessage", "targetBatchLatency"));
+			throw new IllegalArgumentException(Messages.getString("AVRO_PARAMETER_DEPENDENCY", "preferredBytesPerMessage", "targetBatchLatency"));
+		}
+
+		// Large blocks are spilled to files, and the blocks are handed off as
+		// files if requested
+		if (!embedAvroSchema && (spillThreshold != 0 || outputAvroFile != null))
+			throw new Exception(Messages.getString("AVRO_EMBEDDED_SCHEMA_REQUIRED", "spillThreshold, outputAvroFile"));
+		if (spillThreshold < 0)
+			throw new IllegalArgumentException(Messages.getString("AVRO_PARAMETER_MIN_VALUE", "spillThreshold", 0, spillThreshold));
+		if (spillDirectory != null)
+			spillDirectoryFile = new File(spillDirectory);
+		if (spillThreshold != 0 && outputAvroFile == null)
+			tracer.log(TraceLevel.WARN, Messages.getString("AVRO_SPILL_WITHOUT_FILE", "spillThreshold", "outputAvroFile"));
+		if (outputAvroFile != null) {
+			Attribute outputAvroFileAttribute = ssOp0.getAttribute(outputAvroFile);
+			if (outputAvroFileAttribute == null) {
+				tracer.log(TraceLevel.ERROR, Messages.getString("AVRO_OUTPUT_ATTRIBUTE_NOT_FOUND", "outputAvroFile", outputAvroFile));
+				throw new IllegalArgumentException(Messages.getString("AVRO_OUTPUT_ATTRIBUTE_NOT_FOUND", "outputAvroFile", outputAvroFile));
+			}
+			if (outputAvroFileAttribute.getType().getMetaType() != MetaType.RSTRING) {
+				tracer.log(TraceLevel.ERROR, Messages.getString("AVRO_ATTRIBUTE_WRONG_TYPE", "outputAvroFile", outputAvroFile, "rstring"));
+				throw new IllegalArgumentException(Messages.getString("AVRO_ATTRIBUTE_WRONG_TYPE", "outputAvroFile", outputAvroFile, "rstring"));
+			}
+		}
+		tracer.log(TraceLevel.TRACE, "Spill threshold: " + spillThreshold + ", spill directory: " + spillDirectory + ", output Avro file attribute: " + outputAvroFile);
+
+		// Collect statistics of the records of every block for the block header
+		if (!statisticsFields.isEmpty() || bloomFilterField != null) {
+			if (!embedAvroSchema)
+				throw new Exception(Messages.getString("AVRO_EMBEDDED_SCHEMA_REQUIRED", "statisticsFields, bloomFilterField"));
+			if (bloomFilterFalsePositiveRate <= 0 || bloomFilterFalsePositiveRate >= 1)
+				throw new IllegalArgumentException(Messages.getString("AVRO_PARAMETER_RANGE", "bloomFilterFalsePositiveRate", 0, 1, bloomFilterFalsePositiveRate));
+			for (CachedSchema cachedSchema : schemaSelector.getSchemas())
+				BlockStatistics.checkFields(cachedSchema.getSchema(), statisticsFields, bloomFilterField);
+			tracer.log(TraceLevel.TRACE, "Block statistics fields: " + statisticsFields + ", Bloom filter field: " + bloomFilterField);
+		}
+		// Submit blocks before they exceed the maximum size
+		if (maxBytesPerMessage != 0) {
+			if (!embedAvroSchema)
+				throw new Exception(Messages.getString("AVRO_EMBEDDED_SCHEMA_REQUIRED", "maxBytesPerMessage, oversizePolicy"));
+			if (maxBytesPerMessage < 0)
+				throw new IllegalArgumentException(Messages.getString("AVRO_PARAMETER_MIN_VALUE", "maxBytesPerMessage", 0, maxBytesPerMessage));
+			tracer.log(TraceLevel.TRACE, "Maximum Avro message block size: " + maxBytesPerMessage + ", oversize policy: " + oversizePolicy);
+		}
+
+		// Keep a writer and a block for each of the recently used schemas
+		if (maxOpenSchemas < 1)
+			throw new IllegalArgumentException(Messages.getString("AVRO_PARAMETER_MIN_VALUE", "maxOpenSchemas", 1, maxOpenSchemas));
+		schemaBlocks = new LruCache<CachedSchema, SchemaBlock>(maxOpenSchemas) {
+			@Override
+			protected void evicted(CachedSchema cachedSchema, SchemaBlock block) {
+				evictedBlocks.add(block);
+			}
+		};
+		selectSchema(schemaSelector.getSchemas().get(0));
+
+		// Cache the Avro encoding of JSON strings that are received repeatedly
+		if (encodingCacheSize != 0) {
+			if (embedAvroSchema)
+				throw new Exception(Messages.getString("AVRO_EMBEDDED_SCHEMA_NOT_ALLOWED", "encodingCacheSize"));
+			if (encodingCacheSize < 0)
+				throw new IllegalArgumentException(Messages.getString("AVRO_PARAMETER_MIN_VALUE", "encodingCacheSize", 0, encodingCacheSize));
+			// The cache is keyed by the JSON string only
+			if (schemaSelector.getSchemas().size() > 1)
+				throw new Exception(Messages.getString("AVRO_SINGLE_SCHEMA_REQUIRED", "encodingCacheSize"));
+			if (!bulkInput) {
+				encodingCache = new EncodedMessageCache(encodingCacheSize);
+				tracer.log(TraceLevel.TRACE, "Encoding cache size: " + encodingCacheSize);
+			}
+		}
+
+		// Match the input attributes that are copied to the output tuples
+		// once, instead of assigning the input tuple to every output tuple
+		passThrough = new PassThroughAttributes(ssIp0, ssOp0, outputAvroMessage, outputAvroFile);
+		tracer.log(TraceLevel.TRACE, "Number of pass-through attributes: " + passThrough.size());
+
+		// Errors are submitted to the optional error output port, if present,
+		// and logged with a rate limit
+		errorReporter = new ErrorReporter(tracer, "converting JSON string to AVRO schema",
+				(operatorContext.getNumberOfStreamingOutputs() > 1) ? getOutput(1) : null, outputErrorReason);
+
+		// Start the worker threads which convert the JSON strings in parallel,
+		// each of them with its own decoder and encoder per schema
+		if (parallelism > 1 && !bulkInput) {
+			workerPool = Executors.newFixedThreadPool(parallelism, operatorContext.getThreadFactory());
+			submitter = Executors.newSingleThreadExecutor(operatorContext.getThreadFactory());
+			workers = new ThreadLocal<Map<CachedSchema, JsonToAvroWorker>>() {
+				@Override
+				protected Map<CachedSchema, JsonToAvroWorker> initialValue() {
+					return new HashMap<CachedSchema, JsonToAvroWorker>();
+				}
+			};
+			maxPendingMessages = parallelism * PENDING_MESSAGES_PER_WORKER;
+			pendingMessages = new ArrayDeque<PendingMessage>(maxPendingMessages);
+		}
 
 		tracer.log(TraceLevel.TRACE, "JSONToAvro operator initialized, ready to receive tuples");
 
@@ -263,16 +714,83 @@ public class JSONToAvro extends AbstractOperator {
 	@Override
 	public final void process(StreamingInput<Tuple> inputStream, Tuple tuple) throws Exception {
 
+		if (bulkInput) {
+			processBulkInput(tuple);
+			return;
+		}
+
 		String jsonInput = tuple.getString(inputJsonMessage);
 
 		if (tracer.isTraceEnabled())
 			tracer.log(TraceLevel.TRACE, "Input JSON string: " + jsonInput);
+		nBytesIn.incrementValue(jsonInput.length());
+
+		// Select the schema of the JSON string
+		final CachedSchema cachedSchema;
+		try {
+			cachedSchema = schemaSelector.select(tuple);
+		} catch (IllegalArgumentException e) {
+			handleParsingError(e, tuple, jsonInput);
+			return;
+		}
 
 		// Create a new tuple for output port 0 and copy over any matching
 		// attributes
 		outStream = getOutput(0);
-		outTuple = outStream.newTuple();
-		outTuple.assign(tuple);
+		OutputTuple outputTuple = outStream.newTuple();
+		passThrough.copy(tuple, outputTuple);
+
+		// Hand the JSON string over to the worker threads, the converted
+		// messages are submitted in the order of arrival. Cached messages
+		// are queued as converted to keep the order. The cache is shared
+		// with the submitter thread, so it is only used under the lock.
+		if (workerPool != null) {
+			synchronized (this) {
+				throwSubmitFailure();
+				byte[] cachedMessage = lookupEncoding(jsonInput);
+				if (cachedMessage != null) {
+					pendingMessages.add(new PendingMessage(tuple, outputTuple, cachedSchema, jsonInput,
+							CompletableFuture.completedFuture(new ConvertedMessage(cachedMessage, null))));
+					submitConvertedMessages(false);
+					return;
+				}
+				final String json = jsonInput;
+				CompletableFuture<ConvertedMessage> result = CompletableFuture.supplyAsync(new Supplier<ConvertedMessage>() {
+					@Override
+					public ConvertedMessage get() {
+						try {
+							return getWorker(cachedSchema).convert(json);
+						} catch (Exception e) {
+							throw new CompletionException(e);
+						}
+					}
+				}, workerPool);
+				pendingMessages.add(new PendingMessage(tuple, outputTuple, cachedSchema, jsonInput, result));
+				// Submit the message when it is converted, also if no more
+				// tuples arrive
+				result.whenCompleteAsync(new BiConsumer<ConvertedMessage, Throwable>() {
+					@Override
+					public void accept(ConvertedMessage converted, Throwable e) {
+						submitCompletedMessages();
+					}
+				}, submitter);
+				submitConvertedMessages(false);
+			}
+			return;
+		}
+
+		// The output tuple belongs to the block of the schema
+		selectSchema(cachedSchema);
+		outTuple = outputTuple;
+
+		// Use the cached encoding of a JSON string that was received before
+		byte[] cachedMessage = lookupEncoding(jsonInput);
+
+		if (cachedMessage != null) {
+			nRecordsConverted.increment();
+			submitAvroMessage(cachedMessage);
+			return;
+		}
 
 		// Decode the JSON string
 		GenericRecord datum = null;
@@ -282,87 +800,633 @@ public class JSONToAvro extends AbstractOperator {
 
 			// Encode the datum to Avro
 			if (embedAvroSchema) {
-				avroDataFileWriter.append(datum);
-				avroDataFileWriter.flush();
+				if (blockSizeLimit == null)
+					avroDataFileWriter.append(datum);
+				else if (!appendWithinLimit(tuple, jsonInput, blockSizeLimit.encode(avroWriter, datum), datum, null))
+					return;
+				if (blockStatistics != null)
+					blockStatistics.add(datum);
+				flushBlock();
 				numberOfBatchedMessages++;
-				// Check if any of the threshold parameters has been exceeded
-				if (tuplesPerMessage != 0 && numberOfBatchedMessages >= tuplesPerMessage)
-					submitAvroToOuput();
-				if (bytesPerMessage != 0 && avroBlockByteArray.size() >= bytesPerMessage)
-					submitAvroToOuput();
-				if (timePerMessage != 0) {
-					if (System.currentTimeMillis() >= (lastSubmitted + (1000 * timePerMessage)))
-						submitAvroToOuput();
-				}
+				nRecordsConverted.increment();
+				checkThresholds();
 			} else {
 				Encoder encoder = EncoderFactory.get().binaryEncoder(avroMessageByteArray, null);
 				avroWriter.write(datum, encoder);
 				encoder.flush();
-				submitAvroToOuput();
+				nRecordsConverted.increment();
+				if (encodingCache != null) {
+					byte[] avroMessage = avroMessageByteArray.toByteArray();
+					avroMessageByteArray.reset();
+					encodingCache.put(jsonInput, avroMessage);
+					updateCacheMetrics();
+					submitAvroMessage(avroMessage);
+				} else {
+					submitAvroToOuput();
+				}
 			}
 		} catch (Exception e) {
-			tracer.log(TraceLevel.ERROR, "Error while converting JSON string to AVRO schema: " + e.getMessage()
-					+ ". JSON String: " + jsonInput);
-			// If parsing errors must not be ignored, make the operator fail
-			if (!ignoreParsingError)
-				throw new Exception("Error while converting JSON string to AVRO schema: " + e.getMessage()
-						+ ". JSON String: " + jsonInput);
+			avroMessageByteArray.reset();
+			handleParsingError(e, tuple, jsonInput);
 		}
 	}
 
+	/**
+	 * Processes an input tuple that holds many JSON documents. The documents
+	 * are parsed one after the other from the input attribute with a reused
+	 * decoder, without splitting the input into a string per document.
+	 * 
+	 * @param tuple
+	 *            The input tuple
+	 * @throws Exception
+	 */
+	private void processBulkInput(Tuple tuple) throws Exception {
+		CachedSchema cachedSchema;
+		try {
+			cachedSchema = schemaSelector.select(tuple);
+		} catch (IllegalArgumentException e) {
+			handleParsingError(e, tuple, "bulk input");
+			return;
+		}
+		selectSchema(cachedSchema);
+
+		outStream = getOutput(0);
+		outTuple = outStream.newTuple();
+		passThrough.copy(tuple, outTuple);
+
+		if (inputJsonMessageBlob) {
+			Blob jsonBlob = tuple.getBlob(inputJsonMessage);
+			nBytesIn.incrementValue(jsonBlob.getLength());
+			InputStream jsonInput = jsonBlob.getInputStream();
+			bulkDecoder = (bulkDecoder == null) ? DecoderFactory.get().jsonDecoder(messageSchema, jsonInput)
+					: bulkDecoder.configure(jsonInput);
+		} else {
+			String jsonInput = tuple.getString(inputJsonMessage);
+			nBytesIn.incrementValue(jsonInput.length());
+			bulkDecoder = (bulkDecoder == null) ? DecoderFactory.get().jsonDecoder(messageSchema, jsonInput)
+					: bulkDecoder.configure(jsonInput);
+		}
+
+		int numberOfRecords = 0;
+		try {
+			while (true) {
+				try {
+					bulkDatum = jsonReader.read(bulkDatum, bulkDecoder);
+				} catch (EOFException e) {
+					// All documents have been parsed
+					break;
+				}
+				// Encode the datum to Avro
+				if (embedAvroSchema) {
+					if (blockSizeLimit == null)
+						avroDataFileWriter.append(bulkDatum);
+					else if (!appendWithinLimit(tuple, "document " + (numberOfRecords + 1) + " of the bulk input",
+							blockSizeLimit.encode(avroWriter, bulkDatum), bulkDatum, null)) {
+						numberOfRecords++;
+						continue;
+					}
+					if (blockStatistics != null)
+						blockStatistics.add(bulkDatum);
+					numberOfBatchedMessages++;
+				} else {
+					bulkEncoder = EncoderFactory.get().binaryEncoder(avroMessageByteArray, bulkEncoder);
+					avroWriter.write(bulkDatum, bulkEncoder);
+					bulkEncoder.flush();
+					submitAvroToOuput();
+				}
+				nRecordsConverted.increment();
+				numberOfRecords++;
+			}
+		} catch (Exception e) {
+			avroMessageByteArray.reset();
+			handleParsingError(e, tuple, "document " + (numberOfRecords + 1) + " of the bulk input");
+		} finally {
+			if (tracer.isTraceEnabled())
+				tracer.log(TraceLevel.TRACE, "Converted " + numberOfRecords + " JSON documents of the bulk input");
+			if (embedAvroSchema) {
+				flushBlock();
+				checkThresholds();
+			}
+		}
+	}
+
+	// Called by the submitter thread when a message is converted. The messages
+	// that are converted in order are submitted under the lock of the
+	// operator, a failure is thrown by the next call of the operator.
+	private synchronized void submitCompletedMessages() {
+		if (submitFailure != null || workerPool.isShutdown())
+			return;
+		try {
+			submitConvertedMessages(false);
+		} catch (Exception e) {
+			tracer.log(TraceLevel.ERROR, "Error while submitting converted messages: " + e.getMessage(), e);
+			submitFailure = e;
+		}
+	}
+
+	private void throwSubmitFailure() throws Exception {
+		if (submitFailure != null)
+			throw submitFailure;
+	}
+
+	/**
+	 * Adds the messages converted by the worker threads to the output in the
+	 * order of the incoming tuples. Stops at the oldest message that is still
+	 * being converted unless all messages must be submitted or too many
+	 * messages are in flight. Called under the lock of the operator.
+	 * 
+	 * @param waitForAll
+	 *            Wait until all pending messages have been converted
+	 * @throws Exception
+	 */
+	private void submitConvertedMessages(boolean waitForAll) throws Exception {
+		while (!pendingMessages.isEmpty()) {
+			PendingMessage pending = pendingMessages.peek();
+			if (!waitForAll && !pending.result.isDone() && pendingMessages.size() < maxPendingMessages)
+				break;
+			pendingMessages.remove();
+			try {
+				ConvertedMessage converted = pending.result.get();
+				byte[] avroMessage = converted.avroMessage;
+				selectSchema(pending.cachedSchema);
+				outTuple = pending.outTuple;
+				if (embedAvroSchema) {
+					if (blockSizeLimit == null)
+						avroDataFileWriter.appendEncoded(ByteBuffer.wrap(avroMessage));
+					else if (!appendWithinLimit(pending.tuple, pending.jsonInput, ByteBuffer.wrap(avroMessage), null,
+							converted.statisticsValues))
+						continue;
+					if (blockStatistics != null)
+						blockStatistics.add(converted.statisticsValues);
+					flushBlock();
+					numberOfBatchedMessages++;
+					nRecordsConverted.increment();
+					checkThresholds();
+				} else {
+					if (encodingCache != null) {
+						encodingCache.put(pending.jsonInput, avroMessage);
+						updateCacheMetrics();
+					}
+					nRecordsConverted.increment();
+					submitAvroMessage(avroMessage);
+				}
+			} catch (ExecutionException e) {
+				handleParsingError(e.getCause(), pending.tuple, pending.jsonInput);
+			} catch (Exception e) {
+				handleParsingError(e, pending.tuple, pending.jsonInput);
+			}
+		}
+	}
+
+	// Append an encoded record unless the block would exceed
+	// maxBytesPerMessage, in which case the block is submitted first. The
+	// statistics values are taken from the datum, or from the values
+	// extracted by a worker thread. Returns false if the record exceeds the
+	// maximum on its own and is rejected.
+	private boolean appendWithinLimit(Tuple tuple, String jsonInput, ByteBuffer encoded, GenericRecord datum,
+			Object[] statisticsValues) throws Exception {
+		int recordLength = encoded.remaining();
+		if (!fitsBlock(recordLength, datum, statisticsValues)) {
+			if (numberOfBatchedMessages > 0) {
+				flushBlock();
+				nFlushesByMaxBytes.increment();
+				submitAvroToOuput();
+			}
+			if (!fitsBlock(recordLength, datum, statisticsValues)) {
+				nOversizeRecords.increment();
+				if (oversizePolicy == OversizePolicy.error) {
+					handleParsingError(new IllegalArgumentException(Messages.getString("AVRO_RECORD_TOO_LARGE",
+							recordLength, maxBytesPerMessage)), tuple, jsonInput);
+					return false;
+				}
+				tracer.log(TraceLevel.WARN, Messages.getString("AVRO_RECORD_TOO_LARGE", recordLength, maxBytesPerMessage));
+			}
+		}
+		avroDataFileWriter.appendEncoded(encoded);
+		blockSizeLimit.appended(recordLength);
+		return true;
+	}
+
+	private boolean fitsBlock(int recordLength, GenericRecord datum, Object[] statisticsValues) {
+		long metadataSize = 0;
+		if (blockStatistics != null)
+			metadataSize = (datum != null) ? blockStatistics.estimateMetadataSize(datum)
+					: blockStatistics.estimateMetadataSize(statisticsValues);
+		return blockSizeLimit.fits(avroBlockByteArray.size(), recordLength, metadataSize);
+	}
+
+	// Write the appended records into the buffer of the block
+	private void flushBlock() throws IOException {
+		avroDataFileWriter.flush();
+		if (blockSizeLimit != null)
+			blockSizeLimit.flushed();
+	}
+
+	// Check if any of the threshold parameters has been exceeded
+	private void checkThresholds() throws Exception {
+		bufferedBytes.setValue(avroBlockByteArray.size());
+		if (tuplesPerMessage != 0 && numberOfBatchedMessages >= tuplesPerMessage) {
+			nFlushesByTuples.increment();
+			submitAvroToOuput();
+		} else if (bytesPerMessage != 0 && avroBlockByteArray.size() >= bytesPerMessage) {
+			nFlushesByBytes.increment();
+			submitAvroToOuput();
+		} else if (maxBlockAgeMillis != 0 && System.currentTimeMillis() >= (lastSubmitted + maxBlockAgeMillis)) {
+			nFlushesByTime.increment();
+			submitAvroToOuput();
+		}
+		// The blocks of the other schemas expire too
+		if (maxBlockAgeMillis != 0 && schemaBlocks.size() > 1)
+			submitExpiredBlocks();
+	}
+
+	// Report the conversion error and make the operator fail unless parsing
+	// errors must be ignored or are submitted to the error output port
+	private void handleParsingError(Throwable e, Tuple tuple, String jsonInput) throws Exception {
+		// If parsing errors must not be ignored, make the operator fail
+		if (!ignoreParsingError && !errorReporter.hasErrorPort())
+			throw new Exception("Error while converting JSON string to AVRO schema: " + ErrorReporter.getReason(e)
+					+ ". JSON String: " + ErrorReporter.getExcerpt(jsonInput), e);
+		nParsingErrors.increment();
+		errorReporter.report(e, tuple, jsonInput);
+	}
+
 	// Submit the Avro byte array to the output port and reset byte array
 	private void submitAvroToOuput() throws Exception {
 		// Send block of messages with Avro schema included and punctuation
 		if (embedAvroSchema) {
 			if (numberOfBatchedMessages > 0) {
-				if (tracer.isTraceEnabled())
-					tracer.log(TraceLevel.TRACE, "Submitting " + numberOfBatchedMessages
-							+ " Avro messages with a total length of " + avroBlockByteArray.size() + " bytes");
-				outTuple.setBlob(outputAvroMessage, ValueFactory.newBlob(avroBlockByteArray.toByteArray()));
-				outStream.submit(outTuple);
-				outStream.punctuate(Punctuation.WINDOW_MARKER);
-				// Reset for the next block
-				avroBlockByteArray.reset();
-				avroDataFileWriter.close();
-				avroDataFileWriter.create(messageSchema, avroBlockByteArray);
-				lastSubmitted = System.currentTimeMillis();
-				numberOfBatchedMessages = 0;
+				submitBlock();
+				// Start the next block with a new writer
+				createBlock();
+				bufferedBytes.setValue(avroBlockByteArray.size());
 			}
 		} else { // Send individual message
 			if (tracer.isTraceEnabled())
 				tracer.log(TraceLevel.TRACE,
 						"Submitting Avro message with length " + avroMessageByteArray.size() + " bytes");
-			outTuple.setBlob(outputAvroMessage, ValueFactory.newBlob(avroMessageByteArray.toByteArray()));
+			outTuple.setBlob(outputAvroMessage, avroMessageByteArray.toBlob());
 			outStream.submit(outTuple);
+			updateSubmitMetrics(avroMessageByteArray.size(), 1);
 			// Reset for the next message
 			avroMessageByteArray.reset();
 		}
 	}
 
+	// Submit the block of the selected schema and close its writer
+	private void submitBlock() throws Exception {
+		if (tracer.isTraceEnabled())
+			tracer.log(TraceLevel.TRACE, "Submitting " + numberOfBatchedMessages
+					+ " Avro messages with a total length of " + avroBlockByteArray.size() + " bytes");
+		long blockLength;
+		if (outputAvroFile != null) {
+			File blockFile = BlockBuffer.createBlockFile(spillDirectoryFile);
+			blockLength = (blockStatistics != null) ? blockStatistics.toFile(messageSchema, avroBlockByteArray, blockFile)
+					: avroBlockByteArray.toFile(blockFile, new byte[0], 0);
+			outTuple.setString(outputAvroFile, blockFile.getPath());
+		} else {
+			Blob avroBlock = (blockStatistics != null) ? blockStatistics.toBlob(messageSchema, avroBlockByteArray)
+					: avroBlockByteArray.toBlob();
+			blockLength = avroBlock.getLength();
+			outTuple.setBlob(outputAvroMessage, avroBlock);
+		}
+		if (avroBlockByteArray.isSpilled())
+			nSpilledBlocks.increment();
+		outStream.submit(outTuple);
+		outStream.punctuate(Punctuation.WINDOW_MARKER);
+		updateSubmitMetrics(blockLength, numberOfBatchedMessages);
+		if (batchController != null) {
+			tuplesPerMessage = batchController.submitted(numberOfBatchedMessages, blockLength,
+					System.currentTimeMillis() - lastSubmitted);
+			tuplesPerMessageSetpoint.setValue(tuplesPerMessage);
+		}
+		// Reset for the next block
+		avroBlockByteArray.reset();
+		avroDataFileWriter.close();
+		lastSubmitted = System.currentTimeMillis();
+		numberOfBatchedMessages = 0;
+	}
+
+	// Submit an Avro message that was encoded into an array
+	private void submitAvroMessage(byte[] avroMessage) throws Exception {
+		if (tracer.isTraceEnabled())
+			tracer.log(TraceLevel.TRACE, "Submitting Avro message with length " + avroMessage.length + " bytes");
+		outTuple.setBlob(outputAvroMessage, ValueFactory.newBlob(avroMessage));
+		outStream.submit(outTuple);
+		updateSubmitMetrics(avroMessage.length, 1);
+	}
+
+	// Return the cached encoding of a JSON string, null if it is not cached
+	private byte[] lookupEncoding(String jsonInput) {
+		if (encodingCache == null)
+			return null;
+		byte[] cachedMessage = encodingCache.get(jsonInput);
+		updateCacheMetrics();
+		return cachedMessage;
+	}
+
+	private void updateCacheMetrics() {
+		nCacheHits.setValue(encodingCache.getHits());
+		nCacheMisses.setValue(encodingCache.getMisses());
+		nCacheEvictions.setValue(encodingCache.getEvictions());
+	}
+
+	// Select the writer and block of a schema. A schema that is not open gets
+	// a new writer and block. If too many schemas are open, the least
+	// recently used one is closed and its block is submitted.
+	private void selectSchema(CachedSchema cachedSchema) throws Exception {
+		if (selectedBlock != null && selectedBlock.cachedSchema == cachedSchema)
+			return;
+		SchemaBlock block = schemaBlocks.get(cachedSchema);
+		if (block != null) {
+			activateBlock(block);
+			return;
+		}
+		block = new SchemaBlock(cachedSchema, newBlockStatistics(cachedSchema),
+				(maxBytesPerMessage != 0) ? new BlockSizeLimit(maxBytesPerMessage) : null);
+		block.blockByteArray.setSpill(spillThreshold, spillDirectoryFile);
+		schemaBlocks.put(cachedSchema, block);
+		for (SchemaBlock evictedBlock : evictedBlocks) {
+			activateBlock(evictedBlock);
+			// Submit the block and close its writer, without embedded schema
+			// every message is already submitted and no writer is open
+			if (embedAvroSchema) {
+				if (numberOfBatchedMessages > 0)
+					submitBlock();
+				else
+					avroDataFileWriter.close();
+			}
+			evictedBlock.blockByteArray.deleteSpillFile();
+			nSchemaEvictions.increment();
+		}
+		evictedBlocks.clear();
+		activateBlock(block);
+		if (embedAvroSchema) {
+			createBlock();
+			bufferedBytes.setValue(avroBlockByteArray.size());
+		}
+	}
+
+	// Save the state of the selected block and load the state of another one.
+	// The bulk decoder and datum are bound to the schema.
+	private void activateBlock(SchemaBlock block) {
+		if (selectedBlock != null) {
+			selectedBlock.numberOfBatchedMessages = numberOfBatchedMessages;
+			selectedBlock.lastSubmitted = lastSubmitted;
+			selectedBlock.outTuple = outTuple;
+		}
+		if (messageSchema != block.cachedSchema.getSchema()) {
+			bulkDecoder = null;
+			bulkDatum = null;
+		}
+		selectedBlock = block;
+		messageSchema = block.cachedSchema.getSchema();
+		jsonReader = block.cachedSchema.getReader();
+		avroWriter = block.cachedSchema.getWriter();
+		avroDataFileWriter = block.dataFileWriter;
+		avroBlockByteArray = block.blockByteArray;
+		blockStatistics = block.blockStatistics;
+		blockSizeLimit = block.blockSizeLimit;
+		numberOfBatchedMessages = block.numberOfBatchedMessages;
+		lastSubmitted = block.lastSubmitted;
+		outTuple = block.outTuple;
+	}
+
+	// Submit the blocks of all open schemas
+	private void submitAllBlocks() throws Exception {
+		SchemaBlock selected = selectedBlock;
+		for (SchemaBlock block : schemaBlocks.values()) {
+			activateBlock(block);
+			if (numberOfBatchedMessages > 0)
+				nFlushesByPunct.increment();
+			submitAvroToOuput();
+		}
+		activateBlock(selected);
+	}
+
+	// Submit the blocks of the schemas that were not selected for longer than
+	// the maximum block age
+	private void submitExpiredBlocks() throws Exception {
+		SchemaBlock selected = selectedBlock;
+		long expired = System.currentTimeMillis() - maxBlockAgeMillis;
+		for (SchemaBlock block : schemaBlocks.values()) {
+			if (block != selected && block.numberOfBatchedMessages > 0 && block.lastSubmitted <= expired) {
+				activateBlock(block);
+				nFlushesByTime.increment();
+				submitAvroToOuput();
+			}
+		}
+		activateBlock(selected);
+	}
+
+	private BlockStatistics newBlockStatistics(CachedSchema cachedSchema) {
+		if (statisticsFields.isEmpty() && bloomFilterField == null)
+			return null;
+		return new BlockStatistics(cachedSchema.getSchema(), statisticsFields, bloomFilterField, bloomFilterFalsePositiveRate);
+	}
+
+	// The worker of the calling thread for a schema, the statistics of the
+	// worker only extract the values of the records
+	private JsonToAvroWorker getWorker(CachedSchema cachedSchema) {
+		Map<CachedSchema, JsonToAvroWorker> threadWorkers = workers.get();
+		JsonToAvroWorker worker = threadWorkers.get(cachedSchema);
+		if (worker == null) {
+			worker = new JsonToAvroWorker(cachedSchema.getSchema(), newBlockStatistics(cachedSchema));
+			threadWorkers.put(cachedSchema, worker);
+		}
+		return worker;
+	}
+
+	// Start a new Avro message block, with the sync marker of the statistics
+	// collector if block statistics are recorded
+	private void createBlock() throws IOException {
+		if (blockStatistics != null)
+			blockStatistics.create(avroDataFileWriter, messageSchema, avroBlockByteArray);
+		else
+			avroDataFileWriter.create(messageSchema, avroBlockByteArray);
+	}
+
+	// Update the metrics for a message or message block submitted to the
+	// output port
+	private void updateSubmitMetrics(long messageSize, int numberOfRecords) {
+		nBytesOut.incrementValue(messageSize);
+		nMessagesSubmitted.increment();
+		avgMessageSize.setValue(nBytesOut.getValue() / nMessagesSubmitted.getValue());
+		if (embedAvroSchema) {
+			nRecordsSubmittedInBlocks += numberOfRecords;
+			avgRecordsPerBlock.setValue(nRecordsSubmittedInBlocks / nMessagesSubmitted.getValue());
+		}
+	}
+
 	/**
 	 * Process the punctuation. If Avro messages are batched, the Avro message
 	 * is submitted if a window punctuation is received and submitOnPunct is
 	 * true, or when the final punctuation is received.
 	 */
 	public void processPunctuation(StreamingInput<Tuple> inputStream, Punctuation mark) throws Exception {
+		// Messages still being converted belong in front of the punctuation,
+		// the worker threads submit messages under the same lock
+		if (workerPool != null) {
+			synchronized (this) {
+				throwSubmitFailure();
+				submitConvertedMessages(true);
+				submitPunctuation(inputStream, mark);
+			}
+		} else
+			submitPunctuation(inputStream, mark);
+	}
+
+	private void submitPunctuation(StreamingInput<Tuple> inputStream, Punctuation mark) throws Exception {
+		if (encodingCache != null && mark == Punctuation.FINAL_MARKER)
+			tracer.log(TraceLevel.INFO, "Encoding cache: " + encodingCache.getHits() + " hits, "
+					+ encodingCache.getMisses() + " misses, " + encodingCache.getEvictions() + " evictions");
 		// If Avro messages are batched, submit current batch and punctuation if
 		// submitOnPunct
 		if (embedAvroSchema) {
-			if (submitOnPunct && mark == Punctuation.WINDOW_MARKER)
-				submitAvroToOuput();
-			if (mark == Punctuation.FINAL_MARKER)
-				submitAvroToOuput();
+			if ((submitOnPunct && mark == Punctuation.WINDOW_MARKER) || mark == Punctuation.FINAL_MARKER)
+				submitAllBlocks();
 		}
 		// Else forward window punctuation mark to the output port
 		else
 			super.processPunctuation(inputStream, mark);
 	}
 
+	/**
+	 * Stops the worker threads, if any.
+	 */
+	@Override
+	public void shutdown() throws Exception {
+		if (workerPool != null) {
+			workerPool.shutdownNow();
+			submitter.shutdownNow();
+		}
+		if (schemaBlocks != null) {
+			for (SchemaBlock block : schemaBlocks.values())
+				block.blockByteArray.deleteSpillFile();
+		}
+		super.shutdown();
+	}
+
+	/**
+	 * A tuple whose JSON string is converted by a worker thread.
+	 */
+	private static class PendingMessage {
+		final Tuple tuple;
+		final OutputTuple outTuple;
+		final CachedSchema cachedSchema;
+		final String jsonInput;
+		final Future<ConvertedMessage> result;
+
+		PendingMessage(Tuple tuple, OutputTuple outTuple, CachedSchema cachedSchema, String jsonInput,
+				Future<ConvertedMessage> result) {
+			this.tuple = tuple;
+			this.outTuple = outTuple;
+			this.cachedSchema = cachedSchema;
+			this.jsonInput = jsonInput;
+			this.result = result;
+		}
+	}
+
+	/**
+	 * The writer and the Avro message block of an open schema. The operator
+	 * converts the JSON strings with the fields of the selected block, they
+	 * are saved here when another schema is selected.
+	 */
+	private static class SchemaBlock {
+		final CachedSchema cachedSchema;
+		final DataFileWriter<GenericRecord> dataFileWriter;
+		final BlockBuffer blockByteArray = new BlockBuffer();
+		final BlockStatistics blockStatistics;
+		final BlockSizeLimit blockSizeLimit;
+		int numberOfBatchedMessages = 0;
+		long lastSubmitted = System.currentTimeMillis();
+		OutputTuple outTuple;
+
+		SchemaBlock(CachedSchema cachedSchema, BlockStatistics blockStatistics, BlockSizeLimit blockSizeLimit) {
+			this.cachedSchema = cachedSchema;
+			this.dataFileWriter = new DataFileWriter<GenericRecord>(cachedSchema.getWriter());
+			this.blockStatistics = blockStatistics;
+			this.blockSizeLimit = blockSizeLimit;
+		}
+	}
+
+	/**
+	 * An Avro message converted by a worker thread, and the values of its
+	 * record for the block statistics, if they are collected.
+	 */
+	private static class ConvertedMessage {
+		final byte[] avroMessage;
+		final Object[] statisticsValues;
+
+		ConvertedMessage(byte[] avroMessage, Object[] statisticsValues) {
+			this.avroMessage = avroMessage;
+			this.statisticsValues = statisticsValues;
+		}
+	}
+
+	/**
+	 * Decoder and encoder state of a single worker thread. The decoder, the
+	 * datum and the encoder are reused for every JSON string the thread
+	 * converts.
+	 */
+	private static class JsonToAvroWorker {
+		final Schema schema;
+		final GenericDatumReader<GenericRecord> reader;
+		final GenericDatumWriter<GenericRecord> writer;
+		final BlockStatistics blockStatistics;
+		final ByteArrayOutputStream avroMessageByteArray = new ByteArrayOutputStream();
+		JsonDecoder decoder;
+		BinaryEncoder encoder;
+		GenericRecord datum;
+
+		JsonToAvroWorker(Schema schema, BlockStatistics blockStatistics) {
+			this.schema = schema;
+			this.blockStatistics = blockStatistics;
+			this.reader = new GenericDatumReader<GenericRecord>(schema);
+			this.writer = new PrimitiveArrayDatumWriter<GenericRecord>(schema);
+		}
+
+		ConvertedMessage convert(String jsonInput) throws IOException {
+			decoder = (decoder == null) ? DecoderFactory.get().jsonDecoder(schema, jsonInput) : decoder.configure(jsonInput);
+			datum = reader.read(datum, decoder);
+			avroMessageByteArray.reset();
+			encoder = EncoderFactory.get().binaryEncoder(avroMessageByteArray, encoder);
+			writer.write(datum, encoder);
+			encoder.flush();
+			return new ConvertedMessage(avroMessageByteArray.toByteArray(),
+					(blockStatistics != null) ? blockStatistics.extract(datum) : null);
+		}
+	}
+
 	static final String DESC = "This operator converts JSON strings into binary Avro messages.\\n\\n"
 			+ "If an input or output message attribute is not found or has an incompatible type, the operator will fail. "
-			+ "If an invalid JSON string is found in the input, the operator will fail if parameter `ignoreParsingError` is false.\\n\\n"
+			+ "If an invalid JSON string is found in the input, the operator will fail if parameter `ignoreParsingError` is false "
+			+ "and the optional second output port is not present. If the port is present, the input tuple is submitted to it together "
+			+ "with a short reason. Parsing errors are logged at most " + ErrorReporter.MAX_LOGGED_ERRORS + " times per minute.\\n\\n"
 			+ "If parameter `embedAvroSchema` is false, the operator passes window punctuation marker transparently to the output port. "
 			+ "If parameter `embedAvroSchema` is true, the operator generates window punctuation markers.\\n\\n"
+			+ "If parameter `bulkInput` is true, every input tuple can hold many JSON documents, for example newline-delimited JSON.\\n\\n"
+			+ "If parameter `parallelism` is greater than 1, the JSON strings are converted on multiple threads. "
+			+ "The order of the output and the handling of punctuation markers and parsing errors are the same as with a single thread.\\n\\n"
+			+ "Parameter `bytesPerMessage` is a minimum, a block is submitted once it reaches that size. With parameter `maxBytesPerMessage`, "
+			+ "a block is submitted before appending a record would make it exceed the given size, so that the blocks can be sent to "
+			+ "systems with a message size limit.\\n\\n"
+			+ "With parameter `targetBatchLatency`, the thresholds are not fixed: the number of records per block follows the arrival rate "
+			+ "of the records, so that blocks grow when the rate is high and shrink when it is low. The age of a block is checked when "
+			+ "a tuple arrives, a partial block waits for the next tuple or punctuation while the input is idle. "
+			+ "Parameter `preferredBytesPerMessage` limits the size of the blocks.\\n\\n"
+			+ "With parameter `spillThreshold`, a block that grows beyond the given size is spilled to a temporary file, so that "
+			+ "very large blocks do not need the heap. With parameter `outputAvroFile`, every block is written to a file and the "
+			+ "path of the file is submitted instead of the block.\\n\\n"
+			+ "With parameter `encodingCacheSize`, the Avro encoding of recently received JSON strings is cached, so that repeated "
+			+ "JSON strings are not parsed and encoded again.\\n\\n"
+			+ "With parameters `statisticsFields` and `bloomFilterField`, the minimum and maximum values of fields and a Bloom filter "
+			+ "of a key field are written into the header metadata of every Avro message block, so that readers can skip blocks.\\n\\n"
+			+ "JSON strings of different record types can be converted by one operator: parameters `avroMessageSchemaFile` and "
+			+ "`avroMessageSchemaDirectory` give several schemas, and parameter `inputSchemaSelector` selects the schema of every "
+			+ "JSON string by its full name or fingerprint. If the Avro schema is embedded, the records of each schema are batched into "
+			+ "blocks of their own, the thresholds apply to each block. Writers and blocks are kept for at most `maxOpenSchemas` recently "
+			+ "used schemas.\\n\\n"
 			+ "This operator must not be used inside a consistent region.";
 
 }
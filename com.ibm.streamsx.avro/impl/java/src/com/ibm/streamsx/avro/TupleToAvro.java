@@ -7,9 +7,11 @@
 
 package com.ibm.streamsx.avro;
 
-import java.io.ByteArrayOutputStream;
-import java.io.FileInputStream;
-import java.io.InputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
 
 import org.apache.avro.Schema;
 import org.apache.avro.file.DataFileWriter;
@@ -27,11 +29,16 @@ import com.ibm.streams.operator.StreamSchema;
 import com.ibm.streams.operator.StreamingInput;
 import com.ibm.streams.operator.StreamingOutput;
 import com.ibm.streams.operator.Tuple;
+import com.ibm.streams.operator.Type;
 import com.ibm.streams.operator.OperatorContext.ContextCheck;
 import com.ibm.streams.operator.StreamingData.Punctuation;
 import com.ibm.streams.operator.Type.MetaType;
 import com.ibm.streams.operator.compile.OperatorContextChecker;
 import com.ibm.streams.operator.log4j.TraceLevel;
+import com.ibm.streams.operator.meta.CollectionType;
+import com.ibm.streams.operator.meta.TupleType;
+import com.ibm.streams.operator.metrics.Metric;
+import com.ibm.streams.operator.model.CustomMetric;
 import com.ibm.streams.operator.model.InputPortSet;
 import com.ibm.streams.operator.model.InputPortSet.WindowMode;
 import com.ibm.streams.operator.model.InputPortSet.WindowPunctuationInputMode;
@@ -44,7 +51,19 @@ import com.ibm.streams.operator.state.ConsistentRegionContext;
 import com.ibm.streams.operator.model.OutputPorts;
 import com.ibm.streams.operator.model.Parameter;
 import com.ibm.streams.operator.model.PrimitiveOperator;
-import com.ibm.streams.operator.types.ValueFactory;
+import com.ibm.streams.operator.types.Blob;
+import com.ibm.streamsx.avro.convert.BatchController;
+import com.ibm.streamsx.avro.convert.BlockBuffer;
+import com.ibm.streamsx.avro.convert.BlockIndex;
+import com.ibm.streamsx.avro.convert.BlockSizeLimit;
+import com.ibm.streamsx.avro.convert.BlockSizeLimit.OversizePolicy;
+import com.ibm.streamsx.avro.convert.BlockStatistics;
+import com.ibm.streamsx.avro.convert.ErrorReporter;
+import com.ibm.streamsx.avro.convert.FieldProfiler;
+import com.ibm.streamsx.avro.convert.LruCache;
+import com.ibm.streamsx.avro.convert.PassThroughAttributes;
+import com.ibm.streamsx.avro.convert.SchemaCache.CachedSchema;
+import com.ibm.streamsx.avro.convert.SchemaSelector;
 import com.ibm.streamsx.avro.convert.TupleToAvroConverter;
 
 /**
@@ -56,7 +75,13 @@ import com.ibm.streamsx.avro.convert.TupleToAvroConverter;
 @InputPorts({
 		@InputPortSet(description = "Port that ingests tuples.", cardinality = 1, optional = false, windowingMode = WindowMode.NonWindowed, windowPunctuationInputMode = WindowPunctuationInputMode.Oblivious) })
 @OutputPorts({
-		@OutputPortSet(description = "Port that produces Avro records.", cardinality = 1, optional = false, windowPunctuationOutputMode = WindowPunctuationOutputMode.Generating) })
+		@OutputPortSet(description = "Port that produces Avro records.", cardinality = 1, optional = false, windowPunctuationOutputMode = WindowPunctuationOutputMode.Generating),
+		@OutputPortSet(description = "Optional port that receives the input tuples that could not be converted. The attributes of the input tuple "
+				+ "are copied to the attributes of the same name, and the attribute named by parameter `outputErrorReason` receives a short reason.", cardinality = 1, optional = true, windowPunctuationOutputMode = WindowPunctuationOutputMode.Free),
+		@OutputPortSet(description = "Optional port that receives an index tuple for every Avro message block submitted to the first output port. "
+				+ "The index tuple can have the attributes `offset`, `length`, `recordCount`, `firstRecord` and `lastRecord` of type int64 and "
+				+ "`minValue` and `maxValue` of type rstring or ustring, see the operator description. Only valid if Avro schema is embedded in the output. "
+				+ "To use this port, the error output port must be present too.", cardinality = 1, optional = true, windowPunctuationOutputMode = WindowPunctuationOutputMode.Free) })
 @Icons(location16 = "icons/TupleToAvro_16.gif", location32 = "icons/TupleToAvro_32.gif")
 @Libraries(value = { "opt/downloaded/*" })
 public class TupleToAvro extends AbstractOperator {
@@ -68,24 +93,100 @@ public class TupleToAvro extends AbstractOperator {
 	private String outputAvroMessage = null;
 	private final String DEFAULT_OUTPUT_AVRO_MSG_ATTRIBUTE = "avroMessage";
 
-	private String avroMessageSchemaFile = null;
+	private String inputRecords = null;
+	private StreamSchema recordSchema;
+	private List<String> avroMessageSchemaFile = new ArrayList<String>();
+	private String avroMessageSchemaDirectory = null;
+	private String inputSchemaSelector = null;
+	private int maxOpenSchemas = 16;
+	private List<String> partitionBy = new ArrayList<String>();
+	private int[] partitionIndexes = new int[0];
+	private int maxOpenPartitions = 64;
 	private boolean embedAvroSchema = false;
 	private boolean submitOnPunct = false;
 	private long bytesPerMessage = 0;
+	private long maxBytesPerMessage = 0;
+	private OversizePolicy oversizePolicy = OversizePolicy.error;
 	private long tuplesPerMessage = 0;
 	private long timePerMessage = 0;
+	private double targetBatchLatency = 0;
+	private long preferredBytesPerMessage = 0;
+	// Maximum age of a block in milliseconds, from timePerMessage or
+	// targetBatchLatency
+	private long maxBlockAgeMillis = 0;
+	private BatchController batchController;
+	private long spillThreshold = 0;
+	private String spillDirectory = null;
+	private File spillDirectoryFile;
+	private String outputAvroFile = null;
+	private int profileSampleRate = 0;
+	private int profileTopFields = 10;
+	private String outputErrorReason = "errorReason";
+	private List<String> statisticsFields = new ArrayList<String>();
+	private String bloomFilterField = null;
+	private double bloomFilterFalsePositiveRate = 0.01;
+	private String indexField = null;
 	private Schema messageSchema;
+	private FieldProfiler profiler;
+	private ErrorReporter errorReporter;
+	private BlockIndex blockIndex;
+	private PassThroughAttributes passThrough;
+	private BlockSizeLimit blockSizeLimit;
 
 	@Parameter(optional = true, description = "The ouput stream attribute which contains the output Avro message(s). This attribute must be of type blob. Default is the sole output attribute when the schema has one attribute otherwise `avroMessage`.")
 	public void setOutputAvroMessage(String outputAvroMessage) {
 		this.outputAvroMessage = outputAvroMessage;
 	}
 
-	@Parameter(optional = false, description = "File that contains the Avro schema to serialize the Avro message(s).")
-	public void setAvroMessageSchemaFile(String avroMessageSchemaFile) {
+	@Parameter(optional = true, description = "The input stream attribute of type `list<tuple<...>>` which contains the records to convert. "
+			+ "If this parameter is set, every element of the list is converted to an Avro record. All records of an input tuple are "
+			+ "added to the same Avro message block if the Avro schema is embedded, otherwise they are encoded one after the other "
+			+ "into a single output Avro message, which AvroToJSON decodes with parameter `multipleRecords`. If this parameter is not set, the input tuple itself is converted.")
+	public void setInputRecords(String inputRecords) {
+		this.inputRecords = inputRecords;
+	}
+
+	@Parameter(optional = true, cardinality = -1, description = "File that contains the Avro schema to serialize the Avro message(s). "
+			+ "Several files can be given to convert tuples of different record types, the schema of every tuple is selected "
+			+ "by parameter `inputSchemaSelector`. Either this parameter or `avroMessageSchemaDirectory` must be set.")
+	public void setAvroMessageSchemaFile(List<String> avroMessageSchemaFile) {
 		this.avroMessageSchemaFile = avroMessageSchemaFile;
 	}
 
+	@Parameter(optional = true, description = "Directory whose files with extension `.avsc` contain Avro schemas to serialize the Avro messages, "
+			+ "in addition to the files of parameter `avroMessageSchemaFile`.")
+	public void setAvroMessageSchemaDirectory(String avroMessageSchemaDirectory) {
+		this.avroMessageSchemaDirectory = avroMessageSchemaDirectory;
+	}
+
+	@Parameter(optional = true, description = "The input stream attribute which selects the Avro schema of the tuple if more than one schema is given. "
+			+ "An attribute of type `rstring` or `ustring` holds the full name of the schema, including its namespace, an attribute "
+			+ "of type `int64` the 64-bit Rabin fingerprint of the parsing canonical form of the schema. Tuples whose attribute "
+			+ "selects no schema are handled like tuples that cannot be converted.")
+	public void setInputSchemaSelector(String inputSchemaSelector) {
+		this.inputSchemaSelector = inputSchemaSelector;
+	}
+
+	@Parameter(optional = true, description = "Maximum number of schemas for which a writer and, if the Avro schema is embedded, an Avro message block "
+			+ "are kept open. When a tuple selects another schema, the least recently used schema is closed and its block is submitted. Default is 16.")
+	public void setMaxOpenSchemas(Integer maxOpenSchemas) {
+		this.maxOpenSchemas = maxOpenSchemas;
+	}
+
+	@Parameter(optional = true, cardinality = -1, description = "Input stream attributes whose values partition the records into separate Avro message blocks. "
+			+ "A block is built for every distinct combination of values, and the thresholds apply to each block. The output tuple of a block "
+			+ "receives the partition values in the output attributes of the same name and type. Only valid if Avro schema is embedded in the output.")
+	public void setPartitionBy(List<String> partitionBy) {
+		this.partitionBy = partitionBy;
+	}
+
+	@Parameter(optional = true, description = "Maximum number of partitions for which a writer and an Avro message block are kept open if parameter "
+			+ "`partitionBy` is set, instead of `maxOpenSchemas`. When a tuple belongs to another partition, the least recently used partition "
+			+ "is closed and its block is submitted. Default is 64.")
+	public void setMaxOpenPartitions(Integer maxOpenPartitions) {
+		this.maxOpenPartitions = maxOpenPartitions;
+	}
+
 	@Parameter(optional = true, description = "Embed the schema in the generated Avro message. "
 			+ "When generating Avro messages that must be persisted to a file system, "
 			+ "the schema is expected to be included in the file. If this parameter is set to true, "
@@ -111,6 +212,22 @@ public class TupleToAvro extends AbstractOperator {
 		this.bytesPerMessage = bytesPerMessage;
 	}
 
+	@Parameter(optional = true, description = "This parameter controls the maximum size in bytes of an Avro message block. If appending a record "
+			+ "would make the block exceed this size, the block is submitted before the record is appended. The size of the record is exact, "
+			+ "the overhead of the block and the header metadata written for `statisticsFields` and `bloomFilterField` are estimated from above. "
+			+ "A record that exceeds this size on its own is handled according to parameter `oversizePolicy`. "
+			+ "Default is 0l (no maximum). Only valid if Avro schema is embedded in the output.")
+	public void setMaxBytesPerMessage(Long maxBytesPerMessage) {
+		this.maxBytesPerMessage = maxBytesPerMessage;
+	}
+
+	@Parameter(optional = true, description = "What happens to a record that exceeds `maxBytesPerMessage` on its own: `error` handles it like a tuple that "
+			+ "cannot be converted, it is skipped and submitted to the error output port if present, `submit` submits it in a block of its own "
+			+ "that exceeds the maximum size. Default is `error`.")
+	public void setOversizePolicy(OversizePolicy oversizePolicy) {
+		this.oversizePolicy = oversizePolicy;
+	}
+
 	@Parameter(optional = true, description = "This parameter controls the minimum number of tuples that the Avro message "
 			+ "block should contain before it is submitted to the output port. Default is 0l. Only valid if Avro schema is embedded in the output.")
 	public void setTuplesPerMessage(Long tuplesPerMessage) {
@@ -123,15 +240,222 @@ public class TupleToAvro extends AbstractOperator {
 		this.timePerMessage = timePerMessage;
 	}
 
+	@Parameter(optional = true, description = "Adapt the number of records per Avro message block to the arrival rate of the records, "
+			+ "so that a block is submitted once it holds the number of records that arrive in this time in seconds. Like with `timePerMessage`, "
+			+ "the age of a block is only checked when a tuple arrives: a block that is older than this time is submitted with the next tuple, "
+			+ "if no more tuples arrive it waits for the final punctuation or, with `submitOnPunct`, a window punctuation. "
+			+ "The current number of records per block is published by metric `tuplesPerMessageSetpoint`. Default is 0.0 "
+			+ "(thresholds are fixed). Cannot be set together with `tuplesPerMessage`, `bytesPerMessage` and `timePerMessage`. "
+			+ "Only valid if Avro schema is embedded in the output.")
+	public void setTargetBatchLatency(Double targetBatchLatency) {
+		this.targetBatchLatency = targetBatchLatency;
+	}
+
+	@Parameter(optional = true, description = "The preferred size in bytes of an Avro message block if parameter `targetBatchLatency` is set. "
+			+ "A block is submitted once it reaches that size, and the number of records per block is limited to the records of that size. "
+			+ "Default is 0l (size is not limited).")
+	public void setPreferredBytesPerMessage(Long preferredBytesPerMessage) {
+		this.preferredBytesPerMessage = preferredBytesPerMessage;
+	}
+
+	@Parameter(optional = true, description = "Size in bytes from which on an Avro message block is spilled to a temporary file "
+			+ "instead of being held on the heap while it is collected. The heap used for a block is only limited to this size if "
+			+ "parameter `outputAvroFile` is set too: a block that is submitted as a blob is read back from the file, so that the "
+			+ "whole block is on the heap when it is submitted. "
+			+ "Default is 0l (blocks are not spilled). Only valid if Avro schema is embedded in the output.")
+	public void setSpillThreshold(Long spillThreshold) {
+		this.spillThreshold = spillThreshold;
+	}
+
+	@Parameter(optional = true, description = "Directory of the temporary files of spilled blocks and of the files written for "
+			+ "`outputAvroFile`. Default is the temporary directory of the JVM.")
+	public void setSpillDirectory(String spillDirectory) {
+		this.spillDirectory = spillDirectory;
+	}
+
+	@Parameter(optional = true, description = "The output stream attribute of type rstring which receives the path of a file that holds "
+			+ "the Avro message block, instead of the block itself. Every block is written to a new file in `spillDirectory`, the Avro "
+			+ "message attribute is empty. The receiver of the tuple owns the file and must delete it. "
+			+ "Only valid if Avro schema is embedded in the output.")
+	public void setOutputAvroFile(String outputAvroFile) {
+		this.outputAvroFile = outputAvroFile;
+	}
+
+	@Parameter(optional = true, description = "Profile the conversion cost of every Avro field for 1 in N tuples, where N is the value of this parameter. "
+			+ "The time spent on every field path and the number of bytes the field occupies in the Avro encoding are accumulated, "
+			+ "the fields with the highest cost are logged every minute and published as custom metrics `profile.<field path>.nanosPerRecord` "
+			+ "and `profile.<field path>.bytesPerRecord`. The time spent converting the attribute to the field is published apart from the "
+			+ "encoding time as `profile.<field path>.convertNanosPerRecord`. A sampled tuple is encoded once, "
+			+ "by the profiler. Default is 0 (disabled).")
+	public void setProfileSampleRate(Integer profileSampleRate) {
+		this.profileSampleRate = profileSampleRate;
+	}
+
+	@Parameter(optional = true, description = "Number of fields with the highest cost that are logged and published as custom metrics "
+			+ "when parameter `profileSampleRate` is set. Default is 10.")
+	public void setProfileTopFields(Integer profileTopFields) {
+		this.profileTopFields = profileTopFields;
+	}
+
+	@Parameter(optional = true, description = "The attribute of the optional error output port which receives the reason why an input could not be converted. "
+			+ "This attribute must be of `rstring` or `ustring` type. Default is `errorReason`.")
+	public void setOutputErrorReason(String outputErrorReason) {
+		this.outputErrorReason = outputErrorReason;
+	}
+
+	@Parameter(optional = true, cardinality = -1, description = "Top-level fields of the Avro schema whose minimum and maximum value in every Avro message block "
+			+ "are written into the metadata of the block header, as `streamsx.avro.min.<field>` and `streamsx.avro.max.<field>`. "
+			+ "The fields must be of type int, long, float, double or string, or a union of null and one of these types. "
+			+ "Readers such as AvroToJSON can use them to skip blocks without decoding them. Only valid if Avro schema is embedded in the output.")
+	public void setStatisticsFields(List<String> statisticsFields) {
+		this.statisticsFields = statisticsFields;
+	}
+
+	@Parameter(optional = true, description = "Top-level field of the Avro schema whose values in every Avro message block are added to a Bloom filter, "
+			+ "which is written into the metadata of the block header as `streamsx.avro.bloom.<field>`. The field must have one of the types "
+			+ "allowed for `statisticsFields`. Only valid if Avro schema is embedded in the output.")
+	public void setBloomFilterField(String bloomFilterField) {
+		this.bloomFilterField = bloomFilterField;
+	}
+
+	@Parameter(optional = true, description = "The false positive rate the Bloom filter is sized for. Default is 0.01.")
+	public void setBloomFilterFalsePositiveRate(Double bloomFilterFalsePositiveRate) {
+		this.bloomFilterFalsePositiveRate = bloomFilterFalsePositiveRate;
+	}
+
+	@Parameter(optional = true, description = "Top-level field of the Avro schema, for example a timestamp, whose minimum and maximum value in every Avro message block "
+			+ "are set in the attributes `minValue` and `maxValue` of the index tuple. The field must have one of the types allowed for `statisticsFields`, "
+			+ "and its statistics are also written into the block header.")
+	public void setIndexField(String indexField) {
+		this.indexField = indexField;
+	}
+
 	// Variables
 	StreamingOutput<OutputTuple> outStream;
 	OutputTuple outTuple;
 	GenericDatumWriter<GenericRecord> avroWriter;
 	DataFileWriter<GenericRecord> avroDataFileWriter;
-	ByteArrayOutputStream avroMessageByteArray = new ByteArrayOutputStream();
-	ByteArrayOutputStream avroBlockByteArray = new ByteArrayOutputStream();
-	long lastSubmitted = System.currentTimeMillis();
-	int numberOfBatchedMessages = 0;
+	// Segmented buffers that are copied only into the submitted blob
+	BlockBuffer avroMessageByteArray = new BlockBuffer();
+	BlockBuffer avroBlockByteArray;
+	BlockStatistics blockStatistics;
+	long lastSubmitted;
+	int numberOfBatchedMessages;
+	List<GenericRecord> datums = new ArrayList<GenericRecord>();
+	// The encoding of every datum that was encoded by the profiler, null for
+	// the datums that were not sampled
+	List<ByteBuffer> profiledEncodings = new ArrayList<ByteBuffer>();
+	// The writers and blocks of the open schemas, the fields above hold the
+	// state of the selected one
+	SchemaSelector schemaSelector;
+	LruCache<List<Object>, SchemaBlock> schemaBlocks;
+	List<SchemaBlock> evictedBlocks = new ArrayList<SchemaBlock>();
+	SchemaBlock selectedBlock;
+
+	// Metrics
+	Metric nRecordsConverted;
+	Metric nBytesOut;
+	Metric nMessagesSubmitted;
+	Metric avgMessageSize;
+	Metric avgRecordsPerBlock;
+	Metric nFlushesByTuples;
+	Metric nFlushesByBytes;
+	Metric nFlushesByTime;
+	Metric nFlushesByPunct;
+	Metric nFlushesByMaxBytes;
+	Metric nOversizeRecords;
+	Metric bufferedBytes;
+	Metric tuplesPerMessageSetpoint;
+	Metric nSpilledBlocks;
+	Metric nConversionErrors;
+	Metric nSchemaEvictions;
+	Metric nPartitionEvictions;
+	long nRecordsSubmittedInBlocks = 0;
+
+	@CustomMetric(name = "nRecordsConverted", kind = Metric.Kind.COUNTER, description = "Number of tuples converted to Avro.")
+	public void setnRecordsConverted(Metric nRecordsConverted) {
+		this.nRecordsConverted = nRecordsConverted;
+	}
+
+	@CustomMetric(name = "nBytesOut", kind = Metric.Kind.COUNTER, description = "Number of bytes of all Avro messages and message blocks submitted to the output port.")
+	public void setnBytesOut(Metric nBytesOut) {
+		this.nBytesOut = nBytesOut;
+	}
+
+	@CustomMetric(name = "nMessagesSubmitted", kind = Metric.Kind.COUNTER, description = "Number of Avro messages or, if the Avro schema is embedded, Avro message blocks submitted to the output port.")
+	public void setnMessagesSubmitted(Metric nMessagesSubmitted) {
+		this.nMessagesSubmitted = nMessagesSubmitted;
+	}
+
+	@CustomMetric(name = "avgMessageSize", kind = Metric.Kind.GAUGE, description = "Average size in bytes of the Avro messages or message blocks submitted to the output port.")
+	public void setavgMessageSize(Metric avgMessageSize) {
+		this.avgMessageSize = avgMessageSize;
+	}
+
+	@CustomMetric(name = "avgRecordsPerBlock", kind = Metric.Kind.GAUGE, description = "Average number of Avro records per submitted message block. Only updated if the Avro schema is embedded.")
+	public void setavgRecordsPerBlock(Metric avgRecordsPerBlock) {
+		this.avgRecordsPerBlock = avgRecordsPerBlock;
+	}
+
+	@CustomMetric(name = "nFlushesByTuples", kind = Metric.Kind.COUNTER, description = "Number of message blocks submitted because `tuplesPerMessage` was reached.")
+	public void setnFlushesByTuples(Metric nFlushesByTuples) {
+		this.nFlushesByTuples = nFlushesByTuples;
+	}
+
+	@CustomMetric(name = "nFlushesByBytes", kind = Metric.Kind.COUNTER, description = "Number of message blocks submitted because `bytesPerMessage` was reached.")
+	public void setnFlushesByBytes(Metric nFlushesByBytes) {
+		this.nFlushesByBytes = nFlushesByBytes;
+	}
+
+	@CustomMetric(name = "nFlushesByTime", kind = Metric.Kind.COUNTER, description = "Number of message blocks submitted because `timePerMessage` expired.")
+	public void setnFlushesByTime(Metric nFlushesByTime) {
+		this.nFlushesByTime = nFlushesByTime;
+	}
+
+	@CustomMetric(name = "nFlushesByPunct", kind = Metric.Kind.COUNTER, description = "Number of message blocks submitted because a window or final punctuation was received.")
+	public void setnFlushesByPunct(Metric nFlushesByPunct) {
+		this.nFlushesByPunct = nFlushesByPunct;
+	}
+
+	@CustomMetric(name = "nFlushesByMaxBytes", kind = Metric.Kind.COUNTER, description = "Number of message blocks submitted because appending a record would have exceeded `maxBytesPerMessage`.")
+	public void setnFlushesByMaxBytes(Metric nFlushesByMaxBytes) {
+		this.nFlushesByMaxBytes = nFlushesByMaxBytes;
+	}
+
+	@CustomMetric(name = "nOversizeRecords", kind = Metric.Kind.COUNTER, description = "Number of records that exceeded `maxBytesPerMessage` on their own.")
+	public void setnOversizeRecords(Metric nOversizeRecords) {
+		this.nOversizeRecords = nOversizeRecords;
+	}
+
+	@CustomMetric(name = "bufferedBytes", kind = Metric.Kind.GAUGE, description = "Current size in bytes of the Avro message block that is not yet submitted.")
+	public void setbufferedBytes(Metric bufferedBytes) {
+		this.bufferedBytes = bufferedBytes;
+	}
+
+	@CustomMetric(name = "tuplesPerMessageSetpoint", kind = Metric.Kind.GAUGE, description = "Current number of records per Avro message block if `targetBatchLatency` is set, 0 until the first block is submitted.")
+	public void settuplesPerMessageSetpoint(Metric tuplesPerMessageSetpoint) {
+		this.tuplesPerMessageSetpoint = tuplesPerMessageSetpoint;
+	}
+
+	@CustomMetric(name = "nSpilledBlocks", kind = Metric.Kind.COUNTER, description = "Number of Avro message blocks submitted that were spilled to a temporary file because they exceeded `spillThreshold`.")
+	public void setnSpilledBlocks(Metric nSpilledBlocks) {
+		this.nSpilledBlocks = nSpilledBlocks;
+	}
+
+	@CustomMetric(name = "nConversionErrors", kind = Metric.Kind.COUNTER, description = "Number of tuples that could not be converted to Avro and were skipped or submitted to the error output port.")
+	public void setnConversionErrors(Metric nConversionErrors) {
+		this.nConversionErrors = nConversionErrors;
+	}
+
+	@CustomMetric(name = "nSchemaEvictions", kind = Metric.Kind.COUNTER, description = "Number of schemas that were closed because more than `maxOpenSchemas` schemas were in use.")
+	public void setnSchemaEvictions(Metric nSchemaEvictions) {
+		this.nSchemaEvictions = nSchemaEvictions;
+	}
+
+	@CustomMetric(name = "nPartitionEvictions", kind = Metric.Kind.COUNTER, description = "Number of partitions that were closed because more than `maxOpenPartitions` partitions were in use.")
+	public void setnPartitionEvictions(Metric nPartitionEvictions) {
+		this.nPartitionEvictions = nPartitionEvictions;
+	}
 
 	/**
 	 * Compile time operator checks: Do not use the operator in a consistent region
@@ -185,36 +509,172 @@ public class TupleToAvro extends AbstractOperator {
 		}
 		tracer.log(TraceLevel.TRACE, "Output Avro message attribute: " + outputAvroMessage);
 
-		// Get the Avro schema file to parse the Avro messages
-		tracer.log(TraceLevel.TRACE, "Retrieving and parsing Avro message schema file " + avroMessageSchemaFile);
-		InputStream avscInput = new FileInputStream(avroMessageSchemaFile);
-		Schema.Parser parser = new Schema.Parser();
-		messageSchema = parser.parse(avscInput);
+		// Get the Avro schema files to parse the Avro messages, the parsed
+		// schemas are shared by all operators in the PE that use the same files
+		schemaSelector = new SchemaSelector(tracer, avroMessageSchemaFile, avroMessageSchemaDirectory, ssIp0, inputSchemaSelector);
+
+		// The records are either the input tuples or the elements of a list
+		// attribute of the input tuples
+		recordSchema = ssIp0;
+		if (inputRecords != null) {
+			Attribute inputRecordsAttribute = ssIp0.getAttribute(inputRecords);
+			if (inputRecordsAttribute == null) {
+				tracer.log(TraceLevel.ERROR, Messages.getString("AVRO_INPUT_ATTRIBUTE_NOT_FOUND", "inputRecords", inputRecords));
+				throw new IllegalArgumentException(Messages.getString("AVRO_INPUT_ATTRIBUTE_NOT_FOUND", "inputRecords", inputRecords));
+			}
+			Type inputRecordsType = inputRecordsAttribute.getType();
+			if (inputRecordsType.getMetaType() != MetaType.LIST
+					|| ((CollectionType) inputRecordsType).getElementType().getMetaType() != MetaType.TUPLE) {
+				tracer.log(TraceLevel.ERROR, Messages.getString("AVRO_ATTRIBUTE_WRONG_TYPE", "inputRecords", inputRecords, "list<tuple<...>>"));
+				throw new IllegalArgumentException(Messages.getString("AVRO_ATTRIBUTE_WRONG_TYPE", "inputRecords", inputRecords, "list<tuple<...>>"));
+			}
+			recordSchema = ((TupleType) ((CollectionType) inputRecordsType).getElementType()).getTupleSchema();
+			tracer.log(TraceLevel.TRACE, "Input records attribute: " + inputRecords);
+		}
 
-		// Check Streams and Avro schema
-		boolean validMapping = TupleToAvroConverter.isValidTupleToAvroMapping(operatorContext.getName(), ssIp0,
-				messageSchema);
-		if (!validMapping) {
-			throw new Exception(Messages.getString("AVRO_NO_SCHEMA_MATCH"));
+		// Check Streams and Avro schemas
+		for (CachedSchema cachedSchema : schemaSelector.getSchemas()) {
+			boolean validMapping = cachedSchema.isValidTupleToAvroMapping(operatorContext.getName(), recordSchema);
+			if (!validMapping) {
+				throw new Exception(Messages.getString("AVRO_NO_SCHEMA_MATCH"));
+			}
 		}
 
 		tracer.log(TraceLevel.TRACE, "Embed Avro schema in generated output Avro message block: " + embedAvroSchema);
 		tracer.log(TraceLevel.TRACE, "Submit Avro message block when punctuation is received: " + submitOnPunct);
 
 		// submitOnPunct is only valid if Avro schema is embedded in the output
-		if (!embedAvroSchema && ( submitOnPunct || (tuplesPerMessage != 0) || (bytesPerMessage != 0) || (timePerMessage != 0) ) )
-			throw new Exception(Messages.getString("AVRO_EMBEDDED_SCHEMA_REQUIRED","submitOnPunct, bytesPerMessage, timePerMessage, tuplesPerMessage"));
+		if (!embedAvroSchema && ( submitOnPunct || (tuplesPerMessage != 0) || (bytesPerMessage != 0) || (timePerMessage != 0) || (targetBatchLatency != 0) ) )
+			throw new Exception(Messages.getString("AVRO_EMBEDDED_SCHEMA_REQUIRED","submitOnPunct, bytesPerMessage, timePerMessage, tuplesPerMessage, targetBatchLatency"));
 		// If Avro schema is embedded in the output, submitOnPunct is mandatory
-		if (embedAvroSchema && !submitOnPunct && tuplesPerMessage == 0 && bytesPerMessage == 0 && timePerMessage == 0)
-			throw new Exception(Messages.getString("AVRO_MISSING_THRESHOLD","submitOnPunct, bytesPerMessage, timePerMessage, tuplesPerMessage"));
-
-		// Prepare and initialize variables that don't change for every input
-		// record
-		avroWriter = new GenericDatumWriter<GenericRecord>(messageSchema);
-		avroDataFileWriter = new DataFileWriter<GenericRecord>(avroWriter);
-		if (embedAvroSchema)
-			avroDataFileWriter.create(messageSchema, avroBlockByteArray);
-		numberOfBatchedMessages = 0;
+		if (embedAvroSchema && !submitOnPunct && tuplesPerMessage == 0 && bytesPerMessage == 0 && timePerMessage == 0 && targetBatchLatency == 0)
+			throw new Exception(Messages.getString("AVRO_MISSING_THRESHOLD","submitOnPunct, bytesPerMessage, timePerMessage, tuplesPerMessage, targetBatchLatency"));
+		maxBlockAgeMillis = 1000 * timePerMessage;
+
+		// Adapt the thresholds to the arrival rate of the records, the
+		// controller sets tuplesPerMessage whenever a block is submitted
+		if (targetBatchLatency != 0) {
+			if (targetBatchLatency < 0)
+				throw new IllegalArgumentException(Messages.getString("AVRO_PARAMETER_MIN_VALUE", "targetBatchLatency", 0, targetBatchLatency));
+			if (tuplesPerMessage != 0 || bytesPerMessage != 0 || timePerMessage != 0) {
+				tracer.log(TraceLevel.ERROR, Messages.getString("AVRO_PARAMETERS_EXCLUSIVE", "targetBatchLatency", "tuplesPerMessage, bytesPerMessage, timePerMessage"));
+				throw new IllegalArgumentException(Messages.getString("AVRO_PARAMETERS_EXCLUSIVE", "targetBatchLatency", "tuplesPerMessage, bytesPerMessage, timePerMessage"));
+			}
+			maxBlockAgeMillis = Math.max(1, Math.round(1000 * targetBatchLatency));
+			bytesPerMessage = preferredBytesPerMessage;
+			batchController = new BatchController(maxBlockAgeMillis, preferredBytesPerMessage);
+			tracer.log(TraceLevel.TRACE, "Target batch latency: " + maxBlockAgeMillis + " ms, preferred bytes per message: " + preferredBytesPerMessage);
+		} else if (preferredBytesPerMessage != 0) {
+			tracer.log(TraceLevel.ERROR, Messages.getString("AVRO_PARAMETER_DEPENDENCY", "preferredBytesPerMessage", "targetBatchLatency"));
+			throw new IllegalArgumentException(Messages.getString("AVRO_PARAMETER_DEPENDENCY", "preferredBytesPerMessage", "targetBatchLatency"));
+		}
+
+		// Large blocks are spilled to files, and the blocks are handed off as
+		// files if requested
+		if (!embedAvroSchema && (spillThreshold != 0 || outputAvroFile != null))
+			throw new Exception(Messages.getString("AVRO_EMBEDDED_SCHEMA_REQUIRED", "spillThreshold, outputAvroFile"));
+		if (spillThreshold < 0)
+			throw new IllegalArgumentException(Messages.getString("AVRO_PARAMETER_MIN_VALUE", "spillThreshold", 0, spillThreshold));
+		if (spillDirectory != null)
+			spillDirectoryFile = new File(spillDirectory);
+		if (spillThreshold != 0 && outputAvroFile == null)
+			tracer.log(TraceLevel.WARN, Messages.getString("AVRO_SPILL_WITHOUT_FILE", "spillThreshold", "outputAvroFile"));
+		if (outputAvroFile != null) {
+			Attribute outputAvroFileAttribute = ssOp0.getAttribute(outputAvroFile);
+			if (outputAvroFileAttribute == null) {
+				tracer.log(TraceLevel.ERROR, Messages.getString("AVRO_OUTPUT_ATTRIBUTE_NOT_FOUND", "outputAvroFile", outputAvroFile));
+				throw new IllegalArgumentException(Messages.getString("AVRO_OUTPUT_ATTRIBUTE_NOT_FOUND", "outputAvroFile", outputAvroFile));
+			}
+			if (outputAvroFileAttribute.getType().getMetaType() != MetaType.RSTRING) {
+				tracer.log(TraceLevel.ERROR, Messages.getString("AVRO_ATTRIBUTE_WRONG_TYPE", "outputAvroFile", outputAvroFile, "rstring"));
+				throw new IllegalArgumentException(Messages.getString("AVRO_ATTRIBUTE_WRONG_TYPE", "outputAvroFile", outputAvroFile, "rstring"));
+			}
+		}
+		tracer.log(TraceLevel.TRACE, "Spill threshold: " + spillThreshold + ", spill directory: " + spillDirectory + ", output Avro file attribute: " + outputAvroFile);
+
+		// The minimum and maximum of the index field are taken from the block
+		// statistics
+		if (indexField != null && !statisticsFields.contains(indexField)) {
+			statisticsFields = new ArrayList<String>(statisticsFields);
+			statisticsFields.add(indexField);
+		}
+
+		// Collect statistics of the records of every block for the block header
+		if (!statisticsFields.isEmpty() || bloomFilterField != null) {
+			if (!embedAvroSchema)
+				throw new Exception(Messages.getString("AVRO_EMBEDDED_SCHEMA_REQUIRED", "statisticsFields, bloomFilterField"));
+			if (bloomFilterFalsePositiveRate <= 0 || bloomFilterFalsePositiveRate >= 1)
+				throw new IllegalArgumentException(Messages.getString("AVRO_PARAMETER_RANGE", "bloomFilterFalsePositiveRate", 0, 1, bloomFilterFalsePositiveRate));
+			for (CachedSchema cachedSchema : schemaSelector.getSchemas())
+				BlockStatistics.checkFields(cachedSchema.getSchema(), statisticsFields, bloomFilterField);
+			tracer.log(TraceLevel.TRACE, "Block statistics fields: " + statisticsFields + ", Bloom filter field: " + bloomFilterField);
+		}
+		// Submit blocks before they exceed the maximum size
+		if (maxBytesPerMessage != 0) {
+			if (!embedAvroSchema)
+				throw new Exception(Messages.getString("AVRO_EMBEDDED_SCHEMA_REQUIRED", "maxBytesPerMessage, oversizePolicy"));
+			if (maxBytesPerMessage < 0)
+				throw new IllegalArgumentException(Messages.getString("AVRO_PARAMETER_MIN_VALUE", "maxBytesPerMessage", 0, maxBytesPerMessage));
+			tracer.log(TraceLevel.TRACE, "Maximum Avro message block size: " + maxBytesPerMessage + ", oversize policy: " + oversizePolicy);
+		}
+
+		// Partition the records into blocks by the values of input attributes
+		if (!partitionBy.isEmpty()) {
+			if (!embedAvroSchema)
+				throw new Exception(Messages.getString("AVRO_EMBEDDED_SCHEMA_REQUIRED", "partitionBy"));
+			if (maxOpenPartitions < 1)
+				throw new IllegalArgumentException(Messages.getString("AVRO_PARAMETER_MIN_VALUE", "maxOpenPartitions", 1, maxOpenPartitions));
+			partitionIndexes = new int[partitionBy.size()];
+			for (int i = 0; i < partitionIndexes.length; i++) {
+				Attribute partitionAttribute = ssIp0.getAttribute(partitionBy.get(i));
+				if (partitionAttribute == null) {
+					tracer.log(TraceLevel.ERROR, Messages.getString("AVRO_INPUT_ATTRIBUTE_NOT_FOUND", "partitionBy", partitionBy.get(i)));
+					throw new IllegalArgumentException(Messages.getString("AVRO_INPUT_ATTRIBUTE_NOT_FOUND", "partitionBy", partitionBy.get(i)));
+				}
+				partitionIndexes[i] = partitionAttribute.getIndex();
+			}
+			tracer.log(TraceLevel.TRACE, "Partition attributes: " + partitionBy + ", maximum open partitions: " + maxOpenPartitions);
+		}
+
+		// Keep a writer and a block for each of the recently used schemas or
+		// partitions. Without partitions, the block of the first schema is
+		// created right away.
+		if (maxOpenSchemas < 1)
+			throw new IllegalArgumentException(Messages.getString("AVRO_PARAMETER_MIN_VALUE", "maxOpenSchemas", 1, maxOpenSchemas));
+		schemaBlocks = new LruCache<List<Object>, SchemaBlock>(partitionBy.isEmpty() ? maxOpenSchemas : maxOpenPartitions) {
+			@Override
+			protected void evicted(List<Object> key, SchemaBlock block) {
+				evictedBlocks.add(block);
+			}
+		};
+		if (partitionBy.isEmpty())
+			selectBlock(schemaSelector.getSchemas().get(0), null);
+
+		// Profile the field conversion cost of sampled records if requested
+		if (profileSampleRate < 0)
+			throw new IllegalArgumentException(Messages.getString("AVRO_PARAMETER_MIN_VALUE", "profileSampleRate", 0, profileSampleRate));
+		if (profileTopFields < 1)
+			throw new IllegalArgumentException(Messages.getString("AVRO_PARAMETER_MIN_VALUE", "profileTopFields", 1, profileTopFields));
+		if (profileSampleRate > 0)
+			profiler = new FieldProfiler(operatorContext.getName(), profileSampleRate, profileTopFields, operatorContext.getMetrics());
+
+		// Match the input attributes that are copied to the output tuples
+		// once, instead of assigning the input tuple to every output tuple
+		passThrough = new PassThroughAttributes(ssIp0, ssOp0, outputAvroMessage, outputAvroFile);
+		tracer.log(TraceLevel.TRACE, "Number of pass-through attributes: " + passThrough.size());
+
+		// Errors are submitted to the optional error output port, if present,
+		// and logged with a rate limit
+		errorReporter = new ErrorReporter(tracer, "converting tuple to AVRO schema",
+				(operatorContext.getNumberOfStreamingOutputs() > 1) ? getOutput(1) : null, outputErrorReason);
+
+		// Submit an index tuple for every block to the optional index output
+		// port
+		if (operatorContext.getNumberOfStreamingOutputs() > 2) {
+			if (!embedAvroSchema)
+				throw new Exception(Messages.getString("AVRO_EMBEDDED_SCHEMA_REQUIRED", "index output port"));
+			blockIndex = new BlockIndex(tracer, getOutput(2), indexField);
+		}
 
 		tracer.log(TraceLevel.TRACE, "TupleToAvro operator initialized, ready to receive tuples");
 
@@ -229,41 +689,164 @@ public class TupleToAvro extends AbstractOperator {
 		if (tracer.isTraceEnabled())
 			tracer.log(TraceLevel.TRACE, "Input tuple: " + tuple);
 
+		// Select the schema of the tuple before the output tuple, which
+		// belongs to the block of the schema
+		outStream = getOutput(0);
+		CachedSchema cachedSchema;
+		try {
+			cachedSchema = schemaSelector.select(tuple);
+		} catch (IllegalArgumentException e) {
+			handleConversionError(e, tuple, tuple);
+			return;
+		}
+		selectBlock(cachedSchema, tuple);
+
 		// Create a new tuple for output port 0 and copy over any matching
 		// attributes
-		outStream = getOutput(0);
 		outTuple = outStream.newTuple();
-		outTuple.assign(tuple);
+		passThrough.copy(tuple, outTuple);
 
-		// Parse the tuple input and assign to Avro datum
-		GenericRecord datum = TupleToAvroConverter.convertTupleToAvro(tuple, inputStream.getStreamSchema(),
-				messageSchema);
+		// Convert the input tuple or every record of the input list
+		datums.clear();
+		profiledEncodings.clear();
+		if (inputRecords == null) {
+			convertRecord(tuple, tuple, datums);
+		} else {
+			for (Object record : tuple.getList(inputRecords))
+				convertRecord(tuple, (Tuple) record, datums);
+		}
+		if (datums.isEmpty())
+			return;
 
 		try {
-			// Encode the datum to Avro
+			// Encode the datums to Avro
 			if (embedAvroSchema) {
-				avroDataFileWriter.append(datum);
-				avroDataFileWriter.flush();
-				numberOfBatchedMessages++;
-				// Check if any of the threshold parameters has been exceeded
-				if (tuplesPerMessage != 0 && numberOfBatchedMessages >= tuplesPerMessage)
-					submitAvroToOuput();
-				if (bytesPerMessage != 0 && avroBlockByteArray.size() >= bytesPerMessage)
-					submitAvroToOuput();
-				if (timePerMessage != 0) {
-					if (System.currentTimeMillis() >= (lastSubmitted + (1000 * timePerMessage)))
-						submitAvroToOuput();
+				for (int i = 0; i < datums.size(); i++) {
+					GenericRecord datum = datums.get(i);
+					ByteBuffer profiledEncoding = profiledEncodings.get(i);
+					try {
+						if (blockSizeLimit != null) {
+							if (!appendWithinLimit(tuple, datum, profiledEncoding))
+								continue;
+						} else if (profiledEncoding != null)
+							avroDataFileWriter.appendEncoded(profiledEncoding);
+						else
+							avroDataFileWriter.append(datum);
+						if (blockStatistics != null)
+							blockStatistics.add(datum);
+						numberOfBatchedMessages++;
+						nRecordsConverted.increment();
+					} catch (DataFileWriter.AppendWriteException e) {
+						handleConversionError(e, tuple, datum);
+					}
 				}
+				flushBlock();
+				checkThresholds();
 			} else {
 				Encoder encoder = EncoderFactory.get().binaryEncoder(avroMessageByteArray, null);
-				avroWriter.write(datum, encoder);
+				for (int i = 0; i < datums.size(); i++) {
+					ByteBuffer profiledEncoding = profiledEncodings.get(i);
+					if (profiledEncoding != null)
+						encoder.writeFixed(profiledEncoding);
+					else
+						avroWriter.write(datums.get(i), encoder);
+				}
 				encoder.flush();
+				nRecordsConverted.incrementValue(datums.size());
 				submitAvroToOuput();
 			}
 		} catch (Exception e) {
-			tracer.log(TraceLevel.ERROR, "Error while converting tuple to AVRO schema: " + e.getMessage() + ". Tuple: " + inputStream);
-			e.printStackTrace();
+			// A partially written message cannot be submitted
+			if (!embedAvroSchema)
+				avroMessageByteArray.reset();
+			handleConversionError(e, tuple, tuple);
+		}
+	}
+
+	// Convert a tuple to an Avro datum and add it to the datums, measure the
+	// field cost of sampled tuples. A sampled datum is encoded once by the
+	// profiler, and its encoding is written instead of the datum.
+	private void convertRecord(Tuple inputTuple, Tuple tuple, List<GenericRecord> datums) throws Exception {
+		boolean profile = (profiler != null) && profiler.sampleNext();
+		GenericRecord datum = TupleToAvroConverter.convertTupleToAvro(tuple, recordSchema, messageSchema,
+				profile ? profiler : null);
+		ByteBuffer profiledEncoding = null;
+		if (profile) {
+			try {
+				profiledEncoding = profiler.profileEncode(datum);
+				profiler.recordFinished();
+			} catch (Exception e) {
+				handleConversionError(e, inputTuple, tuple);
+				return;
+			}
 		}
+		datums.add(datum);
+		profiledEncodings.add(profiledEncoding);
+	}
+
+	// Append a record unless the block would exceed maxBytesPerMessage, in
+	// which case the block is submitted first. Returns false if the record
+	// exceeds the maximum on its own and is rejected. The record is encoded
+	// unless the profiler already did.
+	private boolean appendWithinLimit(Tuple tuple, GenericRecord datum, ByteBuffer profiledEncoding) throws Exception {
+		ByteBuffer encoded = (profiledEncoding != null) ? profiledEncoding : blockSizeLimit.encode(avroWriter, datum);
+		int recordLength = encoded.remaining();
+		if (!fitsBlock(datum, recordLength)) {
+			if (numberOfBatchedMessages > 0) {
+				flushBlock();
+				nFlushesByMaxBytes.increment();
+				submitAvroToOuput();
+			}
+			if (!fitsBlock(datum, recordLength)) {
+				nOversizeRecords.increment();
+				if (oversizePolicy == OversizePolicy.error) {
+					handleConversionError(new IllegalArgumentException(Messages.getString("AVRO_RECORD_TOO_LARGE",
+							recordLength, maxBytesPerMessage)), tuple, datum);
+					return false;
+				}
+				tracer.log(TraceLevel.WARN, Messages.getString("AVRO_RECORD_TOO_LARGE", recordLength, maxBytesPerMessage));
+			}
+		}
+		avroDataFileWriter.appendEncoded(encoded);
+		blockSizeLimit.appended(recordLength);
+		return true;
+	}
+
+	private boolean fitsBlock(GenericRecord datum, int recordLength) {
+		long metadataSize = (blockStatistics != null) ? blockStatistics.estimateMetadataSize(datum) : 0;
+		return blockSizeLimit.fits(avroBlockByteArray.size(), recordLength, metadataSize);
+	}
+
+	// Write the appended records into the buffer of the block
+	private void flushBlock() throws IOException {
+		avroDataFileWriter.flush();
+		if (blockSizeLimit != null)
+			blockSizeLimit.flushed();
+	}
+
+	// Report the record that could not be converted, the input tuple is
+	// submitted to the error output port
+	private void handleConversionError(Exception e, Tuple inputTuple, Object record) throws Exception {
+		nConversionErrors.increment();
+		errorReporter.report(e, inputTuple, record);
+	}
+
+	// Check if any of the threshold parameters has been exceeded
+	private void checkThresholds() throws Exception {
+		bufferedBytes.setValue(avroBlockByteArray.size());
+		if (tuplesPerMessage != 0 && numberOfBatchedMessages >= tuplesPerMessage) {
+			nFlushesByTuples.increment();
+			submitAvroToOuput();
+		} else if (bytesPerMessage != 0 && avroBlockByteArray.size() >= bytesPerMessage) {
+			nFlushesByBytes.increment();
+			submitAvroToOuput();
+		} else if (maxBlockAgeMillis != 0 && System.currentTimeMillis() >= (lastSubmitted + maxBlockAgeMillis)) {
+			nFlushesByTime.increment();
+			submitAvroToOuput();
+		}
+		// The blocks of the other schemas expire too
+		if (maxBlockAgeMillis != 0 && schemaBlocks.size() > 1)
+			submitExpiredBlocks();
 	}
 
 	// Submit the Avro byte array to the output port and reset byte array
@@ -271,30 +854,177 @@ public class TupleToAvro extends AbstractOperator {
 		// Send block of messages with Avro schema included and punctuation
 		if (embedAvroSchema) {
 			if (numberOfBatchedMessages > 0) {
-				if (tracer.isTraceEnabled())
-					tracer.log(TraceLevel.TRACE, "Submitting " + numberOfBatchedMessages
-							+ " Avro messages with a total length of " + avroBlockByteArray.size() + " bytes");
-				outTuple.setBlob(outputAvroMessage, ValueFactory.newBlob(avroBlockByteArray.toByteArray()));
-				outStream.submit(outTuple);
-				outStream.punctuate(Punctuation.WINDOW_MARKER);
-				// Reset for the next block
-				avroBlockByteArray.reset();
-				avroDataFileWriter.close();
-				avroDataFileWriter.create(messageSchema, avroBlockByteArray);
-				lastSubmitted = System.currentTimeMillis();
-				numberOfBatchedMessages = 0;
+				submitBlock();
+				// Start the next block with a new writer
+				createBlock();
+				bufferedBytes.setValue(avroBlockByteArray.size());
 			}
 		} else { // Send individual message
 			if (tracer.isTraceEnabled())
 				tracer.log(TraceLevel.TRACE,
 						"Submitting Avro message with length " + avroMessageByteArray.size() + " bytes");
-			outTuple.setBlob(outputAvroMessage, ValueFactory.newBlob(avroMessageByteArray.toByteArray()));
+			outTuple.setBlob(outputAvroMessage, avroMessageByteArray.toBlob());
 			outStream.submit(outTuple);
+			updateSubmitMetrics(avroMessageByteArray.size(), 1);
 			// Reset for the next message
 			avroMessageByteArray.reset();
 		}
 	}
 
+	// Submit the block of the selected schema and close its writer
+	private void submitBlock() throws Exception {
+		if (tracer.isTraceEnabled())
+			tracer.log(TraceLevel.TRACE, "Submitting " + numberOfBatchedMessages
+					+ " Avro messages with a total length of " + avroBlockByteArray.size() + " bytes");
+		long blockLength;
+		if (outputAvroFile != null) {
+			File blockFile = BlockBuffer.createBlockFile(spillDirectoryFile);
+			blockLength = (blockStatistics != null) ? blockStatistics.toFile(messageSchema, avroBlockByteArray, blockFile)
+					: avroBlockByteArray.toFile(blockFile, new byte[0], 0);
+			outTuple.setString(outputAvroFile, blockFile.getPath());
+		} else {
+			Blob avroBlock = (blockStatistics != null) ? blockStatistics.toBlob(messageSchema, avroBlockByteArray)
+					: avroBlockByteArray.toBlob();
+			blockLength = avroBlock.getLength();
+			outTuple.setBlob(outputAvroMessage, avroBlock);
+		}
+		if (avroBlockByteArray.isSpilled())
+			nSpilledBlocks.increment();
+		outStream.submit(outTuple);
+		outStream.punctuate(Punctuation.WINDOW_MARKER);
+		updateSubmitMetrics(blockLength, numberOfBatchedMessages);
+		if (blockIndex != null)
+			blockIndex.submit(blockLength, numberOfBatchedMessages, blockStatistics);
+		if (batchController != null) {
+			tuplesPerMessage = batchController.submitted(numberOfBatchedMessages, blockLength,
+					System.currentTimeMillis() - lastSubmitted);
+			tuplesPerMessageSetpoint.setValue(tuplesPerMessage);
+		}
+		// Reset for the next block
+		avroBlockByteArray.reset();
+		avroDataFileWriter.close();
+		lastSubmitted = System.currentTimeMillis();
+		numberOfBatchedMessages = 0;
+	}
+
+	// Select the writer and block of the schema and partition of a tuple. A
+	// schema or partition that is not open gets a new writer and block. If too
+	// many are open, the least recently used one is closed and its block is
+	// submitted.
+	private void selectBlock(CachedSchema cachedSchema, Tuple tuple) throws Exception {
+		if (selectedBlock != null && selectedBlock.isBlockOf(cachedSchema, tuple, partitionIndexes))
+			return;
+		List<Object> key = new ArrayList<Object>(partitionIndexes.length + 1);
+		key.add(cachedSchema);
+		for (int partitionIndex : partitionIndexes)
+			key.add(tuple.getObject(partitionIndex));
+		SchemaBlock block = schemaBlocks.get(key);
+		if (block != null) {
+			activateBlock(block);
+			return;
+		}
+		block = new SchemaBlock(key, cachedSchema, newBlockStatistics(cachedSchema),
+				(maxBytesPerMessage != 0) ? new BlockSizeLimit(maxBytesPerMessage) : null);
+		block.blockByteArray.setSpill(spillThreshold, spillDirectoryFile);
+		schemaBlocks.put(key, block);
+		for (SchemaBlock evictedBlock : evictedBlocks) {
+			activateBlock(evictedBlock);
+			// Submit the block and close its writer, without embedded schema
+			// every message is already submitted and no writer is open
+			if (embedAvroSchema) {
+				if (numberOfBatchedMessages > 0)
+					submitBlock();
+				else
+					avroDataFileWriter.close();
+			}
+			evictedBlock.blockByteArray.deleteSpillFile();
+			if (partitionIndexes.length == 0)
+				nSchemaEvictions.increment();
+			else
+				nPartitionEvictions.increment();
+		}
+		evictedBlocks.clear();
+		activateBlock(block);
+		if (embedAvroSchema) {
+			createBlock();
+			bufferedBytes.setValue(avroBlockByteArray.size());
+		}
+	}
+
+	// Save the state of the selected block and load the state of another one
+	private void activateBlock(SchemaBlock block) {
+		if (selectedBlock != null) {
+			selectedBlock.numberOfBatchedMessages = numberOfBatchedMessages;
+			selectedBlock.lastSubmitted = lastSubmitted;
+			selectedBlock.outTuple = outTuple;
+		}
+		selectedBlock = block;
+		messageSchema = block.cachedSchema.getSchema();
+		avroWriter = block.cachedSchema.getWriter();
+		avroDataFileWriter = block.dataFileWriter;
+		avroBlockByteArray = block.blockByteArray;
+		blockStatistics = block.blockStatistics;
+		blockSizeLimit = block.blockSizeLimit;
+		numberOfBatchedMessages = block.numberOfBatchedMessages;
+		lastSubmitted = block.lastSubmitted;
+		outTuple = block.outTuple;
+	}
+
+	// Submit the blocks of all open schemas and partitions
+	private void submitAllBlocks() throws Exception {
+		SchemaBlock selected = selectedBlock;
+		for (SchemaBlock block : schemaBlocks.values()) {
+			activateBlock(block);
+			if (numberOfBatchedMessages > 0)
+				nFlushesByPunct.increment();
+			submitAvroToOuput();
+		}
+		if (selected != null)
+			activateBlock(selected);
+	}
+
+	// Submit the blocks of the schemas and partitions that were not selected
+	// for longer than the maximum block age
+	private void submitExpiredBlocks() throws Exception {
+		SchemaBlock selected = selectedBlock;
+		long expired = System.currentTimeMillis() - maxBlockAgeMillis;
+		for (SchemaBlock block : schemaBlocks.values()) {
+			if (block != selected && block.numberOfBatchedMessages > 0 && block.lastSubmitted <= expired) {
+				activateBlock(block);
+				nFlushesByTime.increment();
+				submitAvroToOuput();
+			}
+		}
+		activateBlock(selected);
+	}
+
+	private BlockStatistics newBlockStatistics(CachedSchema cachedSchema) {
+		if (statisticsFields.isEmpty() && bloomFilterField == null)
+			return null;
+		return new BlockStatistics(cachedSchema.getSchema(), statisticsFields, bloomFilterField, bloomFilterFalsePositiveRate);
+	}
+
+	// Start a new Avro message block, with the sync marker of the statistics
+	// collector if block statistics are recorded
+	private void createBlock() throws IOException {
+		if (blockStatistics != null)
+			blockStatistics.create(avroDataFileWriter, messageSchema, avroBlockByteArray);
+		else
+			avroDataFileWriter.create(messageSchema, avroBlockByteArray);
+	}
+
+	// Update the metrics for a message or message block submitted to the
+	// output port
+	private void updateSubmitMetrics(long messageSize, int numberOfRecords) {
+		nBytesOut.incrementValue(messageSize);
+		nMessagesSubmitted.increment();
+		avgMessageSize.setValue(nBytesOut.getValue() / nMessagesSubmitted.getValue());
+		if (embedAvroSchema) {
+			nRecordsSubmittedInBlocks += numberOfRecords;
+			avgRecordsPerBlock.setValue(nRecordsSubmittedInBlocks / nMessagesSubmitted.getValue());
+		}
+	}
+
 	/**
 	 * Process the punctuation. If Avro messages are batched, the Avro message
 	 * is submitted if a window punctuation is received and submitOnPunct is
@@ -304,23 +1034,103 @@ public class TupleToAvro extends AbstractOperator {
 		// If Avro messages are batched, submit current batch and punctuation if
 		// submitOnPunct
 		if (embedAvroSchema) {
-			if (submitOnPunct && mark == Punctuation.WINDOW_MARKER)
-				submitAvroToOuput();
-			if (mark == Punctuation.FINAL_MARKER)
-				submitAvroToOuput();
+			if ((submitOnPunct && mark == Punctuation.WINDOW_MARKER) || mark == Punctuation.FINAL_MARKER)
+				submitAllBlocks();
 		}
 		// Else forward window punctuation mark to the output port
 		else
 			super.processPunctuation(inputStream, mark);
 	}
 
+	/**
+	 * Logs the final field profile, if profiling is enabled.
+	 */
+	@Override
+	public void shutdown() throws Exception {
+		if (profiler != null)
+			profiler.publish();
+		if (schemaBlocks != null) {
+			for (SchemaBlock block : schemaBlocks.values())
+				block.blockByteArray.deleteSpillFile();
+		}
+		super.shutdown();
+	}
+
+	/**
+	 * The writer and the Avro message block of an open schema, or of an open
+	 * partition of a schema with parameter partitionBy. The operator converts
+	 * the tuples with the fields of the selected block, they are saved here
+	 * when another block is selected.
+	 */
+	private static class SchemaBlock {
+		final List<Object> key;
+		final CachedSchema cachedSchema;
+		final DataFileWriter<GenericRecord> dataFileWriter;
+		final BlockBuffer blockByteArray = new BlockBuffer();
+		final BlockStatistics blockStatistics;
+		final BlockSizeLimit blockSizeLimit;
+		int numberOfBatchedMessages = 0;
+		long lastSubmitted = System.currentTimeMillis();
+		OutputTuple outTuple;
+
+		SchemaBlock(List<Object> key, CachedSchema cachedSchema, BlockStatistics blockStatistics,
+				BlockSizeLimit blockSizeLimit) {
+			this.key = key;
+			this.cachedSchema = cachedSchema;
+			this.dataFileWriter = new DataFileWriter<GenericRecord>(cachedSchema.getWriter());
+			this.blockStatistics = blockStatistics;
+			this.blockSizeLimit = blockSizeLimit;
+		}
+
+		// Check if a tuple belongs to this block, without creating its key
+		boolean isBlockOf(CachedSchema cachedSchema, Tuple tuple, int[] partitionIndexes) {
+			if (this.cachedSchema != cachedSchema)
+				return false;
+			for (int i = 0; i < partitionIndexes.length; i++) {
+				if (!key.get(i + 1).equals(tuple.getObject(partitionIndexes[i])))
+					return false;
+			}
+			return true;
+		}
+	}
+
 	static final String DESC = "This operator converts Streams tuples into binary Avro messages. The input tuples can be"
 			+ "nested types with lists and tuples, but the attribute types must be mappable to the Avro primitive types. "
-			+ "boolean, float32, float64, int32, int64, rstring and ustring are respectively mapped to "
-			+ "Boolean, Float, Double, Integer, Long, String.\\n\\n"
+			+ "boolean, float32, float64, int32, int64, rstring, ustring and blob are respectively mapped to "
+			+ "Boolean, Float, Double, Integer, Long, String, String and Bytes.\\n\\n"
+			+ "If parameter `inputRecords` names an input attribute of type `list<tuple<...>>`, every element of the list is converted "
+			+ "instead of the input tuple, so that many records can be encoded per input tuple.\\n\\n"
 			+ "If parameter `embedAvroSchema` is false, the operator passes window punctuation marker transparently to the output port. "
 			+ "If parameter `embedAvroSchema` is true, the operator generates window punctuation markers.\\n\\n"
 			+ "If the output message attribute is not found or has no blob type, the operator will fail.\\n\\n"
+			+ "Tuples that cannot be converted are skipped. If the optional second output port is present, they are submitted to it "
+			+ "together with a short reason. Conversion errors are logged at most " + ErrorReporter.MAX_LOGGED_ERRORS + " times per minute.\\n\\n"
+			+ "With parameters `statisticsFields` and `bloomFilterField`, the minimum and maximum values of fields and a Bloom filter "
+			+ "of a key field are written into the header metadata of every Avro message block, so that readers can skip blocks.\\n\\n"
+			+ "Parameter `bytesPerMessage` is a minimum, a block is submitted once it reaches that size. With parameter `maxBytesPerMessage`, "
+			+ "a block is submitted before appending a record would make it exceed the given size, so that the blocks can be sent to "
+			+ "systems with a message size limit.\\n\\n"
+			+ "With parameter `targetBatchLatency`, the thresholds are not fixed: the number of records per block follows the arrival rate "
+			+ "of the records, so that blocks grow when the rate is high and shrink when it is low. The age of a block is checked when "
+			+ "a tuple arrives, a partial block waits for the next tuple or punctuation while the input is idle. "
+			+ "Parameter `preferredBytesPerMessage` limits the size of the blocks.\\n\\n"
+			+ "With parameter `spillThreshold`, a block that grows beyond the given size is spilled to a temporary file, so that "
+			+ "very large blocks do not need the heap. With parameter `outputAvroFile`, every block is written to a file and the "
+			+ "path of the file is submitted instead of the block.\\n\\n"
+			+ "If the optional third output port is present, an index tuple is submitted to it for every Avro message block. "
+			+ "Attribute `offset` receives the byte offset of the block in the concatenation of all blocks the operator submitted, "
+			+ "which is the position of the block in a file to which all blocks are written, `length` the length of the block, "
+			+ "`recordCount` the number of records, `firstRecord` and `lastRecord` the ordinals of the first and last record counted from 0, "
+			+ "and `minValue` and `maxValue` the minimum and maximum of the field named by parameter `indexField`. "
+			+ "AvroToJSON converts a block at a given offset and length of a blob with parameters `inputAvroOffset` and `inputAvroLength`.\\n\\n"
+			+ "Tuples of different record types can be converted by one operator: parameters `avroMessageSchemaFile` and "
+			+ "`avroMessageSchemaDirectory` give several schemas, and parameter `inputSchemaSelector` selects the schema of every tuple "
+			+ "by its full name or fingerprint. If the Avro schema is embedded, the records of each schema are batched into blocks of their own, "
+			+ "the thresholds apply to each block. Writers and blocks are kept for at most `maxOpenSchemas` recently used schemas.\\n\\n"
+			+ "With parameter `partitionBy`, the records are also batched into a block per distinct combination of values of the given "
+			+ "input attributes, so that every submitted block belongs to one partition, for example one customer and date. The partition "
+			+ "values are passed to the output attributes of the same name. Writers and blocks are kept for at most `maxOpenPartitions` "
+			+ "recently used partitions, the block of a closed partition is submitted.\\n\\n"
 			+ "This operator must not be used inside a consistent region.";
 
 }
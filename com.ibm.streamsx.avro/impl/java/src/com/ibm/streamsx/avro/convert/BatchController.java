@@ -0,0 +1,95 @@
+//
+// *******************************************************************************
+// * Copyright (C)2018, International Business Machines Corporation and *
+// * others. All Rights Reserved. *
+// *******************************************************************************
+//
+
+package com.ibm.streamsx.avro.convert;
+
+/**
+ * Adapts the number of records of an Avro message block to the arrival rate
+ * of the records, so that a block holds the records of a target latency but
+ * does not grow beyond a preferred size. The arrival rate and the encoded
+ * size of a record are observed when a block is submitted, and smoothed over
+ * the recent blocks. A block that is submitted because it is older than the
+ * target latency lowers the rate and so the number of records of the next
+ * blocks, a block that fills up quickly raises it. The operators check the
+ * age of a block only when a tuple arrives, so the target latency is not a
+ * bound while the input is idle.
+ *
+ * The controller is not thread-safe, it is used by the thread that submits
+ * the blocks.
+ */
+public class BatchController {
+
+	// Weight of the last block in the smoothed rate and record size
+	private static final double SMOOTHING = 0.3;
+
+	private final long targetLatencyMillis;
+	private final long preferredBytes;
+	private double recordsPerMilli = -1;
+	private double bytesPerRecord = -1;
+	private long tuplesPerMessage = 0;
+
+	/**
+	 * Create a controller.
+	 *
+	 * @param targetLatencyMillis
+	 *            The maximum time in milliseconds that a block collects
+	 *            records
+	 * @param preferredBytes
+	 *            The preferred size of a block in bytes, 0 if the size is not
+	 *            limited
+	 */
+	public BatchController(long targetLatencyMillis, long preferredBytes) {
+		this.targetLatencyMillis = targetLatencyMillis;
+		this.preferredBytes = preferredBytes;
+	}
+
+	/**
+	 * Record that a block was submitted, and compute the number of records of
+	 * the next blocks.
+	 *
+	 * @param records
+	 *            The number of records of the block
+	 * @param bytes
+	 *            The size of the block in bytes
+	 * @param elapsedMillis
+	 *            The time in milliseconds since the previous block was
+	 *            submitted
+	 * @return The number of records of the next blocks, 0 as long as no block
+	 *         was observed
+	 */
+	public long submitted(long records, long bytes, long elapsedMillis) {
+		if (records == 0)
+			return tuplesPerMessage;
+		double rate = records / (double) Math.max(elapsedMillis, 1);
+		double size = bytes / (double) records;
+		if (recordsPerMilli < 0) {
+			recordsPerMilli = rate;
+			bytesPerRecord = size;
+		} else {
+			recordsPerMilli += SMOOTHING * (rate - recordsPerMilli);
+			bytesPerRecord += SMOOTHING * (size - bytesPerRecord);
+		}
+		double setpoint = recordsPerMilli * targetLatencyMillis;
+		if (preferredBytes > 0)
+			setpoint = Math.min(setpoint, preferredBytes / bytesPerRecord);
+		tuplesPerMessage = Math.max(1, (long) setpoint);
+		return tuplesPerMessage;
+	}
+
+	/*
+	 * The number of records of the next blocks, 0 as long as no block was
+	 * observed
+	 */
+	public long getTuplesPerMessage() {
+		return tuplesPerMessage;
+	}
+
+	public long getTargetLatencyMillis() {
+		return targetLatencyMillis;
+	}
+
+}
@@ -0,0 +1,381 @@
+//
+// *******************************************************************************
+// * Copyright (C)2018, International Business Machines Corporation and *
+// * others. All Rights Reserved. *
+// *******************************************************************************
+//
+
+package com.ibm.streamsx.avro.convert;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+import com.ibm.streams.operator.types.Blob;
+import com.ibm.streams.operator.types.ValueFactory;
+
+/**
+ * Output stream that collects an Avro message or message block in fixed-size
+ * segments instead of a single growing array. Growing never copies the bytes
+ * written so far, and the content is copied exactly once, into the blob that
+ * is submitted.
+ *
+ * The segments are kept in a pool when the buffer is reset. The number of
+ * segments that stay pooled follows a moving average of the sizes of the
+ * recent messages, so the memory held between messages is released after a
+ * spike, and never exceeds the configured maximum.
+ *
+ * A buffer with a spill threshold writes its segments to a temporary file
+ * once its content reaches the threshold, so that at most the threshold and
+ * one segment are held on the heap while the content grows. The content can
+ * then be copied into a file without reading it into the heap, copying it
+ * into a blob reads all of it into the heap.
+ */
+public class BlockBuffer extends OutputStream {
+
+	/** Default size of a segment */
+	public static final int DEFAULT_SEGMENT_SIZE = 64 * 1024;
+	/** Default maximum number of bytes kept in the pool between messages */
+	public static final long DEFAULT_MAX_RETAINED_BYTES = 64L * 1024 * 1024;
+
+	// Weight of the latest message size in the moving average
+	private static final double AVERAGE_WEIGHT = 0.2;
+	// Headroom kept on top of the average message size
+	private static final double RETAIN_FACTOR = 1.5;
+	private static final String SPILL_FILE_PREFIX = "avroblock";
+	private static final String BLOCK_FILE_SUFFIX = ".avro";
+
+	private final int segmentSize;
+	private final int maxRetainedSegments;
+	private final List<byte[]> segments = new ArrayList<byte[]>();
+	private final Deque<byte[]> pool = new ArrayDeque<byte[]>();
+	private byte[] current;
+	private int currentCount;
+	private long size;
+	private double averageSize = 0;
+	private long spillThreshold = 0;
+	private File spillDirectory;
+	private File spillFile;
+	private FileChannel spillChannel;
+	// Number of bytes of the content in the spill file, the segments hold
+	// the bytes that follow
+	private long spilledBytes = 0;
+
+	public BlockBuffer() {
+		this(DEFAULT_SEGMENT_SIZE, DEFAULT_MAX_RETAINED_BYTES);
+	}
+
+	/**
+	 * Create a buffer.
+	 *
+	 * @param segmentSize
+	 *            Size of a segment in bytes
+	 * @param maxRetainedBytes
+	 *            Maximum number of bytes kept in the pool when the buffer is
+	 *            reset
+	 */
+	public BlockBuffer(int segmentSize, long maxRetainedBytes) {
+		this.segmentSize = segmentSize;
+		this.maxRetainedSegments = (int) Math.max(1, maxRetainedBytes / segmentSize);
+	}
+
+	/**
+	 * Spill the content to a temporary file once it reaches a threshold.
+	 *
+	 * @param spillThreshold
+	 *            The size in bytes from which on the content is spilled, 0
+	 *            if it is never spilled
+	 * @param spillDirectory
+	 *            The directory of the temporary file, null for the default
+	 *            temporary directory
+	 */
+	public void setSpill(long spillThreshold, File spillDirectory) {
+		this.spillThreshold = spillThreshold;
+		this.spillDirectory = spillDirectory;
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		if (current == null || currentCount == current.length)
+			nextSegment();
+		current[currentCount++] = (byte) b;
+		size++;
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		while (len > 0) {
+			if (current == null || currentCount == current.length)
+				nextSegment();
+			int chunk = Math.min(len, current.length - currentCount);
+			System.arraycopy(b, off, current, currentCount, chunk);
+			currentCount += chunk;
+			size += chunk;
+			off += chunk;
+			len -= chunk;
+		}
+	}
+
+	private void nextSegment() throws IOException {
+		if (spillThreshold > 0 && size >= spillThreshold)
+			spill();
+		current = pool.isEmpty() ? new byte[segmentSize] : pool.pop();
+		currentCount = 0;
+		segments.add(current);
+	}
+
+	// Append the segments, which are all full, to the spill file and return
+	// them to the pool
+	private void spill() throws IOException {
+		if (spillChannel == null) {
+			spillFile = File.createTempFile(SPILL_FILE_PREFIX, null, spillDirectory);
+			spillChannel = new RandomAccessFile(spillFile, "rw").getChannel();
+		}
+		for (byte[] segment : segments) {
+			ByteBuffer buffer = ByteBuffer.wrap(segment);
+			while (buffer.hasRemaining())
+				spilledBytes += spillChannel.write(buffer, spilledBytes);
+			pool.push(segment);
+		}
+		segments.clear();
+		current = null;
+		currentCount = 0;
+	}
+
+	/*
+	 * Number of bytes written since the last reset
+	 */
+	public long size() {
+		return size;
+	}
+
+	/*
+	 * Copy the content into a new blob
+	 */
+	public Blob toBlob() throws IOException {
+		if (spilledBytes == 0 && segments.size() <= 1)
+			return ValueFactory.newBlob(current == null ? new byte[0] : current, 0, currentCount);
+		return ValueFactory.readBlob(getInputStream(0), size);
+	}
+
+	/*
+	 * Read the content from an offset on, without copying it
+	 */
+	public InputStream getInputStream(long offset) {
+		if (offset >= spilledBytes)
+			return new SegmentInputStream(offset - spilledBytes);
+		return new SequenceInputStream(new SpillInputStream(offset), new SegmentInputStream(0));
+	}
+
+	/**
+	 * Write a header and the content from an offset on into a file. The
+	 * spilled content is transferred from the spill file by the file system,
+	 * without reading it into the heap.
+	 *
+	 * @param file
+	 *            The file, which is overwritten
+	 * @param header
+	 *            The bytes that are written before the content
+	 * @param offset
+	 *            The offset of the content that is written after the header
+	 * @return The size of the file
+	 * @throws IOException
+	 */
+	public long toFile(File file, byte[] header, long offset) throws IOException {
+		FileOutputStream out = new FileOutputStream(file);
+		try {
+			FileChannel channel = out.getChannel();
+			out.write(header);
+			for (long position = offset; position < spilledBytes;)
+				position += spillChannel.transferTo(position, spilledBytes - position, channel);
+			long memoryOffset = Math.max(0, offset - spilledBytes);
+			long written = spilledBytes;
+			for (byte[] segment : segments) {
+				int length = (int) Math.min(segment.length, size - written);
+				int start = (int) Math.min(length, memoryOffset);
+				out.write(segment, start, length - start);
+				memoryOffset -= start;
+				written += length;
+			}
+		} finally {
+			out.close();
+		}
+		return header.length + size - offset;
+	}
+
+	/*
+	 * Create a new file for a block that is written with toFile(), in a
+	 * directory or, if it is null, in the default temporary directory
+	 */
+	public static File createBlockFile(File directory) throws IOException {
+		return File.createTempFile(SPILL_FILE_PREFIX, BLOCK_FILE_SUFFIX, directory);
+	}
+
+	/*
+	 * Copy the content into a new byte array
+	 */
+	public byte[] toByteArray() throws IOException {
+		if (spilledBytes > 0) {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream((int) size);
+			InputStream in = getInputStream(0);
+			byte[] chunk = new byte[segmentSize];
+			for (int length; (length = in.read(chunk)) > 0;)
+				bytes.write(chunk, 0, length);
+			return bytes.toByteArray();
+		}
+		byte[] bytes = new byte[(int) size];
+		int position = 0;
+		for (byte[] segment : segments) {
+			int length = (int) Math.min(segment.length, size - position);
+			System.arraycopy(segment, 0, bytes, position, length);
+			position += length;
+		}
+		return bytes;
+	}
+
+	/*
+	 * Discard the content. The size of the discarded content is added to the
+	 * moving average, which determines how many segments stay pooled.
+	 */
+	public void reset() {
+		if (size > 0) {
+			averageSize = (averageSize == 0) ? size : averageSize + AVERAGE_WEIGHT * (size - averageSize);
+		}
+		int retainedSegments = (int) Math.min(maxRetainedSegments,
+				Math.ceil(averageSize * RETAIN_FACTOR / segmentSize));
+		for (byte[] segment : segments) {
+			if (pool.size() < retainedSegments)
+				pool.push(segment);
+		}
+		while (pool.size() > retainedSegments)
+			pool.pop();
+		segments.clear();
+		current = null;
+		currentCount = 0;
+		size = 0;
+		// The spill file is overwritten by the next content
+		spilledBytes = 0;
+	}
+
+	/*
+	 * Check if a part of the content is in the spill file
+	 */
+	public boolean isSpilled() {
+		return spilledBytes > 0;
+	}
+
+	/*
+	 * Delete the spill file, if the content was ever spilled. The buffer can
+	 * still be used, a new file is created when the content spills again.
+	 */
+	public void deleteSpillFile() throws IOException {
+		if (spillChannel == null)
+			return;
+		spillChannel.close();
+		spillFile.delete();
+		spillChannel = null;
+		spillFile = null;
+		spilledBytes = 0;
+	}
+
+	/*
+	 * The moving average of the message sizes
+	 */
+	public long getAverageSize() {
+		return (long) averageSize;
+	}
+
+	/*
+	 * Number of bytes held by the buffer, written and pooled
+	 */
+	public long getCapacity() {
+		return (long) (segments.size() + pool.size()) * segmentSize;
+	}
+
+	/**
+	 * Reads the content of the segments without copying them.
+	 */
+	private class SegmentInputStream extends InputStream {
+		private int segmentIndex;
+		private int position;
+		private long remaining;
+
+		SegmentInputStream(long offset) {
+			segmentIndex = (int) (offset / segmentSize);
+			position = (int) (offset % segmentSize);
+			remaining = size - spilledBytes - offset;
+		}
+
+		@Override
+		public int read() {
+			if (remaining == 0)
+				return -1;
+			byte[] segment = nextReadSegment();
+			remaining--;
+			return segment[position++] & 0xff;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) {
+			if (remaining == 0)
+				return -1;
+			byte[] segment = nextReadSegment();
+			int chunk = (int) Math.min(Math.min(len, segment.length - position), remaining);
+			System.arraycopy(segment, position, b, off, chunk);
+			position += chunk;
+			remaining -= chunk;
+			return chunk;
+		}
+
+		private byte[] nextReadSegment() {
+			byte[] segment = segments.get(segmentIndex);
+			if (position == segment.length) {
+				segment = segments.get(++segmentIndex);
+				position = 0;
+			}
+			return segment;
+		}
+	}
+
+	/**
+	 * Reads the content of the spill file from an offset on. The reads do
+	 * not move the position of the file channel, and closing the stream
+	 * does not close the channel.
+	 */
+	private class SpillInputStream extends InputStream {
+		private long position;
+
+		SpillInputStream(long offset) {
+			position = offset;
+		}
+
+		@Override
+		public int read() throws IOException {
+			byte[] b = new byte[1];
+			return (read(b, 0, 1) < 0) ? -1 : b[0] & 0xff;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (position >= spilledBytes)
+				return -1;
+			ByteBuffer buffer = ByteBuffer.wrap(b, off, (int) Math.min(len, spilledBytes - position));
+			int length = spillChannel.read(buffer, position);
+			if (length > 0)
+				position += length;
+			return length;
+		}
+	}
+
+}
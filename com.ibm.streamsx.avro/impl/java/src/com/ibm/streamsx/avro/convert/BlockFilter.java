@@ -0,0 +1,97 @@
+//
+// *******************************************************************************
+// * Copyright (C)2018, International Business Machines Corporation and *
+// * others. All Rights Reserved. *
+// *******************************************************************************
+//
+
+package com.ibm.streamsx.avro.convert;
+
+import org.apache.avro.Schema;
+import org.apache.avro.Schema.Field;
+import org.apache.avro.file.DataFileStream;
+import org.apache.avro.util.Utf8;
+
+/**
+ * Decides from the statistics in the header of an Avro message block whether
+ * the block may contain records whose filter field has a given value or a
+ * value in a given range. Blocks without statistics for the filter field may
+ * always match.
+ */
+public class BlockFilter {
+
+	private final String field;
+	private final String value;
+	private final String minValue;
+	private final String maxValue;
+
+	/**
+	 * Create a filter. The values are given as strings and are converted to
+	 * the type of the field in the schema of every block.
+	 *
+	 * @param field
+	 *            The top-level field to which the filter applies
+	 * @param value
+	 *            The value the field must have, or null
+	 * @param minValue
+	 *            The lower bound of the range the field must be in, or null
+	 * @param maxValue
+	 *            The upper bound of the range the field must be in, or null
+	 */
+	public BlockFilter(String field, String value, String minValue, String maxValue) {
+		this.field = field;
+		this.value = value;
+		this.minValue = minValue;
+		this.maxValue = maxValue;
+	}
+
+	/*
+	 * Check if the block read by the stream may contain matching records
+	 */
+	public boolean mightMatch(DataFileStream<?> stream) {
+		Field schemaField = stream.getSchema().getField(field);
+		Schema.Type type = (schemaField != null) ? BlockStatistics.getValueType(schemaField.schema()) : null;
+		if (type == null)
+			return true;
+
+		// The filter range must overlap the range of the block
+		byte[] blockMin = stream.getMeta(BlockStatistics.META_MIN + field);
+		byte[] blockMax = stream.getMeta(BlockStatistics.META_MAX + field);
+		String lower = (value != null) ? value : minValue;
+		String upper = (value != null) ? value : maxValue;
+		if (blockMax != null && lower != null && compare(type, blockMax, lower) < 0)
+			return false;
+		if (blockMin != null && upper != null && compare(type, blockMin, upper) > 0)
+			return false;
+
+		// A single value must be in the Bloom filter
+		byte[] bloomFilter = stream.getMeta(BlockStatistics.META_BLOOM + field);
+		if (bloomFilter != null && value != null)
+			return BlockStatistics.bloomFilterMightContain(bloomFilter, parse(type, value));
+		return true;
+	}
+
+	// Compare a value stored in the metadata with a filter value
+	@SuppressWarnings("unchecked")
+	private static int compare(Schema.Type type, byte[] meta, String filterValue) {
+		Comparable<Object> metaValue = (Comparable<Object>) ((type == Schema.Type.STRING) ? new Utf8(meta)
+				: parse(type, new Utf8(meta).toString()));
+		return metaValue.compareTo(parse(type, filterValue));
+	}
+
+	// Convert a string to a value of the field type
+	private static Object parse(Schema.Type type, String text) {
+		switch (type) {
+		case INT:
+		case LONG:
+			return Long.valueOf(text.trim());
+		case FLOAT:
+			return Double.valueOf(Float.parseFloat(text.trim()));
+		case DOUBLE:
+			return Double.valueOf(text.trim());
+		default:
+			return new Utf8(text);
+		}
+	}
+
+}
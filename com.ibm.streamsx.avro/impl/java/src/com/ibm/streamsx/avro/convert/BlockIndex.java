@@ -0,0 +1,127 @@
+//
+// *******************************************************************************
+// * Copyright (C)2018, International Business Machines Corporation and *
+// * others. All Rights Reserved. *
+// *******************************************************************************
+//
+
+package com.ibm.streamsx.avro.convert;
+
+import org.apache.log4j.Logger;
+
+import com.ibm.streams.operator.Attribute;
+import com.ibm.streams.operator.OutputTuple;
+import com.ibm.streams.operator.StreamSchema;
+import com.ibm.streams.operator.StreamingOutput;
+import com.ibm.streams.operator.Type.MetaType;
+import com.ibm.streams.operator.log4j.TraceLevel;
+import com.ibm.streamsx.avro.Messages;
+
+/**
+ * Submits an index tuple for every Avro message block that an operator
+ * submits. The index tuple locates the block in the concatenation of all
+ * blocks of the operator, which is the file a sink creates when it writes
+ * the blocks one after the other, so that a reader can seek to a block
+ * instead of scanning the file.
+ *
+ * The attributes of the index tuple are optional, only the attributes that
+ * the output port has are set:
+ * <ul>
+ * <li>{@link #OFFSET} (int64): byte offset of the block</li>
+ * <li>{@link #LENGTH} (int64): length of the block in bytes</li>
+ * <li>{@link #RECORD_COUNT} (int64): number of records in the block</li>
+ * <li>{@link #FIRST_RECORD}, {@link #LAST_RECORD} (int64): ordinal of the
+ * first and last record of the block, counted from 0</li>
+ * <li>{@link #MIN_VALUE}, {@link #MAX_VALUE} (rstring or ustring): minimum
+ * and maximum of the index field in the block</li>
+ * </ul>
+ */
+public class BlockIndex {
+
+	public static final String OFFSET = "offset";
+	public static final String LENGTH = "length";
+	public static final String RECORD_COUNT = "recordCount";
+	public static final String FIRST_RECORD = "firstRecord";
+	public static final String LAST_RECORD = "lastRecord";
+	public static final String MIN_VALUE = "minValue";
+	public static final String MAX_VALUE = "maxValue";
+
+	private static final String[] LONG_ATTRIBUTES = { OFFSET, LENGTH, RECORD_COUNT, FIRST_RECORD, LAST_RECORD };
+	private static final String[] STRING_ATTRIBUTES = { MIN_VALUE, MAX_VALUE };
+
+	private final StreamingOutput<OutputTuple> indexStream;
+	private final String indexField;
+	private final boolean[] hasLongAttribute = new boolean[LONG_ATTRIBUTES.length];
+	private final boolean[] hasStringAttribute = new boolean[STRING_ATTRIBUTES.length];
+	private long offset = 0;
+	private long records = 0;
+
+	/**
+	 * Create an index.
+	 *
+	 * @param tracer
+	 *            The logger of the operator
+	 * @param indexStream
+	 *            The index output port
+	 * @param indexField
+	 *            The field whose minimum and maximum are submitted, may be null
+	 */
+	public BlockIndex(Logger tracer, StreamingOutput<OutputTuple> indexStream, String indexField) {
+		this.indexStream = indexStream;
+		this.indexField = indexField;
+		StreamSchema schema = indexStream.getStreamSchema();
+		for (int i = 0; i < LONG_ATTRIBUTES.length; i++)
+			hasLongAttribute[i] = checkAttribute(tracer, schema, LONG_ATTRIBUTES[i], "int64", MetaType.INT64);
+		for (int i = 0; i < STRING_ATTRIBUTES.length; i++)
+			hasStringAttribute[i] = checkAttribute(tracer, schema, STRING_ATTRIBUTES[i], "rstring or ustring",
+					MetaType.RSTRING, MetaType.USTRING);
+	}
+
+	// True if the attribute is present, fail if it has the wrong type
+	private static boolean checkAttribute(Logger tracer, StreamSchema schema, String name, String typeName,
+			MetaType... types) {
+		Attribute attribute = schema.getAttribute(name);
+		if (attribute == null)
+			return false;
+		for (MetaType type : types) {
+			if (attribute.getType().getMetaType() == type)
+				return true;
+		}
+		tracer.log(TraceLevel.ERROR, Messages.getString("AVRO_ATTRIBUTE_WRONG_TYPE", "index output port", name, typeName));
+		throw new IllegalArgumentException(Messages.getString("AVRO_ATTRIBUTE_WRONG_TYPE", "index output port", name, typeName));
+	}
+
+	/**
+	 * Submit the index tuple of a block that was submitted after the previous
+	 * block.
+	 *
+	 * @param length
+	 *            The length of the block in bytes
+	 * @param recordCount
+	 *            The number of records in the block
+	 * @param statistics
+	 *            The statistics of the block, which hold the minimum and
+	 *            maximum of the index field, or null if there is no index
+	 *            field
+	 * @throws Exception
+	 */
+	public void submit(long length, long recordCount, BlockStatistics statistics) throws Exception {
+		long[] longValues = { offset, length, recordCount, records, records + recordCount - 1 };
+		OutputTuple indexTuple = indexStream.newTuple();
+		for (int i = 0; i < LONG_ATTRIBUTES.length; i++) {
+			if (hasLongAttribute[i])
+				indexTuple.setLong(LONG_ATTRIBUTES[i], longValues[i]);
+		}
+		if (indexField != null && statistics != null) {
+			String[] stringValues = { statistics.getMinValue(indexField), statistics.getMaxValue(indexField) };
+			for (int i = 0; i < STRING_ATTRIBUTES.length; i++) {
+				if (hasStringAttribute[i] && stringValues[i] != null)
+					indexTuple.setString(STRING_ATTRIBUTES[i], stringValues[i]);
+			}
+		}
+		indexStream.submit(indexTuple);
+		offset += length;
+		records += recordCount;
+	}
+
+}
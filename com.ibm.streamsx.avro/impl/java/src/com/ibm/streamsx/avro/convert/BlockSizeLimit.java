@@ -0,0 +1,125 @@
+//
+// *******************************************************************************
+// * Copyright (C)2018, International Business Machines Corporation and *
+// * others. All Rights Reserved. *
+// *******************************************************************************
+//
+
+package com.ibm.streamsx.avro.convert;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.apache.avro.file.DataFileWriter;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.avro.io.BinaryEncoder;
+import org.apache.avro.io.DatumWriter;
+import org.apache.avro.io.EncoderFactory;
+
+/**
+ * Decides whether a record can be appended to an Avro message block without
+ * the submitted block exceeding a maximum size. The records are encoded
+ * before they are appended, so their size is exact. The overhead that the
+ * DataFileWriter adds to the records and the metadata of the block header
+ * are estimated from above.
+ */
+public class BlockSizeLimit {
+
+	/**
+	 * What happens to a record that exceeds the maximum size on its own.
+	 */
+	public enum OversizePolicy {
+		/** The record is handled like a record that cannot be converted */
+		error,
+		/** The record is submitted in a block of its own */
+		submit
+	}
+
+	// Upper bound of the bytes that a DataFileWriter adds to the records of
+	// a data block: record count, byte count and sync marker
+	private static final int BLOCK_OVERHEAD = 10 + 10 + 16;
+
+	private final long maxBytes;
+	private final EncodedRecord encodedRecord = new EncodedRecord();
+	private BinaryEncoder encoder;
+	private long unflushedBytes = 0;
+
+	/**
+	 * Create a limit.
+	 *
+	 * @param maxBytes
+	 *            The maximum size of a block in bytes
+	 */
+	public BlockSizeLimit(long maxBytes) {
+		this.maxBytes = maxBytes;
+	}
+
+	/**
+	 * Encode a record, to be appended with DataFileWriter.appendEncoded(). The
+	 * returned buffer is reused for the next record.
+	 *
+	 * @param writer
+	 *            The writer of the records
+	 * @param datum
+	 *            The record
+	 * @return The encoded record
+	 * @throws IOException
+	 */
+	public ByteBuffer encode(DatumWriter<GenericRecord> writer, GenericRecord datum) throws IOException {
+		encodedRecord.reset();
+		encoder = EncoderFactory.get().binaryEncoder(encodedRecord, encoder);
+		try {
+			writer.write(datum, encoder);
+		} catch (RuntimeException e) {
+			// Same exception as DataFileWriter.append() for invalid records
+			throw new DataFileWriter.AppendWriteException(e);
+		}
+		encoder.flush();
+		return encodedRecord.toByteBuffer();
+	}
+
+	/**
+	 * Check if a block stays within the maximum size if a record is appended.
+	 *
+	 * @param blockSize
+	 *            The number of bytes of the block written to its buffer
+	 * @param recordLength
+	 *            The length of the encoded record
+	 * @param metadataSize
+	 *            The size of the metadata that is added to the block header
+	 *            when the block is submitted, including the record
+	 * @return True if the record fits into the block
+	 */
+	public boolean fits(long blockSize, int recordLength, long metadataSize) {
+		return blockSize + unflushedBytes + recordLength + BLOCK_OVERHEAD + metadataSize <= maxBytes;
+	}
+
+	/*
+	 * Record that an encoded record was appended to the writer
+	 */
+	public void appended(int recordLength) {
+		unflushedBytes += recordLength;
+	}
+
+	/*
+	 * Record that the writer was flushed into the buffer of the block
+	 */
+	public void flushed() {
+		unflushedBytes = 0;
+	}
+
+	public long getMaxBytes() {
+		return maxBytes;
+	}
+
+	/**
+	 * Buffer of an encoded record that is appended without copying it.
+	 */
+	private static class EncodedRecord extends ByteArrayOutputStream {
+		ByteBuffer toByteBuffer() {
+			return ByteBuffer.wrap(buf, 0, count);
+		}
+	}
+
+}
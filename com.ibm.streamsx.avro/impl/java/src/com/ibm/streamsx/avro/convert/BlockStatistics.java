@@ -0,0 +1,512 @@
+//
+// *******************************************************************************
+// * Copyright (C)2018, International Business Machines Corporation and *
+// * others. All Rights Reserved. *
+// *******************************************************************************
+//
+
+package com.ibm.streamsx.avro.convert;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.SequenceInputStream;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.avro.Schema;
+import org.apache.avro.Schema.Field;
+import org.apache.avro.file.DataFileWriter;
+import org.apache.avro.generic.GenericDatumWriter;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.avro.util.Utf8;
+
+import com.ibm.streams.operator.types.Blob;
+import com.ibm.streams.operator.types.ValueFactory;
+import com.ibm.streamsx.avro.Messages;
+
+/**
+ * Collects statistics of the records of an Avro message block and writes them
+ * into the metadata of the container header, so that readers can skip blocks
+ * without decoding them. For every statistics field the minimum and the
+ * maximum value are recorded, for the Bloom filter field a Bloom filter of all
+ * values is recorded.
+ *
+ * The statistics are only known when the block is complete, but the header
+ * is written first. The block is therefore written with a fixed sync marker,
+ * and when it is submitted its header is replaced by a header with the same
+ * sync marker and the statistics, without encoding the records again.
+ *
+ * Fields must be top-level fields of type int, long, float, double or string,
+ * or unions of null and one of these types. Null values are not recorded.
+ */
+public class BlockStatistics {
+
+	/** Metadata key prefix of the minimum value of a field */
+	public static final String META_MIN = "streamsx.avro.min.";
+	/** Metadata key prefix of the maximum value of a field */
+	public static final String META_MAX = "streamsx.avro.max.";
+	/** Metadata key prefix of the Bloom filter of a field */
+	public static final String META_BLOOM = "streamsx.avro.bloom.";
+
+	// Maximum length of an encoded long and of a formatted number
+	private static final int MAX_VARINT_LENGTH = 10;
+	private static final int MAX_NUMBER_LENGTH = 24;
+
+	private final FieldStatistics[] statistics;
+	private final int bloomFilterPosition;
+	private final String bloomFilterField;
+	private final double falsePositiveRate;
+	private final byte[] sync = new byte[16];
+	private long[] bloomHashes = new long[1024];
+	private int bloomCount = 0;
+	private long headerLength;
+	private final Object[] nextValues;
+
+	/**
+	 * Create the statistics collector of a schema.
+	 *
+	 * @param schema
+	 *            The Avro schema of the records
+	 * @param statisticsFields
+	 *            The fields whose minimum and maximum are recorded, may be
+	 *            empty
+	 * @param bloomFilterField
+	 *            The field whose values are recorded in a Bloom filter, may be
+	 *            null
+	 * @param falsePositiveRate
+	 *            The false positive rate of the Bloom filter
+	 */
+	public BlockStatistics(Schema schema, List<String> statisticsFields, String bloomFilterField,
+			double falsePositiveRate) {
+		statistics = new FieldStatistics[statisticsFields.size()];
+		for (int i = 0; i < statistics.length; i++) {
+			String name = statisticsFields.get(i);
+			statistics[i] = new FieldStatistics(name, getField(schema, "statisticsFields", name));
+		}
+		this.bloomFilterField = bloomFilterField;
+		this.bloomFilterPosition = (bloomFilterField != null)
+				? getField(schema, "bloomFilterField", bloomFilterField).pos() : -1;
+		this.falsePositiveRate = falsePositiveRate;
+		this.nextValues = new Object[statistics.length + 1];
+		new Random().nextBytes(sync);
+	}
+
+	/*
+	 * Check the statistics and Bloom filter fields against a schema, without
+	 * creating the statistics
+	 */
+	public static void checkFields(Schema schema, List<String> statisticsFields, String bloomFilterField) {
+		for (String name : statisticsFields)
+			getField(schema, "statisticsFields", name);
+		if (bloomFilterField != null)
+			getField(schema, "bloomFilterField", bloomFilterField);
+	}
+
+	/*
+	 * Get a top-level field of a supported type
+	 */
+	private static Field getField(Schema schema, String parameterName, String fieldName) {
+		Field field = schema.getField(fieldName);
+		if (field == null || getValueType(field.schema()) == null)
+			throw new IllegalArgumentException(Messages.getString("AVRO_STATISTICS_FIELD_INVALID", parameterName, fieldName));
+		return field;
+	}
+
+	/*
+	 * The type of the values of a field if it is supported for statistics,
+	 * otherwise null. Unions of null and one type have the type of the non-null
+	 * branch.
+	 */
+	static Schema.Type getValueType(Schema schema) {
+		if (schema.getType() == Schema.Type.UNION) {
+			List<Schema> branches = schema.getTypes();
+			if (branches.size() != 2)
+				return null;
+			if (branches.get(0).getType() == Schema.Type.NULL)
+				schema = branches.get(1);
+			else if (branches.get(1).getType() == Schema.Type.NULL)
+				schema = branches.get(0);
+			else
+				return null;
+		}
+		switch (schema.getType()) {
+		case INT:
+		case LONG:
+		case FLOAT:
+		case DOUBLE:
+		case STRING:
+			return schema.getType();
+		default:
+			return null;
+		}
+	}
+
+	/**
+	 * Start a block in the buffer. The block is written with the sync marker
+	 * of this collector, so its header can be replaced when it is submitted.
+	 *
+	 * @param writer
+	 *            The writer of the block
+	 * @param schema
+	 *            The Avro schema
+	 * @param block
+	 *            The buffer of the block
+	 * @throws IOException
+	 */
+	public void create(DataFileWriter<GenericRecord> writer, Schema schema, BlockBuffer block) throws IOException {
+		writer.create(schema, block, sync);
+		headerLength = block.size();
+		reset();
+	}
+
+	/*
+	 * Record the values of a record that is added to the block
+	 */
+	public void add(GenericRecord datum) {
+		for (FieldStatistics fieldStatistics : statistics)
+			fieldStatistics.add(datum.get(fieldStatistics.position));
+		if (bloomFilterPosition >= 0)
+			addBloomValue(datum.get(bloomFilterPosition));
+	}
+
+	/*
+	 * Record values that were extracted from a record with extract()
+	 */
+	public void add(Object[] values) {
+		for (int i = 0; i < statistics.length; i++)
+			statistics[i].add(values[i]);
+		if (bloomFilterPosition >= 0)
+			addBloomValue(values[statistics.length]);
+	}
+
+	/*
+	 * Copy the values that are recorded from a record, so that the record can
+	 * be reused before the values are added. Used by threads which convert
+	 * records for the thread that collects the statistics.
+	 */
+	public Object[] extract(GenericRecord datum) {
+		Object[] values = new Object[statistics.length + 1];
+		for (int i = 0; i < statistics.length; i++)
+			values[i] = copy(datum.get(statistics[i].position));
+		if (bloomFilterPosition >= 0)
+			values[statistics.length] = copy(datum.get(bloomFilterPosition));
+		return values;
+	}
+
+	private static Object copy(Object value) {
+		return (value instanceof Utf8) ? new Utf8((Utf8) value) : value;
+	}
+
+	private void addBloomValue(Object value) {
+		if (value == null)
+			return;
+		if (bloomCount == bloomHashes.length)
+			bloomHashes = Arrays.copyOf(bloomHashes, bloomHashes.length * 2);
+		bloomHashes[bloomCount++] = hash(value);
+	}
+
+	/**
+	 * Copy the block into a blob. The header of the block is replaced by a
+	 * header that holds the statistics in its metadata.
+	 *
+	 * @param schema
+	 *            The Avro schema
+	 * @param block
+	 *            The buffer of the block, started with create()
+	 * @return The blob
+	 * @throws IOException
+	 */
+	public Blob toBlob(Schema schema, BlockBuffer block) throws IOException {
+		byte[] header = createHeader(schema);
+		return ValueFactory.readBlob(
+				new SequenceInputStream(new ByteArrayInputStream(header), block.getInputStream(headerLength)),
+				header.length + block.size() - headerLength);
+	}
+
+	/**
+	 * Write the block into a file, like toBlob().
+	 *
+	 * @param schema
+	 *            The Avro schema
+	 * @param block
+	 *            The buffer of the block, started with create()
+	 * @param file
+	 *            The file, which is overwritten
+	 * @return The size of the file
+	 * @throws IOException
+	 */
+	public long toFile(Schema schema, BlockBuffer block, File file) throws IOException {
+		return block.toFile(file, createHeader(schema), headerLength);
+	}
+
+	// Create the header that holds the statistics in its metadata
+	private byte[] createHeader(Schema schema) throws IOException {
+		DataFileWriter<Object> headerWriter = new DataFileWriter<Object>(new GenericDatumWriter<Object>(schema));
+		for (FieldStatistics fieldStatistics : statistics)
+			fieldStatistics.setMeta(headerWriter);
+		if (bloomFilterPosition >= 0 && bloomCount > 0)
+			headerWriter.setMeta(META_BLOOM + bloomFilterField, createBloomFilter());
+		ByteArrayOutputStream header = new ByteArrayOutputStream();
+		headerWriter.create(schema, header, sync);
+		headerWriter.close();
+		return header.toByteArray();
+	}
+
+	/*
+	 * Upper bound of the size of the metadata that the header of the current
+	 * block receives if a record is added
+	 */
+	public long estimateMetadataSize(GenericRecord next) {
+		for (int i = 0; i < statistics.length; i++)
+			nextValues[i] = next.get(statistics[i].position);
+		nextValues[statistics.length] = (bloomFilterPosition >= 0) ? next.get(bloomFilterPosition) : null;
+		return estimateMetadataSize(nextValues);
+	}
+
+	/*
+	 * Upper bound of the size of the metadata that the header of the current
+	 * block receives if a record with values from extract() is added
+	 */
+	public long estimateMetadataSize(Object[] next) {
+		// Count of the metadata map block
+		long size = MAX_VARINT_LENGTH;
+		for (int i = 0; i < statistics.length; i++)
+			size += statistics[i].estimateMetadataSize(next[i]);
+		if (bloomFilterPosition >= 0) {
+			double ln2 = Math.log(2);
+			long bits = (long) Math.ceil(-(bloomCount + 1) * Math.log(falsePositiveRate) / (ln2 * ln2));
+			size += entrySize(META_BLOOM + bloomFilterField, 1 + Math.max(1, (bits + 7) / 8));
+		}
+		return size;
+	}
+
+	// Size of an encoded metadata entry with a value of the given length
+	private static long entrySize(String key, long valueLength) {
+		return 2 * MAX_VARINT_LENGTH + key.length() * 4L + valueLength;
+	}
+
+	/*
+	 * The minimum of a statistics field in the current block as a string, or
+	 * null if the field has no value in the block
+	 */
+	public String getMinValue(String field) {
+		FieldStatistics fieldStatistics = getStatistics(field);
+		return (fieldStatistics != null) ? fieldStatistics.format(true) : null;
+	}
+
+	/*
+	 * The maximum of a statistics field in the current block as a string, or
+	 * null if the field has no value in the block
+	 */
+	public String getMaxValue(String field) {
+		FieldStatistics fieldStatistics = getStatistics(field);
+		return (fieldStatistics != null) ? fieldStatistics.format(false) : null;
+	}
+
+	private FieldStatistics getStatistics(String field) {
+		for (FieldStatistics fieldStatistics : statistics) {
+			if (fieldStatistics.name.equals(field))
+				return fieldStatistics;
+		}
+		return null;
+	}
+
+	/*
+	 * Create the Bloom filter of the recorded values. The first byte is the
+	 * number of hash functions, the remaining bytes are the bit array.
+	 */
+	private byte[] createBloomFilter() {
+		double ln2 = Math.log(2);
+		long bits = (long) Math.ceil(-bloomCount * Math.log(falsePositiveRate) / (ln2 * ln2));
+		int bytes = (int) Math.max(1, Math.min(Integer.MAX_VALUE - 1, (bits + 7) / 8));
+		int hashFunctions = (int) Math.max(1, Math.min(255, Math.round((bytes * 8.0 / bloomCount) * ln2)));
+		byte[] filter = new byte[bytes + 1];
+		filter[0] = (byte) hashFunctions;
+		for (int i = 0; i < bloomCount; i++) {
+			long hash = bloomHashes[i];
+			for (int k = 0; k < hashFunctions; k++) {
+				long bit = bitIndex(hash, k, bytes * 8L);
+				filter[1 + (int) (bit >>> 3)] |= (1 << (bit & 7));
+			}
+		}
+		return filter;
+	}
+
+	/*
+	 * Check if a Bloom filter created by createBloomFilter() may contain a
+	 * value
+	 */
+	static boolean bloomFilterMightContain(byte[] filter, Object value) {
+		int hashFunctions = filter[0] & 0xff;
+		long bits = (filter.length - 1) * 8L;
+		long hash = hash(value);
+		for (int k = 0; k < hashFunctions; k++) {
+			long bit = bitIndex(hash, k, bits);
+			if ((filter[1 + (int) (bit >>> 3)] & (1 << (bit & 7))) == 0)
+				return false;
+		}
+		return true;
+	}
+
+	// The k-th bit of a value, derived from two halves of its hash
+	private static long bitIndex(long hash, int k, long bits) {
+		long combined = (hash & 0xffffffffL) + k * (hash >>> 32);
+		return (combined & Long.MAX_VALUE) % bits;
+	}
+
+	/*
+	 * The hash of a field value. Integers and floating point numbers are hashed
+	 * as long and double values, so that int and long fields and float and
+	 * double fields of the same value have the same hash. Strings are hashed
+	 * over their UTF-8 bytes.
+	 */
+	static long hash(Object value) {
+		if (value instanceof Integer || value instanceof Long)
+			return mix(((Number) value).longValue());
+		if (value instanceof Float || value instanceof Double)
+			return mix(Double.doubleToLongBits(((Number) value).doubleValue()));
+		Utf8 utf8 = toUtf8(value);
+		byte[] bytes = utf8.getBytes();
+		long hash = 0xcbf29ce484222325L;
+		for (int i = 0; i < utf8.getByteLength(); i++) {
+			hash ^= bytes[i] & 0xff;
+			hash *= 0x100000001b3L;
+		}
+		return mix(hash);
+	}
+
+	// Finalization step of MurmurHash3, spreads the bits of the hash
+	private static long mix(long hash) {
+		hash ^= hash >>> 33;
+		hash *= 0xff51afd7ed558ccdL;
+		hash ^= hash >>> 33;
+		hash *= 0xc4ceb9fe1a85ec53L;
+		hash ^= hash >>> 33;
+		return hash;
+	}
+
+	static Utf8 toUtf8(Object value) {
+		return (value instanceof Utf8) ? (Utf8) value : new Utf8(value.toString());
+	}
+
+	// Discard the recorded values
+	private void reset() {
+		for (FieldStatistics fieldStatistics : statistics)
+			fieldStatistics.reset();
+		bloomCount = 0;
+	}
+
+	/**
+	 * Minimum and maximum value of a field. Numbers are compared as long or
+	 * double values, strings by their UTF-8 bytes.
+	 */
+	private static class FieldStatistics {
+		final String name;
+		final int position;
+		final Schema.Type type;
+		boolean empty = true;
+		long minLong, maxLong;
+		double minDouble, maxDouble;
+		Utf8 minString, maxString;
+
+		FieldStatistics(String name, Field field) {
+			this.name = name;
+			this.position = field.pos();
+			this.type = getValueType(field.schema());
+		}
+
+		void add(Object value) {
+			if (value == null)
+				return;
+			switch (type) {
+			case INT:
+			case LONG:
+				long longValue = ((Number) value).longValue();
+				if (empty || longValue < minLong)
+					minLong = longValue;
+				if (empty || longValue > maxLong)
+					maxLong = longValue;
+				break;
+			case FLOAT:
+			case DOUBLE:
+				double doubleValue = ((Number) value).doubleValue();
+				if (empty || doubleValue < minDouble)
+					minDouble = doubleValue;
+				if (empty || doubleValue > maxDouble)
+					maxDouble = doubleValue;
+				break;
+			default:
+				Utf8 stringValue = toUtf8(value);
+				if (empty || stringValue.compareTo(minString) < 0)
+					minString = new Utf8(stringValue);
+				if (empty || stringValue.compareTo(maxString) > 0)
+					maxString = new Utf8(stringValue);
+			}
+			empty = false;
+		}
+
+		void setMeta(DataFileWriter<?> writer) {
+			if (empty)
+				return;
+			switch (type) {
+			case INT:
+			case LONG:
+				writer.setMeta(META_MIN + name, Long.toString(minLong));
+				writer.setMeta(META_MAX + name, Long.toString(maxLong));
+				break;
+			case FLOAT:
+			case DOUBLE:
+				writer.setMeta(META_MIN + name, Double.toString(minDouble));
+				writer.setMeta(META_MAX + name, Double.toString(maxDouble));
+				break;
+			default:
+				writer.setMeta(META_MIN + name, Arrays.copyOf(minString.getBytes(), minString.getByteLength()));
+				writer.setMeta(META_MAX + name, Arrays.copyOf(maxString.getBytes(), maxString.getByteLength()));
+			}
+		}
+
+		long estimateMetadataSize(Object next) {
+			long nextLength = 0;
+			if (next != null)
+				nextLength = (type == Schema.Type.STRING) ? toUtf8(next).getByteLength() : MAX_NUMBER_LENGTH;
+			long minLength = nextLength;
+			long maxLength = nextLength;
+			if (!empty) {
+				if (type == Schema.Type.STRING) {
+					minLength = Math.max(minLength, minString.getByteLength());
+					maxLength = Math.max(maxLength, maxString.getByteLength());
+				} else {
+					minLength = maxLength = MAX_NUMBER_LENGTH;
+				}
+			}
+			if (empty && next == null)
+				return 0;
+			return entrySize(META_MIN + name, minLength) + entrySize(META_MAX + name, maxLength);
+		}
+
+		String format(boolean min) {
+			if (empty)
+				return null;
+			switch (type) {
+			case INT:
+			case LONG:
+				return Long.toString(min ? minLong : maxLong);
+			case FLOAT:
+			case DOUBLE:
+				return Double.toString(min ? minDouble : maxDouble);
+			default:
+				return (min ? minString : maxString).toString();
+			}
+		}
+
+		void reset() {
+			empty = true;
+			minString = null;
+			maxString = null;
+		}
+	}
+
+}
@@ -0,0 +1,384 @@
+//
+// *******************************************************************************
+// * Copyright (C)2018, International Business Machines Corporation and *
+// * others. All Rights Reserved. *
+// *******************************************************************************
+//
+
+package com.ibm.streamsx.avro.convert;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.avro.Schema;
+import org.apache.avro.Schema.Field;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.avro.util.Utf8;
+import org.apache.log4j.Logger;
+
+import com.ibm.streams.operator.Attribute;
+import com.ibm.streams.operator.OutputTuple;
+import com.ibm.streams.operator.StreamSchema;
+import com.ibm.streams.operator.Type.MetaType;
+import com.ibm.streams.operator.log4j.TraceLevel;
+import com.ibm.streams.operator.meta.CollectionType;
+import com.ibm.streams.operator.types.RString;
+import com.ibm.streamsx.avro.Messages;
+
+/**
+ * Collects the values of top-level Avro fields of the records of a blob into
+ * list attributes of a single output tuple, one list per field. Every list
+ * attribute of the output port whose element type is boolean, int32, int64,
+ * float32, float64, rstring or ustring is a column, filled from the Avro
+ * field of the same name. Numbers and booleans are stored in primitive
+ * arrays, which are sized from the number of records of the previous blob.
+ *
+ * Null values of fields whose type is a union with null are stored as 0,
+ * false or the empty string.
+ */
+public class ColumnarOutput {
+
+	private final Column[] columns;
+	private Schema recordSchema;
+	private int capacity = 16;
+	private int size = 0;
+
+	/**
+	 * Create the columns of an output port.
+	 *
+	 * @param tracer
+	 *            The logger of the operator
+	 * @param schema
+	 *            The schema of the output port
+	 */
+	public ColumnarOutput(Logger tracer, StreamSchema schema) {
+		List<Column> columnList = new ArrayList<Column>();
+		for (Attribute attribute : schema) {
+			if (attribute.getType().getMetaType() != MetaType.LIST)
+				continue;
+			MetaType elementType = ((CollectionType) attribute.getType()).getElementType().getMetaType();
+			Column column = Column.create(attribute.getName(), elementType);
+			if (column != null)
+				columnList.add(column);
+		}
+		if (columnList.isEmpty()) {
+			tracer.log(TraceLevel.ERROR, Messages.getString("AVRO_NO_COLUMNS"));
+			throw new IllegalArgumentException(Messages.getString("AVRO_NO_COLUMNS"));
+		}
+		columns = columnList.toArray(new Column[columnList.size()]);
+	}
+
+	/*
+	 * Start collecting the records of a blob
+	 */
+	public void start() {
+		size = 0;
+		for (Column column : columns)
+			column.allocate(capacity);
+	}
+
+	/*
+	 * Add the field values of a record to the columns
+	 */
+	public void add(GenericRecord datum) {
+		if (datum.getSchema() != recordSchema)
+			resolve(datum.getSchema());
+		if (size == capacity) {
+			capacity *= 2;
+			for (Column column : columns)
+				column.grow(capacity);
+		}
+		for (Column column : columns)
+			column.set(size, datum.get(column.position));
+		size++;
+	}
+
+	/*
+	 * Set the list attributes of the output tuple to the collected columns.
+	 * The capacity of the columns of the next blob is the number of records
+	 * of this blob.
+	 */
+	public void setColumns(OutputTuple outTuple) {
+		for (Column column : columns)
+			outTuple.setList(column.attribute, column.toList(size));
+		capacity = Math.max(1, size);
+	}
+
+	public int size() {
+		return size;
+	}
+
+	// Find the Avro fields of the columns in the schema of the records
+	private void resolve(Schema schema) {
+		for (Column column : columns) {
+			Field field = schema.getField(column.attribute);
+			if (field == null)
+				throw new IllegalArgumentException(Messages.getString("AVRO_COLUMN_FIELD_NOT_FOUND", column.attribute));
+			Schema.Type fieldType = BlockStatistics.getValueType(field.schema());
+			if (fieldType == null)
+				fieldType = field.schema().getType();
+			if (!column.accepts(fieldType))
+				throw new IllegalArgumentException(Messages.getString("AVRO_WRONG_MAPPING", "attribute " + column.attribute,
+						column.avroType, fieldType));
+			column.position = field.pos();
+		}
+		recordSchema = schema;
+	}
+
+	/**
+	 * The values of a field, stored in an array that is handed over to the
+	 * output tuple.
+	 */
+	private static abstract class Column {
+		final String attribute;
+		final Schema.Type avroType;
+		int position;
+
+		Column(String attribute, Schema.Type avroType) {
+			this.attribute = attribute;
+			this.avroType = avroType;
+		}
+
+		static Column create(String attribute, MetaType elementType) {
+			switch (elementType) {
+			case BOOLEAN:
+				return new BooleanColumn(attribute);
+			case INT32:
+				return new IntColumn(attribute);
+			case INT64:
+				return new LongColumn(attribute);
+			case FLOAT32:
+				return new FloatColumn(attribute);
+			case FLOAT64:
+				return new DoubleColumn(attribute);
+			case RSTRING:
+				return new StringColumn(attribute, true);
+			case USTRING:
+				return new StringColumn(attribute, false);
+			default:
+				return null;
+			}
+		}
+
+		boolean accepts(Schema.Type type) {
+			return type == avroType;
+		}
+
+		abstract void allocate(int capacity);
+
+		abstract void grow(int capacity);
+
+		abstract void set(int index, Object value);
+
+		abstract List<?> toList(int size);
+	}
+
+	private static class BooleanColumn extends Column {
+		boolean[] values;
+
+		BooleanColumn(String attribute) {
+			super(attribute, Schema.Type.BOOLEAN);
+		}
+
+		void allocate(int capacity) {
+			values = new boolean[capacity];
+		}
+
+		void grow(int capacity) {
+			values = Arrays.copyOf(values, capacity);
+		}
+
+		void set(int index, Object value) {
+			values[index] = (value != null) && (Boolean) value;
+		}
+
+		List<?> toList(final int size) {
+			final boolean[] list = values;
+			return new AbstractList<Boolean>() {
+				public Boolean get(int index) {
+					return list[index];
+				}
+
+				public int size() {
+					return size;
+				}
+			};
+		}
+	}
+
+	private static class IntColumn extends Column {
+		int[] values;
+
+		IntColumn(String attribute) {
+			super(attribute, Schema.Type.INT);
+		}
+
+		void allocate(int capacity) {
+			values = new int[capacity];
+		}
+
+		void grow(int capacity) {
+			values = Arrays.copyOf(values, capacity);
+		}
+
+		void set(int index, Object value) {
+			values[index] = (value != null) ? (Integer) value : 0;
+		}
+
+		List<?> toList(final int size) {
+			final int[] list = values;
+			return new AbstractList<Integer>() {
+				public Integer get(int index) {
+					return list[index];
+				}
+
+				public int size() {
+					return size;
+				}
+			};
+		}
+	}
+
+	private static class LongColumn extends Column {
+		long[] values;
+
+		LongColumn(String attribute) {
+			super(attribute, Schema.Type.LONG);
+		}
+
+		void allocate(int capacity) {
+			values = new long[capacity];
+		}
+
+		void grow(int capacity) {
+			values = Arrays.copyOf(values, capacity);
+		}
+
+		void set(int index, Object value) {
+			values[index] = (value != null) ? (Long) value : 0;
+		}
+
+		List<?> toList(final int size) {
+			final long[] list = values;
+			return new AbstractList<Long>() {
+				public Long get(int index) {
+					return list[index];
+				}
+
+				public int size() {
+					return size;
+				}
+			};
+		}
+	}
+
+	private static class FloatColumn extends Column {
+		float[] values;
+
+		FloatColumn(String attribute) {
+			super(attribute, Schema.Type.FLOAT);
+		}
+
+		void allocate(int capacity) {
+			values = new float[capacity];
+		}
+
+		void grow(int capacity) {
+			values = Arrays.copyOf(values, capacity);
+		}
+
+		void set(int index, Object value) {
+			values[index] = (value != null) ? (Float) value : 0;
+		}
+
+		List<?> toList(final int size) {
+			final float[] list = values;
+			return new AbstractList<Float>() {
+				public Float get(int index) {
+					return list[index];
+				}
+
+				public int size() {
+					return size;
+				}
+			};
+		}
+	}
+
+	private static class DoubleColumn extends Column {
+		double[] values;
+
+		DoubleColumn(String attribute) {
+			super(attribute, Schema.Type.DOUBLE);
+		}
+
+		void allocate(int capacity) {
+			values = new double[capacity];
+		}
+
+		void grow(int capacity) {
+			values = Arrays.copyOf(values, capacity);
+		}
+
+		void set(int index, Object value) {
+			values[index] = (value != null) ? (Double) value : 0;
+		}
+
+		List<?> toList(final int size) {
+			final double[] list = values;
+			return new AbstractList<Double>() {
+				public Double get(int index) {
+					return list[index];
+				}
+
+				public int size() {
+					return size;
+				}
+			};
+		}
+	}
+
+	/**
+	 * Strings are stored as RString from the UTF-8 bytes of the Avro string
+	 * for rstring columns, and as String for ustring columns.
+	 */
+	private static class StringColumn extends Column {
+		final boolean rstring;
+		Object[] values;
+
+		StringColumn(String attribute, boolean rstring) {
+			super(attribute, Schema.Type.STRING);
+			this.rstring = rstring;
+		}
+
+		@Override
+		boolean accepts(Schema.Type type) {
+			return type == Schema.Type.STRING || type == Schema.Type.ENUM;
+		}
+
+		void allocate(int capacity) {
+			values = new Object[capacity];
+		}
+
+		void grow(int capacity) {
+			values = Arrays.copyOf(values, capacity);
+		}
+
+		void set(int index, Object value) {
+			if (!rstring)
+				values[index] = (value != null) ? value.toString() : "";
+			else if (value instanceof Utf8)
+				values[index] = new RString(
+						Arrays.copyOf(((Utf8) value).getBytes(), ((Utf8) value).getByteLength()));
+			else
+				values[index] = new RString((value != null) ? value.toString() : "");
+		}
+
+		List<?> toList(int size) {
+			return Arrays.asList(values).subList(0, size);
+		}
+	}
+
+}
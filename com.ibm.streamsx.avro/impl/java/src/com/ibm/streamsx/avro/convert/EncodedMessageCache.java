@@ -0,0 +1,46 @@
+//
+// *******************************************************************************
+// * Copyright (C)2018, International Business Machines Corporation and *
+// * others. All Rights Reserved. *
+// *******************************************************************************
+//
+
+package com.ibm.streamsx.avro.convert;
+
+/**
+ * Least recently used cache of the Avro encoding of input messages, so that
+ * messages which are received again and again are not parsed and encoded
+ * every time. A message is found by the hash of its content and a full
+ * comparison with the cached message.
+ */
+public class EncodedMessageCache extends LruCache<String, byte[]> {
+
+	/** Messages longer than this number of characters are not cached */
+	public static final int MAX_MESSAGE_LENGTH = 64 * 1024;
+
+	/**
+	 * Create a cache.
+	 *
+	 * @param maxEntries
+	 *            The maximum number of cached messages
+	 */
+	public EncodedMessageCache(int maxEntries) {
+		super(maxEntries);
+	}
+
+	/**
+	 * Add the Avro encoding of a message, unless the message is too long. The
+	 * encoding must not be modified afterwards.
+	 *
+	 * @param message
+	 *            The input message
+	 * @param encoded
+	 *            The Avro encoding of the message
+	 */
+	@Override
+	public void put(String message, byte[] encoded) {
+		if (message.length() <= MAX_MESSAGE_LENGTH)
+			super.put(message, encoded);
+	}
+
+}
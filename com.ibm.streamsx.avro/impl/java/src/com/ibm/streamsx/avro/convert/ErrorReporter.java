@@ -0,0 +1,161 @@
+//
+// *******************************************************************************
+// * Copyright (C)2018, International Business Machines Corporation and *
+// * others. All Rights Reserved. *
+// *******************************************************************************
+//
+
+package com.ibm.streamsx.avro.convert;
+
+import org.apache.log4j.Logger;
+
+import com.ibm.streams.operator.Attribute;
+import com.ibm.streams.operator.OutputTuple;
+import com.ibm.streams.operator.StreamingOutput;
+import com.ibm.streams.operator.Tuple;
+import com.ibm.streams.operator.Type.MetaType;
+import com.ibm.streams.operator.log4j.TraceLevel;
+import com.ibm.streamsx.avro.Messages;
+
+/**
+ * Reports the input that an operator could not convert. The input tuple and
+ * a short reason are submitted to the optional error output port of the
+ * operator, and the error is logged with an excerpt of the input.
+ *
+ * Logging is rate-limited: at most {@link #MAX_LOGGED_ERRORS} errors are
+ * logged per minute, further errors are only counted and their number is
+ * logged when the next minute starts. Stack traces are only logged at debug
+ * level. A burst of malformed input therefore costs about as much as the
+ * same number of valid tuples.
+ */
+public class ErrorReporter {
+
+	/** Number of errors that are logged per interval */
+	public static final int MAX_LOGGED_ERRORS = 10;
+	/** Length of the reason and the input excerpt in the log */
+	public static final int MAX_EXCERPT_LENGTH = 200;
+
+	// Interval in which at most MAX_LOGGED_ERRORS errors are logged
+	private static final long LOG_INTERVAL_MILLIS = 60000;
+
+	private final Logger tracer;
+	private final String operation;
+	private final StreamingOutput<OutputTuple> errorStream;
+	private final String errorReasonAttribute;
+	private long intervalStart = System.currentTimeMillis();
+	private int loggedErrors = 0;
+	private long suppressedErrors = 0;
+
+	/**
+	 * Create a reporter.
+	 *
+	 * @param tracer
+	 *            The logger of the operator
+	 * @param operation
+	 *            What the operator did when the error occurred, for example
+	 *            "converting JSON string to AVRO schema"
+	 * @param errorStream
+	 *            The error output port, or null if the operator has none
+	 * @param errorReasonAttribute
+	 *            The attribute of the error output port which receives the
+	 *            reason, it must be of type rstring or ustring
+	 */
+	public ErrorReporter(Logger tracer, String operation, StreamingOutput<OutputTuple> errorStream,
+			String errorReasonAttribute) {
+		this.tracer = tracer;
+		this.operation = operation;
+		this.errorStream = errorStream;
+		this.errorReasonAttribute = errorReasonAttribute;
+		if (errorStream != null) {
+			Attribute attribute = errorStream.getStreamSchema().getAttribute(errorReasonAttribute);
+			if (attribute == null) {
+				tracer.log(TraceLevel.ERROR, Messages.getString("AVRO_OUTPUT_ATTRIBUTE_NOT_FOUND", "outputErrorReason", errorReasonAttribute));
+				throw new IllegalArgumentException(Messages.getString("AVRO_OUTPUT_ATTRIBUTE_NOT_FOUND", "outputErrorReason", errorReasonAttribute));
+			}
+			MetaType attributeType = attribute.getType().getMetaType();
+			if (attributeType != MetaType.RSTRING && attributeType != MetaType.USTRING) {
+				tracer.log(TraceLevel.ERROR, Messages.getString("AVRO_ATTRIBUTE_WRONG_TYPE", "outputErrorReason", errorReasonAttribute, "rstring or ustring"));
+				throw new IllegalArgumentException(Messages.getString("AVRO_ATTRIBUTE_WRONG_TYPE", "outputErrorReason", errorReasonAttribute, "rstring or ustring"));
+			}
+		}
+	}
+
+	/*
+	 * True if errors are submitted to an error output port
+	 */
+	public boolean hasErrorPort() {
+		return errorStream != null;
+	}
+
+	/**
+	 * Log the error and submit the input tuple with the reason to the error
+	 * output port, if there is one.
+	 *
+	 * @param e
+	 *            The cause of the error
+	 * @param input
+	 *            The input tuple whose attributes are copied to the error
+	 *            tuple, may be null
+	 * @param payload
+	 *            The input that could not be converted, only an excerpt of it
+	 *            is logged
+	 * @throws Exception
+	 */
+	public void report(Throwable e, Tuple input, Object payload) throws Exception {
+		String reason = getReason(e);
+		log(reason, e, payload);
+		if (errorStream != null) {
+			OutputTuple errorTuple = errorStream.newTuple();
+			if (input != null)
+				errorTuple.assign(input);
+			errorTuple.setString(errorReasonAttribute, reason);
+			errorStream.submit(errorTuple);
+		}
+	}
+
+	// Log the error unless too many errors have been logged in this interval
+	private void log(String reason, Throwable e, Object payload) {
+		long now = System.currentTimeMillis();
+		if (now - intervalStart >= LOG_INTERVAL_MILLIS) {
+			if (suppressedErrors > 0)
+				tracer.log(TraceLevel.WARN, suppressedErrors + " further errors while " + operation
+						+ " were not logged in the last " + (LOG_INTERVAL_MILLIS / 1000) + " seconds");
+			intervalStart = now;
+			loggedErrors = 0;
+			suppressedErrors = 0;
+		}
+		if (loggedErrors >= MAX_LOGGED_ERRORS) {
+			suppressedErrors++;
+			return;
+		}
+		loggedErrors++;
+		tracer.log(TraceLevel.ERROR, "Error while " + operation + ": " + reason + ". Input: " + getExcerpt(payload));
+		if (tracer.isDebugEnabled())
+			tracer.log(TraceLevel.DEBUG, "Error while " + operation, e);
+	}
+
+	/*
+	 * A short reason for an error: the exception type and the beginning of its
+	 * message
+	 */
+	public static String getReason(Throwable e) {
+		String message = e.getMessage();
+		if (message == null)
+			return e.getClass().getSimpleName();
+		return e.getClass().getSimpleName() + ": " + truncate(message);
+	}
+
+	/*
+	 * The beginning of the string representation of an input
+	 */
+	public static String getExcerpt(Object payload) {
+		return truncate(String.valueOf(payload));
+	}
+
+	private static String truncate(String text) {
+		if (text.length() <= MAX_EXCERPT_LENGTH)
+			return text;
+		return text.substring(0, MAX_EXCERPT_LENGTH) + "... (" + text.length() + " characters)";
+	}
+
+}
@@ -0,0 +1,352 @@
+//
+// *******************************************************************************
+// * Copyright (C)2018, International Business Machines Corporation and *
+// * others. All Rights Reserved. *
+// *******************************************************************************
+//
+
+package com.ibm.streamsx.avro.convert;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.avro.Schema;
+import org.apache.avro.Schema.Field;
+import org.apache.avro.generic.GenericDatumReader;
+import org.apache.avro.generic.GenericDatumWriter;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.avro.io.BinaryDecoder;
+import org.apache.avro.io.BinaryEncoder;
+import org.apache.avro.io.DecoderFactory;
+import org.apache.avro.io.Encoder;
+import org.apache.avro.io.EncoderFactory;
+import org.apache.avro.io.ResolvingDecoder;
+import org.apache.log4j.Logger;
+
+import com.ibm.streams.operator.log4j.TraceLevel;
+import com.ibm.streams.operator.metrics.Metric;
+import com.ibm.streams.operator.metrics.OperatorMetrics;
+
+/**
+ * Measures the conversion cost of every Avro field path for a sample of the
+ * records an operator converts. For 1 in N records the time spent on every
+ * field and the number of bytes the field occupies in the binary Avro
+ * encoding are accumulated. Nested fields are reported with their full path,
+ * for example `location.country`, and the cost of a record or array field
+ * includes the cost of the fields nested in it. The time spent converting a
+ * tuple attribute to its Avro field is accumulated apart from the time spent
+ * encoding or decoding the field.
+ *
+ * The fields with the highest cost are periodically logged and published as
+ * custom metrics of the operator.
+ */
+public class FieldProfiler {
+
+	private static Logger LOGGER = Logger.getLogger(FieldProfiler.class.getCanonicalName());
+
+	// Interval in which the summary is logged and the metrics are updated
+	private static final long SUMMARY_INTERVAL_MILLIS = 60000;
+
+	private final String operatorName;
+	private final int sampleRate;
+	private final int topFields;
+	private final OperatorMetrics operatorMetrics;
+	private final Map<String, FieldStatistics> statistics = new HashMap<String, FieldStatistics>();
+	private final Map<String, Metric> nanosMetrics = new HashMap<String, Metric>();
+	private final Map<String, Metric> bytesMetrics = new HashMap<String, Metric>();
+	private final Map<String, Metric> convertNanosMetrics = new HashMap<String, Metric>();
+	private final Deque<String> fieldPaths = new ArrayDeque<String>();
+	private final Map<Schema, ProfilingDatumWriter> writers = new HashMap<Schema, ProfilingDatumWriter>();
+	private final Map<Schema, ProfilingDatumReader> readers = new HashMap<Schema, ProfilingDatumReader>();
+	private final Map<Schema, GenericDatumWriter<GenericRecord>> plainWriters = new HashMap<Schema, GenericDatumWriter<GenericRecord>>();
+	private final ByteArrayOutputStream encodeBuffer = new ByteArrayOutputStream();
+	private BinaryEncoder encoder;
+	private BinaryDecoder decoder;
+	private ByteArrayInputStream decodeInput;
+	private long recordCount = 0;
+	private long sampledRecords = 0;
+	private long lastSummary = System.currentTimeMillis();
+
+	/**
+	 * Create a profiler.
+	 *
+	 * @param operatorName
+	 *            The name of the operator, used in the log summary
+	 * @param sampleRate
+	 *            Profile 1 in sampleRate records
+	 * @param topFields
+	 *            Number of fields that are logged and published as metrics
+	 * @param operatorMetrics
+	 *            The metrics of the operator, null if no metrics must be
+	 *            published
+	 */
+	public FieldProfiler(String operatorName, int sampleRate, int topFields, OperatorMetrics operatorMetrics) {
+		this.operatorName = operatorName;
+		this.sampleRate = sampleRate;
+		this.topFields = topFields;
+		this.operatorMetrics = operatorMetrics;
+	}
+
+	/*
+	 * Count a record and return true if this record must be profiled
+	 */
+	public boolean sampleNext() {
+		return (recordCount++ % sampleRate) == 0;
+	}
+
+	/*
+	 * Start measuring a field nested in the field currently measured. Returns
+	 * the start time to pass to endField.
+	 */
+	public long beginField(String fieldName) {
+		String parentPath = fieldPaths.peek();
+		fieldPaths.push(parentPath == null ? fieldName : parentPath + "." + fieldName);
+		return System.nanoTime();
+	}
+
+	/*
+	 * Finish measuring the encoding or decoding of the field started last
+	 */
+	public void endField(long startTime, long bytes) {
+		long nanos = System.nanoTime() - startTime;
+		FieldStatistics fieldStatistics = popField();
+		fieldStatistics.nanos += nanos;
+		fieldStatistics.bytes += bytes;
+	}
+
+	/*
+	 * Finish measuring the conversion of the field started last from a tuple
+	 * attribute
+	 */
+	public void endConversion(long startTime) {
+		long nanos = System.nanoTime() - startTime;
+		popField().convertNanos += nanos;
+	}
+
+	private FieldStatistics popField() {
+		String fieldPath = fieldPaths.pop();
+		FieldStatistics fieldStatistics = statistics.get(fieldPath);
+		if (fieldStatistics == null) {
+			fieldStatistics = new FieldStatistics(fieldPath);
+			statistics.put(fieldPath, fieldStatistics);
+		}
+		return fieldStatistics;
+	}
+
+	/*
+	 * Encode a sampled record and measure the encoding time and the size of
+	 * every field. Returns the encoded record, to be written instead of
+	 * encoding the record again.
+	 */
+	public ByteBuffer profileEncode(GenericRecord datum) throws IOException {
+		Schema schema = datum.getSchema();
+		ProfilingDatumWriter writer = writers.get(schema);
+		if (writer == null) {
+			writer = new ProfilingDatumWriter(schema);
+			writers.put(schema, writer);
+		}
+		encodeBuffer.reset();
+		encoder = EncoderFactory.get().directBinaryEncoder(encodeBuffer, encoder);
+		writer.write(datum, encoder);
+		encoder.flush();
+		return ByteBuffer.wrap(encodeBuffer.toByteArray());
+	}
+
+	/*
+	 * Decode a sampled binary Avro record and measure the decoding time and
+	 * the size of every field
+	 */
+	public GenericRecord profileDecode(byte[] data, Schema schema) throws IOException {
+		ProfilingDatumReader reader = readers.get(schema);
+		if (reader == null) {
+			reader = new ProfilingDatumReader(schema);
+			readers.put(schema, reader);
+		}
+		decodeInput = new ByteArrayInputStream(data);
+		decoder = DecoderFactory.get().directBinaryDecoder(decodeInput, decoder);
+		return (GenericRecord) reader.read(null, decoder);
+	}
+
+	/*
+	 * Measure the decoding cost of a record whose binary form is not
+	 * available, for example because it was read from an Avro container by a
+	 * DataFileStream. The record is encoded again without measuring and the
+	 * result is decoded and measured.
+	 */
+	public void profileDecode(GenericRecord datum) throws IOException {
+		Schema schema = datum.getSchema();
+		GenericDatumWriter<GenericRecord> writer = plainWriters.get(schema);
+		if (writer == null) {
+			writer = new GenericDatumWriter<GenericRecord>(schema);
+			plainWriters.put(schema, writer);
+		}
+		encodeBuffer.reset();
+		encoder = EncoderFactory.get().binaryEncoder(encodeBuffer, encoder);
+		writer.write(datum, encoder);
+		encoder.flush();
+		profileDecode(encodeBuffer.toByteArray(), schema);
+	}
+
+	/*
+	 * Finish a sampled record. Logs the summary and updates the metrics when
+	 * the summary interval has expired.
+	 */
+	public void recordFinished() {
+		sampledRecords++;
+		long now = System.currentTimeMillis();
+		if (now >= lastSummary + SUMMARY_INTERVAL_MILLIS) {
+			publish();
+			lastSummary = now;
+		}
+	}
+
+	/*
+	 * Return the fields with the highest total time of conversion and
+	 * encoding or decoding, highest first
+	 */
+	public List<FieldStatistics> getTopFields() {
+		List<FieldStatistics> fields = new ArrayList<FieldStatistics>(statistics.values());
+		Collections.sort(fields, new Comparator<FieldStatistics>() {
+			@Override
+			public int compare(FieldStatistics o1, FieldStatistics o2) {
+				return Long.compare(o2.nanos + o2.convertNanos, o1.nanos + o1.convertNanos);
+			}
+		});
+		return fields.subList(0, Math.min(topFields, fields.size()));
+	}
+
+	/*
+	 * Log the summary of the top fields and update the field metrics
+	 */
+	public void publish() {
+		if (sampledRecords == 0)
+			return;
+		List<FieldStatistics> fields = getTopFields();
+		StringBuilder summary = new StringBuilder();
+		summary.append("Field profile of operator ").append(operatorName).append(" after ").append(sampledRecords)
+				.append(" sampled records (1 in ").append(sampleRate).append("), average per record:");
+		for (FieldStatistics field : fields) {
+			summary.append("\n  ").append(field.fieldPath).append(": ").append(field.nanos / sampledRecords)
+					.append(" ns, ").append(field.bytes / sampledRecords).append(" bytes");
+			if (field.convertNanos > 0)
+				summary.append(", ").append(field.convertNanos / sampledRecords).append(" ns conversion");
+		}
+		LOGGER.log(TraceLevel.INFO, summary.toString());
+
+		if (operatorMetrics == null)
+			return;
+		// Create the metrics for fields that entered the top list and update
+		// all field metrics created so far
+		for (FieldStatistics field : fields) {
+			if (!nanosMetrics.containsKey(field.fieldPath)) {
+				nanosMetrics.put(field.fieldPath, operatorMetrics.createCustomMetric(
+						"profile." + field.fieldPath + ".nanosPerRecord",
+						"Average time in nanoseconds spent on Avro field " + field.fieldPath + " per sampled record.",
+						Metric.Kind.GAUGE));
+				bytesMetrics.put(field.fieldPath, operatorMetrics.createCustomMetric(
+						"profile." + field.fieldPath + ".bytesPerRecord",
+						"Average number of bytes of Avro field " + field.fieldPath + " per sampled record.",
+						Metric.Kind.GAUGE));
+			}
+			if (field.convertNanos > 0 && !convertNanosMetrics.containsKey(field.fieldPath)) {
+				convertNanosMetrics.put(field.fieldPath, operatorMetrics.createCustomMetric(
+						"profile." + field.fieldPath + ".convertNanosPerRecord",
+						"Average time in nanoseconds spent converting an attribute to Avro field " + field.fieldPath
+								+ " per sampled record.",
+						Metric.Kind.GAUGE));
+			}
+		}
+		for (FieldStatistics field : statistics.values()) {
+			Metric nanosMetric = nanosMetrics.get(field.fieldPath);
+			if (nanosMetric != null) {
+				nanosMetric.setValue(field.nanos / sampledRecords);
+				bytesMetrics.get(field.fieldPath).setValue(field.bytes / sampledRecords);
+			}
+			Metric convertNanosMetric = convertNanosMetrics.get(field.fieldPath);
+			if (convertNanosMetric != null)
+				convertNanosMetric.setValue(field.convertNanos / sampledRecords);
+		}
+	}
+
+	/**
+	 * Accumulated cost of a single field path.
+	 */
+	public static class FieldStatistics {
+		final String fieldPath;
+		long nanos;
+		long bytes;
+		long convertNanos;
+
+		FieldStatistics(String fieldPath) {
+			this.fieldPath = fieldPath;
+		}
+
+		public String getFieldPath() {
+			return fieldPath;
+		}
+
+		public long getNanos() {
+			return nanos;
+		}
+
+		public long getBytes() {
+			return bytes;
+		}
+
+		public long getConvertNanos() {
+			return convertNanos;
+		}
+	}
+
+	/**
+	 * Datum writer that measures every field it writes. Must write to the
+	 * direct encoder over the encode buffer so that the buffer size is the
+	 * exact number of bytes written.
+	 */
+	private class ProfilingDatumWriter extends GenericDatumWriter<GenericRecord> {
+
+		ProfilingDatumWriter(Schema schema) {
+			super(schema);
+		}
+
+		@Override
+		protected void writeField(Object datum, Field f, Encoder out, Object state) throws IOException {
+			long startBytes = encodeBuffer.size();
+			long startTime = beginField(f.name());
+			super.writeField(datum, f, out, state);
+			endField(startTime, encodeBuffer.size() - startBytes);
+		}
+	}
+
+	/**
+	 * Datum reader that measures every field it reads. Must read from the
+	 * direct decoder over the decode input so that the remaining input is
+	 * exact.
+	 */
+	private class ProfilingDatumReader extends GenericDatumReader<Object> {
+
+		ProfilingDatumReader(Schema schema) {
+			super(schema);
+		}
+
+		@Override
+		protected void readField(Object r, Field f, Object oldDatum, ResolvingDecoder in, Object state)
+				throws IOException {
+			long startRemaining = decodeInput.available();
+			long startTime = beginField(f.name());
+			super.readField(r, f, oldDatum, in, state);
+			endField(startTime, startRemaining - decodeInput.available());
+		}
+	}
+
+}
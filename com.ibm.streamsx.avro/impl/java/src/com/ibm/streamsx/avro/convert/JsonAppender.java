@@ -0,0 +1,32 @@
+//
+// *******************************************************************************
+// * Copyright (C)2018, International Business Machines Corporation and *
+// * others. All Rights Reserved. *
+// *******************************************************************************
+//
+
+package com.ibm.streamsx.avro.convert;
+
+import java.util.IdentityHashMap;
+
+import org.apache.avro.generic.GenericData;
+
+/**
+ * Appends the JSON representation of Avro records to a StringBuilder. The
+ * output is identical to {@code GenericRecord.toString()}, but many records
+ * can be written into one reusable buffer without creating a String per
+ * record.
+ */
+public class JsonAppender extends GenericData {
+
+	private final IdentityHashMap<Object, Object> seenObjects = new IdentityHashMap<Object, Object>();
+
+	/*
+	 * Append the JSON representation of a datum to the buffer
+	 */
+	public void append(Object datum, StringBuilder buffer) {
+		seenObjects.clear();
+		toString(datum, buffer, seenObjects);
+	}
+
+}
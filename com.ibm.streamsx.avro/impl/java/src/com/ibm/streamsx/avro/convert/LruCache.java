@@ -0,0 +1,121 @@
+//
+// *******************************************************************************
+// * Copyright (C)2018, International Business Machines Corporation and *
+// * others. All Rights Reserved. *
+// *******************************************************************************
+//
+
+package com.ibm.streamsx.avro.convert;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Least recently used cache of a bounded number of entries, which counts its
+ * hits, misses and evictions for the metrics of the operator.
+ *
+ * The cache is not thread-safe, it is used by the thread that submits the
+ * tuples.
+ *
+ * @param <K>
+ *            The type of the keys, which must implement hashCode() and
+ *            equals() over their content
+ * @param <V>
+ *            The type of the values
+ */
+public class LruCache<K, V> {
+
+	private final Map<K, V> cache;
+	private long hits = 0;
+	private long misses = 0;
+	private long evictions = 0;
+
+	/**
+	 * Create a cache.
+	 *
+	 * @param maxEntries
+	 *            The maximum number of entries
+	 */
+	public LruCache(final int maxEntries) {
+		cache = new LinkedHashMap<K, V>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+				if (size() <= maxEntries)
+					return false;
+				evictions++;
+				evicted(eldest.getKey(), eldest.getValue());
+				return true;
+			}
+		};
+	}
+
+	/**
+	 * Called when an entry is evicted, while the new entry is added. Does
+	 * nothing by default.
+	 *
+	 * @param key
+	 *            The key of the evicted entry
+	 * @param value
+	 *            The value of the evicted entry
+	 */
+	protected void evicted(K key, V value) {
+	}
+
+	/**
+	 * Get the value of a key.
+	 *
+	 * @param key
+	 *            The key
+	 * @return The value, or null if the key is not cached
+	 */
+	public V get(K key) {
+		V value = cache.get(key);
+		if (value != null)
+			hits++;
+		else
+			misses++;
+		return value;
+	}
+
+	/**
+	 * Add the value of a key, the least recently used entry is evicted if the
+	 * cache is full. The value must not be modified afterwards.
+	 *
+	 * @param key
+	 *            The key
+	 * @param value
+	 *            The value
+	 */
+	public void put(K key, V value) {
+		cache.put(key, value);
+	}
+
+	/*
+	 * The cached values, from the least to the most recently used. Getting
+	 * or adding entries while iterating is not allowed.
+	 */
+	public Collection<V> values() {
+		return Collections.unmodifiableCollection(cache.values());
+	}
+
+	public long getHits() {
+		return hits;
+	}
+
+	public long getMisses() {
+		return misses;
+	}
+
+	public long getEvictions() {
+		return evictions;
+	}
+
+	public int size() {
+		return cache.size();
+	}
+
+}
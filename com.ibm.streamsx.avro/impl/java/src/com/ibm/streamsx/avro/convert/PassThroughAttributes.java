@@ -0,0 +1,75 @@
+//
+// *******************************************************************************
+// * Copyright (C)2018, International Business Machines Corporation and *
+// * others. All Rights Reserved. *
+// *******************************************************************************
+//
+
+package com.ibm.streamsx.avro.convert;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.ibm.streams.operator.Attribute;
+import com.ibm.streams.operator.OutputTuple;
+import com.ibm.streams.operator.StreamSchema;
+import com.ibm.streams.operator.Tuple;
+
+/**
+ * Copies the attributes of an input tuple to an output tuple that have the
+ * same name and type in both schemas, like OutputTuple.assign(). The
+ * attributes are matched once when the operator is initialized and copied by
+ * index, so nothing is copied if the output port has no attribute of the
+ * input port.
+ */
+public class PassThroughAttributes {
+
+	private final int[] inputIndexes;
+	private final int[] outputIndexes;
+
+	/**
+	 * Match the attributes of an input and an output port.
+	 *
+	 * @param inputSchema
+	 *            The schema of the input port
+	 * @param outputSchema
+	 *            The schema of the output port
+	 * @param excluded
+	 *            Output attributes that the operator sets for every tuple, so
+	 *            that they are not copied
+	 */
+	public PassThroughAttributes(StreamSchema inputSchema, StreamSchema outputSchema, String... excluded) {
+		List<String> excludedNames = Arrays.asList(excluded);
+		List<Attribute> matches = new ArrayList<Attribute>();
+		for (Attribute outputAttribute : outputSchema) {
+			if (excludedNames.contains(outputAttribute.getName()))
+				continue;
+			Attribute inputAttribute = inputSchema.getAttribute(outputAttribute.getName());
+			if (inputAttribute != null && inputAttribute.same(outputAttribute))
+				matches.add(outputAttribute);
+		}
+		inputIndexes = new int[matches.size()];
+		outputIndexes = new int[matches.size()];
+		for (int i = 0; i < matches.size(); i++) {
+			inputIndexes[i] = inputSchema.getAttribute(matches.get(i).getName()).getIndex();
+			outputIndexes[i] = matches.get(i).getIndex();
+		}
+	}
+
+	/*
+	 * Copy the matching attributes of the input tuple to the output tuple
+	 */
+	public void copy(Tuple input, OutputTuple output) {
+		for (int i = 0; i < inputIndexes.length; i++)
+			output.setObject(outputIndexes[i], input.getObject(inputIndexes[i]));
+	}
+
+	/*
+	 * Number of attributes that are copied
+	 */
+	public int size() {
+		return inputIndexes.length;
+	}
+
+}
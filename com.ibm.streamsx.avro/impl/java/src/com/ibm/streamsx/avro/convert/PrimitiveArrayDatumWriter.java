@@ -0,0 +1,83 @@
+//
+// *******************************************************************************
+// * Copyright (C)2018, International Business Machines Corporation and *
+// * others. All Rights Reserved. *
+// *******************************************************************************
+//
+
+package com.ibm.streamsx.avro.convert;
+
+import java.io.IOException;
+import java.util.Collection;
+
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericDatumWriter;
+import org.apache.avro.io.Encoder;
+
+/**
+ * Datum writer that writes arrays of primitive values (boolean, int, long,
+ * float and double) in one loop, calling the encoder directly for every
+ * element. The generic writer resolves the element schema, looks up logical
+ * type conversions and dispatches on the element type for every single
+ * element.
+ *
+ * The array datum can be any collection, so a Streams list of a primitive
+ * type is written as it is, without first copying it into an Avro array.
+ */
+public class PrimitiveArrayDatumWriter<D> extends GenericDatumWriter<D> {
+
+	public PrimitiveArrayDatumWriter(Schema schema) {
+		super(schema);
+	}
+
+	@Override
+	protected void writeArray(Schema schema, Object datum, Encoder out) throws IOException {
+		Schema elementSchema = schema.getElementType();
+		if (!(datum instanceof Collection) || elementSchema.getLogicalType() != null) {
+			super.writeArray(schema, datum, out);
+			return;
+		}
+		Collection<?> elements = (Collection<?>) datum;
+		out.writeArrayStart();
+		out.setItemCount(elements.size());
+		switch (elementSchema.getType()) {
+		case BOOLEAN:
+			for (Object element : elements) {
+				out.startItem();
+				out.writeBoolean((Boolean) element);
+			}
+			break;
+		case INT:
+			for (Object element : elements) {
+				out.startItem();
+				out.writeInt(((Number) element).intValue());
+			}
+			break;
+		case LONG:
+			for (Object element : elements) {
+				out.startItem();
+				out.writeLong(((Number) element).longValue());
+			}
+			break;
+		case FLOAT:
+			for (Object element : elements) {
+				out.startItem();
+				out.writeFloat(((Number) element).floatValue());
+			}
+			break;
+		case DOUBLE:
+			for (Object element : elements) {
+				out.startItem();
+				out.writeDouble(((Number) element).doubleValue());
+			}
+			break;
+		default:
+			for (Object element : elements) {
+				out.startItem();
+				write(elementSchema, element, out);
+			}
+		}
+		out.writeArrayEnd();
+	}
+
+}
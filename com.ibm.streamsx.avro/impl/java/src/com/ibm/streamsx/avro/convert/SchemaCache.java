@@ -0,0 +1,134 @@
+//
+// *******************************************************************************
+// * Copyright (C)2018, International Business Machines Corporation and *
+// * others. All Rights Reserved. *
+// *******************************************************************************
+//
+
+package com.ibm.streamsx.avro.convert;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.avro.Schema;
+import org.apache.avro.SchemaNormalization;
+import org.apache.avro.generic.GenericDatumReader;
+import org.apache.avro.generic.GenericDatumWriter;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.log4j.Logger;
+
+import com.ibm.streams.operator.StreamSchema;
+import com.ibm.streams.operator.log4j.TraceLevel;
+
+/**
+ * Process-wide cache of parsed Avro schema files. All operators in a PE that
+ * use the same schema file share the parsed schema, its fingerprint, the datum
+ * reader and writer and the result of the tuple mapping validation, so the
+ * schema file is read and parsed only once. An entry is replaced when the
+ * modification time or the size of the schema file changes.
+ *
+ * The shared datum readers and writers are thread-safe, they keep their
+ * per-thread decoding state in thread locals.
+ */
+public class SchemaCache {
+
+	private static Logger LOGGER = Logger.getLogger(SchemaCache.class.getCanonicalName());
+
+	private static final Map<String, CachedSchema> CACHE = new ConcurrentHashMap<String, CachedSchema>();
+
+	/*
+	 * Return the cached schema of a schema file, parse the file if it is not
+	 * cached or has changed since it was cached
+	 */
+	public static CachedSchema get(String schemaFile) throws IOException {
+		File file = new File(schemaFile);
+		String path = file.getCanonicalPath();
+		long lastModified = file.lastModified();
+		long length = file.length();
+		CachedSchema cached = CACHE.get(path);
+		if (cached != null && cached.isCurrent(lastModified, length)) {
+			LOGGER.log(TraceLevel.TRACE, "Using cached Avro schema of file " + path);
+			return cached;
+		}
+		synchronized (SchemaCache.class) {
+			// Another operator may have parsed the file in the meantime
+			cached = CACHE.get(path);
+			if (cached != null && cached.isCurrent(lastModified, length))
+				return cached;
+			LOGGER.log(TraceLevel.TRACE, "Parsing Avro schema file " + path);
+			InputStream avscInput = new FileInputStream(file);
+			try {
+				cached = new CachedSchema(new Schema.Parser().parse(avscInput), lastModified, length);
+			} finally {
+				avscInput.close();
+			}
+			CACHE.put(path, cached);
+			return cached;
+		}
+	}
+
+	/**
+	 * A parsed schema file and the structures derived from it.
+	 */
+	public static class CachedSchema {
+		private final Schema schema;
+		private final long lastModified;
+		private final long length;
+		private final long fingerprint;
+		private final GenericDatumReader<GenericRecord> reader;
+		private final GenericDatumWriter<GenericRecord> writer;
+		private final Map<String, Boolean> validMappings = new ConcurrentHashMap<String, Boolean>();
+
+		CachedSchema(Schema schema, long lastModified, long length) {
+			this.schema = schema;
+			this.lastModified = lastModified;
+			this.length = length;
+			this.fingerprint = SchemaNormalization.parsingFingerprint64(schema);
+			this.reader = new GenericDatumReader<GenericRecord>(schema);
+			this.writer = new PrimitiveArrayDatumWriter<GenericRecord>(schema);
+		}
+
+		boolean isCurrent(long lastModified, long length) {
+			return this.lastModified == lastModified && this.length == length;
+		}
+
+		public Schema getSchema() {
+			return schema;
+		}
+
+		/*
+		 * The 64-bit Rabin fingerprint of the parsing canonical form
+		 */
+		public long getFingerprint() {
+			return fingerprint;
+		}
+
+		public GenericDatumReader<GenericRecord> getReader() {
+			return reader;
+		}
+
+		public GenericDatumWriter<GenericRecord> getWriter() {
+			return writer;
+		}
+
+		/*
+		 * Check if tuples of a stream schema can be mapped to this schema. The
+		 * result is cached per stream schema, so the mapping problems are only
+		 * logged by the first operator that checks them.
+		 */
+		public boolean isValidTupleToAvroMapping(String tupleSchemaName, StreamSchema tupleSchema) throws Exception {
+			String key = tupleSchema.getLanguageType();
+			Boolean validMapping = validMappings.get(key);
+			if (validMapping == null) {
+				validMapping = TupleToAvroConverter.isValidTupleToAvroMapping(tupleSchemaName, tupleSchema, schema);
+				validMappings.put(key, validMapping);
+			}
+			return validMapping;
+		}
+	}
+
+}
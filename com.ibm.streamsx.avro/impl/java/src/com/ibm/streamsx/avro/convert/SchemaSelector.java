@@ -0,0 +1,150 @@
+//
+// *******************************************************************************
+// * Copyright (C)2018, International Business Machines Corporation and *
+// * others. All Rights Reserved. *
+// *******************************************************************************
+//
+
+package com.ibm.streamsx.avro.convert;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+
+import com.ibm.streams.operator.Attribute;
+import com.ibm.streams.operator.StreamSchema;
+import com.ibm.streams.operator.Tuple;
+import com.ibm.streams.operator.Type.MetaType;
+import com.ibm.streams.operator.log4j.TraceLevel;
+import com.ibm.streamsx.avro.Messages;
+import com.ibm.streamsx.avro.convert.SchemaCache.CachedSchema;
+
+/**
+ * The Avro schemas of an operator that converts tuples of many record types,
+ * and the selection of the schema of every tuple. The schemas are read from a
+ * list of schema files and from the files with extension `.avsc` of a
+ * directory. An input attribute selects the schema of a tuple: an rstring or
+ * ustring attribute holds the full name of the schema, an int64 attribute its
+ * fingerprint. If several schemas have the same full name, the last one is
+ * selected by name.
+ *
+ * Without a selector attribute, there must be exactly one schema, which is
+ * the schema of every tuple.
+ */
+public class SchemaSelector {
+
+	/** Extension of the schema files read from a directory */
+	public static final String SCHEMA_FILE_EXTENSION = ".avsc";
+
+	private final List<CachedSchema> schemas = new ArrayList<CachedSchema>();
+	private final Map<String, CachedSchema> schemasByName = new HashMap<String, CachedSchema>();
+	private final Map<Long, CachedSchema> schemasByFingerprint = new HashMap<Long, CachedSchema>();
+	private final String selectorAttribute;
+	private int selectorIndex = -1;
+	private boolean selectByFingerprint = false;
+
+	/**
+	 * Read the schemas and check the selector attribute.
+	 *
+	 * @param tracer
+	 *            The logger of the operator
+	 * @param schemaFiles
+	 *            The schema files, may be empty
+	 * @param schemaDirectory
+	 *            The directory of schema files, may be null
+	 * @param inputSchema
+	 *            The schema of the input port
+	 * @param selectorAttribute
+	 *            The input attribute that selects the schema of a tuple, may
+	 *            be null if there is only one schema
+	 * @throws IOException
+	 */
+	public SchemaSelector(Logger tracer, List<String> schemaFiles, String schemaDirectory, StreamSchema inputSchema,
+			String selectorAttribute) throws IOException {
+		List<String> files = new ArrayList<String>(schemaFiles);
+		if (schemaDirectory != null) {
+			File[] directoryFiles = new File(schemaDirectory).listFiles();
+			if (directoryFiles != null) {
+				Arrays.sort(directoryFiles);
+				for (File file : directoryFiles) {
+					if (file.isFile() && file.getName().endsWith(SCHEMA_FILE_EXTENSION))
+						files.add(file.getPath());
+				}
+			}
+		}
+		if (files.isEmpty()) {
+			tracer.log(TraceLevel.ERROR, Messages.getString("AVRO_NO_SCHEMA_FILES", schemaDirectory));
+			throw new IllegalArgumentException(Messages.getString("AVRO_NO_SCHEMA_FILES", schemaDirectory));
+		}
+		for (String file : files) {
+			tracer.log(TraceLevel.TRACE, "Retrieving and parsing Avro message schema file " + file);
+			CachedSchema cachedSchema = SchemaCache.get(file);
+			if (schemasByFingerprint.put(cachedSchema.getFingerprint(), cachedSchema) == null)
+				schemas.add(cachedSchema);
+			schemasByName.put(cachedSchema.getSchema().getFullName(), cachedSchema);
+			tracer.log(TraceLevel.TRACE, "Avro message schema " + cachedSchema.getSchema().getFullName() + " fingerprint: "
+					+ Long.toHexString(cachedSchema.getFingerprint()));
+		}
+
+		this.selectorAttribute = selectorAttribute;
+		if (selectorAttribute == null) {
+			if (schemas.size() > 1) {
+				tracer.log(TraceLevel.ERROR, Messages.getString("AVRO_SCHEMA_SELECTOR_REQUIRED", "inputSchemaSelector"));
+				throw new IllegalArgumentException(Messages.getString("AVRO_SCHEMA_SELECTOR_REQUIRED", "inputSchemaSelector"));
+			}
+			return;
+		}
+		Attribute attribute = inputSchema.getAttribute(selectorAttribute);
+		if (attribute == null) {
+			tracer.log(TraceLevel.ERROR, Messages.getString("AVRO_INPUT_ATTRIBUTE_NOT_FOUND", "inputSchemaSelector", selectorAttribute));
+			throw new IllegalArgumentException(Messages.getString("AVRO_INPUT_ATTRIBUTE_NOT_FOUND", "inputSchemaSelector", selectorAttribute));
+		}
+		MetaType attributeType = attribute.getType().getMetaType();
+		if (attributeType != MetaType.RSTRING && attributeType != MetaType.USTRING && attributeType != MetaType.INT64) {
+			tracer.log(TraceLevel.ERROR, Messages.getString("AVRO_ATTRIBUTE_WRONG_TYPE", "inputSchemaSelector", selectorAttribute, "rstring, ustring or int64"));
+			throw new IllegalArgumentException(Messages.getString("AVRO_ATTRIBUTE_WRONG_TYPE", "inputSchemaSelector", selectorAttribute, "rstring, ustring or int64"));
+		}
+		selectorIndex = attribute.getIndex();
+		selectByFingerprint = (attributeType == MetaType.INT64);
+	}
+
+	/**
+	 * Select the schema of a tuple.
+	 *
+	 * @param tuple
+	 *            The input tuple
+	 * @return The schema
+	 * @throws IllegalArgumentException
+	 *             If the selector attribute names no schema
+	 */
+	public CachedSchema select(Tuple tuple) {
+		if (selectorIndex < 0)
+			return schemas.get(0);
+		if (selectByFingerprint) {
+			long fingerprint = tuple.getLong(selectorIndex);
+			CachedSchema cachedSchema = schemasByFingerprint.get(fingerprint);
+			if (cachedSchema == null)
+				throw new IllegalArgumentException(Messages.getString("AVRO_SCHEMA_NOT_FOUND", Long.toHexString(fingerprint), selectorAttribute));
+			return cachedSchema;
+		}
+		String name = tuple.getString(selectorIndex);
+		CachedSchema cachedSchema = schemasByName.get(name);
+		if (cachedSchema == null)
+			throw new IllegalArgumentException(Messages.getString("AVRO_SCHEMA_NOT_FOUND", name, selectorAttribute));
+		return cachedSchema;
+	}
+
+	/*
+	 * All schemas, in the order of the schema files
+	 */
+	public List<CachedSchema> getSchemas() {
+		return schemas;
+	}
+
+}
@@ -10,6 +10,6 @@ public class SupportedTypes {
 
 	public static final List<MetaType> SUPPORTED_STREAMS_TYPES = new ArrayList<MetaType>(
 			Arrays.asList(MetaType.BOOLEAN, MetaType.FLOAT32, MetaType.FLOAT64, MetaType.INT32, MetaType.INT64,
-					MetaType.RSTRING, MetaType.USTRING, MetaType.TUPLE, MetaType.LIST));
+					MetaType.RSTRING, MetaType.USTRING, MetaType.BLOB, MetaType.TUPLE, MetaType.LIST));
 
 }
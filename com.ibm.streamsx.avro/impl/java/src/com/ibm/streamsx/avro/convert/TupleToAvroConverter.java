@@ -7,13 +7,16 @@
 
 package com.ibm.streamsx.avro.convert;
 
+import java.util.EnumSet;
 import java.util.List;
+import java.util.Set;
 
 import org.apache.avro.Schema;
 import org.apache.avro.Schema.Field;
 import org.apache.avro.generic.GenericArray;
 import org.apache.avro.generic.GenericData;
 import org.apache.avro.generic.GenericRecord;
+import org.apache.avro.util.Utf8;
 import org.apache.log4j.Logger;
 
 import com.ibm.streams.operator.Attribute;
@@ -24,6 +27,7 @@ import com.ibm.streams.operator.Type.MetaType;
 import com.ibm.streams.operator.log4j.TraceLevel;
 import com.ibm.streams.operator.meta.CollectionType;
 import com.ibm.streams.operator.meta.TupleType;
+import com.ibm.streams.operator.types.Blob;
 import com.ibm.streams.operator.types.RString;
 import com.ibm.streamsx.avro.Messages;
 
@@ -31,6 +35,10 @@ public class TupleToAvroConverter {
 
 	private static Logger LOGGER = Logger.getLogger(TupleToAvroConverter.class.getCanonicalName());
 
+	// List element types that need no conversion
+	private static final Set<MetaType> PRIMITIVE_TYPES = EnumSet.of(MetaType.BOOLEAN, MetaType.INT32, MetaType.INT64,
+			MetaType.FLOAT32, MetaType.FLOAT64);
+
 	/*
 	 * Check the schema of the input tuple (recursively
 	 */
@@ -104,6 +112,12 @@ public class TupleToAvroConverter {
 					validMapping = false;
 				}
 				break;
+			case BLOB:
+				if (avroSchemaType != Schema.Type.BYTES) {
+					LOGGER.log(TraceLevel.ERROR, Messages.getString ("AVRO_WRONG_MAPPING", "blob attribute " + attributeName, "Bytes type", avroSchemaType));
+					validMapping = false;
+				}
+				break;
 			case TUPLE:
 				if (avroSchemaType != Schema.Type.RECORD) {
 					LOGGER.log(TraceLevel.ERROR, Messages.getString ("AVRO_WRONG_MAPPING", "tuple attribute " + attributeName, "Record type", avroSchemaType));
@@ -141,15 +155,29 @@ public class TupleToAvroConverter {
 	 * Convert the an input schema to an Avro Generic Record
 	 */
 	public static GenericRecord convertTupleToAvro(Tuple tuple, StreamSchema streamSchema, Schema avroSchema) {
+		return convertTupleToAvro(tuple, streamSchema, avroSchema, null);
+	}
+
+	/*
+	 * Convert the an input schema to an Avro Generic Record and measure the
+	 * conversion time of every attribute if a profiler is passed. The time is
+	 * accumulated apart from the encoding time of the field.
+	 */
+	public static GenericRecord convertTupleToAvro(Tuple tuple, StreamSchema streamSchema, Schema avroSchema,
+			FieldProfiler profiler) {
 		GenericRecord datum = new GenericData.Record(avroSchema);
 		for (String attributeName : streamSchema.getAttributeNames()) {
 			Attribute attribute = streamSchema.getAttribute(attributeName);
 			Object tupleAttribute = tuple.getObject(attributeName);
 			Field avroField = avroSchema.getField(attributeName);
 			// If there is an Avro field associated with this attribute, convert
-			if (avroField != null)
-				datum.put(attributeName,
-						convertAttributeToAvro(attributeName, tupleAttribute, attribute.getType(), avroField.schema()));
+			if (avroField != null) {
+				long startTime = (profiler != null) ? profiler.beginField(attributeName) : 0;
+				datum.put(attributeName, convertAttributeToAvro(attributeName, tupleAttribute, attribute.getType(),
+						avroField.schema(), profiler));
+				if (profiler != null)
+					profiler.endConversion(startTime);
+			}
 		}
 		return datum;
 	}
@@ -158,7 +186,7 @@ public class TupleToAvroConverter {
 	 * Get the Avro object for the appropriate type
 	 */
 	private static Object convertAttributeToAvro(String attributeName, Object tupleAttribute, Type tupleAttributeType,
-			Schema avroSchema) {
+			Schema avroSchema, FieldProfiler profiler) {
 		Object returnObject = null;
 		MetaType metaType = tupleAttributeType.getMetaType();
 		switch (metaType) {
@@ -178,15 +206,21 @@ public class TupleToAvroConverter {
 			returnObject = (Long) tupleAttribute;
 			break;
 		case RSTRING:
-			returnObject = ((RString) tupleAttribute).getString();
+			returnObject = toUtf8((RString) tupleAttribute);
 			break;
 		case USTRING:
-			returnObject = tupleAttribute.toString();
+			// The writer encodes a String to UTF-8 in one pass
+			returnObject = (String) tupleAttribute;
+			break;
+		case BLOB:
+			// A read-only view of the blob, the encoder copies its bytes
+			// once into the output
+			returnObject = ((Blob) tupleAttribute).getByteBuffer();
 			break;
 		case TUPLE:
 			Tuple subTuple = (Tuple) tupleAttribute;
 			StreamSchema subStreamSchema = subTuple.getStreamSchema();
-			GenericRecord subDatum = convertTupleToAvro(subTuple, subStreamSchema, avroSchema);
+			GenericRecord subDatum = convertTupleToAvro(subTuple, subStreamSchema, avroSchema, profiler);
 			// Return the Avro record
 			returnObject = subDatum;
 			break;
@@ -195,6 +229,12 @@ public class TupleToAvroConverter {
 			List<Object> subList = (List<Object>) tupleAttribute;
 			// Obtain the type of the elements contained in the Streams list
 			Type tupleElementType = ((CollectionType) tupleAttributeType).getElementType();
+			// Lists of primitive values are passed to the writer as they are,
+			// the PrimitiveArrayDatumWriter encodes their elements directly
+			if (PRIMITIVE_TYPES.contains(tupleElementType.getMetaType())) {
+				returnObject = subList;
+				break;
+			}
 			// Obtain the type of the elements contained in the Avro array
 			Schema avroArrayElementType = avroSchema.getElementType();
 			// Now loop through all list elements and populate the associated
@@ -202,7 +242,7 @@ public class TupleToAvroConverter {
 			GenericArray<Object> subArray = new GenericData.Array<Object>(subList.size(), avroSchema);
 			for (Object arrayElement : subList) {
 				Object avroElement = convertAttributeToAvro(attributeName, arrayElement, tupleElementType,
-						avroArrayElementType);
+						avroArrayElementType, profiler);
 				subArray.add(avroElement);
 			}
 			// Return the Avro array
@@ -215,4 +255,15 @@ public class TupleToAvroConverter {
 		return returnObject;
 	}
 
+	/*
+	 * Wrap the UTF-8 bytes of an rstring as an Avro string, so the writer
+	 * copies them unchanged instead of decoding and re-encoding the text
+	 */
+	private static Utf8 toUtf8(RString rstring) {
+		Utf8 utf8 = new Utf8(rstring.getData());
+		if (utf8.getByteLength() != rstring.getLength())
+			utf8.setByteLength(rstring.getLength());
+		return utf8;
+	}
+
 }
@@ -0,0 +1,377 @@
+package com.ibm.streamsx.avro.test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.avro.Schema;
+import org.apache.avro.Schema.Field;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericDatumWriter;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.avro.io.EncoderFactory;
+import org.apache.avro.io.JsonEncoder;
+
+import com.ibm.streams.operator.Attribute;
+import com.ibm.streams.operator.OperatorContext;
+import com.ibm.streams.operator.OutputTuple;
+import com.ibm.streams.operator.StreamSchema;
+import com.ibm.streams.operator.StreamingData.Punctuation;
+import com.ibm.streams.operator.StreamingOutput;
+import com.ibm.streams.operator.Type;
+import com.ibm.streams.operator.meta.CollectionType;
+import com.ibm.streams.operator.meta.TupleType;
+import com.ibm.streams.operator.model.OutputPortSet;
+import com.ibm.streams.operator.model.OutputPortSet.WindowPunctuationOutputMode;
+import com.ibm.streams.operator.model.OutputPorts;
+import com.ibm.streams.operator.model.Parameter;
+import com.ibm.streams.operator.model.PrimitiveOperator;
+import com.ibm.streams.operator.samples.patterns.ProcessTupleProducer;
+import com.ibm.streams.operator.types.RString;
+import com.ibm.streams.operator.types.ValueFactory;
+
+/**
+ * Source operator that generates random records which are valid for an Avro
+ * schema. It is used to load the conversion operators with realistic volumes
+ * and shapes of data.
+ * <P>
+ * If the output port has an attribute {@code jsonMessage}, the records are
+ * submitted in the Avro JSON encoding, which is the format JSONToAvro parses.
+ * This works for every Avro schema. Otherwise every output attribute that has
+ * the name of a field of the schema is set from the record, which requires
+ * that the SPL types of these attributes correspond to the Avro types.
+ * </P>
+ * <P>
+ * If the output port has an int64 attribute {@code generatedNanos}, it is set
+ * to {@code System.nanoTime()} just before the tuple is submitted, so that a
+ * sink in the same JVM can measure the latency of the tuple.
+ * </P>
+ */
+@PrimitiveOperator(name = "AvroRecordGenerator", namespace = "com.ibm.streamsx.avro.test", description = "Generates random records that are valid for an Avro schema and submits them as tuples or JSON strings")
+@OutputPorts({
+		@OutputPortSet(cardinality = 1, windowPunctuationOutputMode = WindowPunctuationOutputMode.Generating, description = "Port that produces the generated records. An attribute `jsonMessage` receives the record as JSON, otherwise attributes are set from the record fields with the same name. Optional int64 attribute `generatedNanos` receives the submission time.") })
+public class AvroRecordGenerator extends ProcessTupleProducer {
+
+	private static final String JSON_ATTRIBUTE = "jsonMessage";
+	private static final String GENERATED_NANOS_ATTRIBUTE = "generatedNanos";
+	private static final String CHARACTERS = "abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789 ";
+
+	private String avroMessageSchemaFile;
+	private long count = 10000;
+	private double rate = 0;
+	private int stringLength = 32;
+	private int listSize = 10;
+	private int nestedListSize = -1;
+	private int maxDepth = 3;
+	private long punctInterval = 0;
+	private long seed = 0;
+
+	private Schema avroSchema;
+	private Random random;
+
+	@Parameter(optional = false, description = "File name of the Avro schema of the generated records.")
+	public void setAvroMessageSchemaFile(String avroMessageSchemaFile) {
+		this.avroMessageSchemaFile = avroMessageSchemaFile;
+	}
+
+	@Parameter(optional = true, description = "Number of records to generate. Default is 10000.")
+	public void setCount(long count) {
+		this.count = count;
+	}
+
+	@Parameter(optional = true, description = "Number of records to submit per second. 0 submits as fast as possible, which is the default.")
+	public void setRate(double rate) {
+		this.rate = rate;
+	}
+
+	@Parameter(optional = true, description = "Length of generated strings and bytes values. Default is 32.")
+	public void setStringLength(int stringLength) {
+		this.stringLength = stringLength;
+	}
+
+	@Parameter(optional = true, description = "Number of elements of generated arrays and maps that are fields of the top-level record. Default is 10.")
+	public void setListSize(int listSize) {
+		this.listSize = listSize;
+	}
+
+	@Parameter(optional = true, description = "Number of elements of generated arrays and maps that are nested in another array, map or record. Default is the value of `listSize`.")
+	public void setNestedListSize(int nestedListSize) {
+		this.nestedListSize = nestedListSize;
+	}
+
+	@Parameter(optional = true, description = "Maximum nesting level of generated records, arrays and maps. Arrays and maps below this level are generated empty and optional records null, so that recursive schemas terminate. Default is 3.")
+	public void setMaxDepth(int maxDepth) {
+		this.maxDepth = maxDepth;
+	}
+
+	@Parameter(optional = true, description = "Number of records after which a window punctuation is submitted. 0 only submits a window punctuation after the last record, which is the default.")
+	public void setPunctInterval(long punctInterval) {
+		this.punctInterval = punctInterval;
+	}
+
+	@Parameter(optional = true, description = "Seed of the random generator, so that runs are repeatable. Default is 0.")
+	public void setSeed(long seed) {
+		this.seed = seed;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void initialize(OperatorContext context) throws Exception {
+		super.initialize(context);
+		avroSchema = parseSchema(avroMessageSchemaFile);
+		if (avroSchema.getType() != Schema.Type.RECORD)
+			throw new IllegalArgumentException("The schema in " + avroMessageSchemaFile + " is not a record schema");
+		if (nestedListSize < 0)
+			nestedListSize = listSize;
+		random = new Random(seed);
+	}
+
+	@Override
+	protected void process() throws Exception {
+
+		final StreamingOutput<OutputTuple> out = getOutput(0);
+		StreamSchema outputSchema = out.getStreamSchema();
+		boolean jsonOutput = outputSchema.getAttribute(JSON_ATTRIBUTE) != null;
+		boolean timed = outputSchema.getAttribute(GENERATED_NANOS_ATTRIBUTE) != null;
+
+		GenericDatumWriter<GenericRecord> writer = new GenericDatumWriter<GenericRecord>(avroSchema);
+		ByteArrayOutputStream jsonBuffer = new ByteArrayOutputStream();
+		JsonEncoder jsonEncoder = EncoderFactory.get().jsonEncoder(avroSchema, jsonBuffer);
+
+		long nanosPerRecord = rate > 0 ? (long) (1000000000L / rate) : 0;
+		long startTime = System.nanoTime();
+		for (long i = 0; i < count; i++) {
+			GenericRecord record = (GenericRecord) generate(avroSchema, 0);
+
+			OutputTuple tuple = out.newTuple();
+			if (jsonOutput) {
+				jsonBuffer.reset();
+				jsonEncoder.configure(jsonBuffer);
+				writer.write(record, jsonEncoder);
+				jsonEncoder.flush();
+				tuple.setString(JSON_ATTRIBUTE, jsonBuffer.toString("UTF-8"));
+			} else {
+				for (Attribute attribute : outputSchema) {
+					Object value = record.get(attribute.getName());
+					if (value != null && avroSchema.getField(attribute.getName()) != null)
+						tuple.setObject(attribute.getName(), toAttributeValue(value, attribute.getType()));
+				}
+			}
+
+			// Pace the submission to the requested rate
+			if (nanosPerRecord > 0) {
+				long waitTime = startTime + i * nanosPerRecord - System.nanoTime();
+				if (waitTime > 0)
+					LockSupport.parkNanos(waitTime);
+			}
+			if (timed)
+				tuple.setLong(GENERATED_NANOS_ATTRIBUTE, System.nanoTime());
+			out.submit(tuple);
+			if (punctInterval > 0 && (i + 1) % punctInterval == 0)
+				out.punctuate(Punctuation.WINDOW_MARKER);
+		}
+
+		if (punctInterval == 0 || count % punctInterval != 0)
+			out.punctuate(Punctuation.WINDOW_MARKER);
+	}
+
+	/*
+	 * Generate a random value for an Avro schema. The depth is the nesting
+	 * level of the value, the top-level record has depth 0.
+	 */
+	private Object generate(Schema schema, int depth) {
+		switch (schema.getType()) {
+		case RECORD:
+			GenericRecord record = new GenericData.Record(schema);
+			for (Field field : schema.getFields())
+				record.put(field.pos(), generate(field.schema(), depth + 1));
+			return record;
+		case ARRAY:
+			int arraySize = elementCount(depth);
+			List<Object> array = new GenericData.Array<Object>(arraySize, schema);
+			for (int i = 0; i < arraySize; i++)
+				array.add(generate(schema.getElementType(), depth + 1));
+			return array;
+		case MAP:
+			int mapSize = elementCount(depth);
+			Map<String, Object> map = new HashMap<String, Object>();
+			for (int i = 0; i < mapSize; i++)
+				map.put(randomString(), generate(schema.getValueType(), depth + 1));
+			return map;
+		case UNION:
+			return generate(selectUnionBranch(schema, depth), depth);
+		case ENUM:
+			List<String> symbols = schema.getEnumSymbols();
+			return new GenericData.EnumSymbol(schema, symbols.get(random.nextInt(symbols.size())));
+		case FIXED:
+			byte[] fixed = new byte[schema.getFixedSize()];
+			random.nextBytes(fixed);
+			return new GenericData.Fixed(schema, fixed);
+		case BYTES:
+			byte[] bytes = new byte[stringLength];
+			random.nextBytes(bytes);
+			return ByteBuffer.wrap(bytes);
+		case STRING:
+			return randomString();
+		case LONG:
+			return random.nextLong();
+		case INT:
+			return random.nextInt();
+		case DOUBLE:
+			return random.nextDouble();
+		case FLOAT:
+			return random.nextFloat();
+		case BOOLEAN:
+			return random.nextBoolean();
+		default:
+			return null;
+		}
+	}
+
+	private int elementCount(int depth) {
+		if (depth > maxDepth)
+			return 0;
+		return depth <= 1 ? listSize : nestedListSize;
+	}
+
+	/*
+	 * Select a random branch of a union. Beyond the maximum depth the null
+	 * branch is preferred, so that recursive schemas terminate.
+	 */
+	private Schema selectUnionBranch(Schema union, int depth) {
+		List<Schema> branches = union.getTypes();
+		if (depth > maxDepth) {
+			for (Schema branch : branches) {
+				if (branch.getType() == Schema.Type.NULL)
+					return branch;
+			}
+		}
+		return branches.get(random.nextInt(branches.size()));
+	}
+
+	private String randomString() {
+		char[] chars = new char[stringLength];
+		for (int i = 0; i < chars.length; i++)
+			chars[i] = CHARACTERS.charAt(random.nextInt(CHARACTERS.length()));
+		return new String(chars);
+	}
+
+	/*
+	 * Convert a generated Avro value to the value of an SPL attribute type.
+	 * Null values of optional fields must not be passed, the attribute keeps
+	 * its default value instead.
+	 */
+	private static Object toAttributeValue(Object value, Type type) {
+		switch (type.getMetaType()) {
+		case RSTRING:
+			return new RString(value.toString());
+		case USTRING:
+			return value.toString();
+		case BLOB:
+			ByteBuffer byteBuffer = ((ByteBuffer) value).duplicate();
+			byte[] bytes = new byte[byteBuffer.remaining()];
+			byteBuffer.get(bytes);
+			return ValueFactory.newBlob(bytes);
+		case INT64:
+		case UINT64:
+			return ((Number) value).longValue();
+		case INT32:
+		case UINT32:
+			return ((Number) value).intValue();
+		case FLOAT64:
+			return ((Number) value).doubleValue();
+		case FLOAT32:
+			return ((Number) value).floatValue();
+		case TUPLE:
+			GenericRecord record = (GenericRecord) value;
+			StreamSchema tupleSchema = ((TupleType) type).getTupleSchema();
+			Map<String, Object> attributeValues = new LinkedHashMap<String, Object>();
+			for (Attribute attribute : tupleSchema) {
+				Object fieldValue = record.getSchema().getField(attribute.getName()) != null
+						? record.get(attribute.getName()) : null;
+				if (fieldValue != null)
+					attributeValues.put(attribute.getName(), toAttributeValue(fieldValue, attribute.getType()));
+			}
+			return tupleSchema.getTuple(attributeValues);
+		case LIST:
+			Type elementType = ((CollectionType) type).getElementType();
+			List<Object> list = new ArrayList<Object>();
+			for (Object element : (List<?>) value)
+				list.add(toAttributeValue(element, elementType));
+			return list;
+		default:
+			return value;
+		}
+	}
+
+	/**
+	 * Derive the SPL tuple type that corresponds to an Avro record schema, so
+	 * that the generator can submit tuples for TupleToAvro. Unions with null
+	 * map to the type of their non-null branch.
+	 *
+	 * @param avroSchema
+	 *            The Avro schema
+	 * @return The SPL type
+	 */
+	public static String toSplType(Schema avroSchema) {
+		switch (avroSchema.getType()) {
+		case RECORD:
+			StringBuilder tupleType = new StringBuilder("tuple<");
+			for (Field field : avroSchema.getFields()) {
+				if (tupleType.length() > 6)
+					tupleType.append(", ");
+				tupleType.append(toSplType(field.schema())).append(' ').append(field.name());
+			}
+			return tupleType.append('>').toString();
+		case ARRAY:
+			return "list<" + toSplType(avroSchema.getElementType()) + ">";
+		case UNION:
+			for (Schema branch : avroSchema.getTypes()) {
+				if (branch.getType() != Schema.Type.NULL)
+					return toSplType(branch);
+			}
+			break;
+		case STRING:
+			return "rstring";
+		case BYTES:
+			return "blob";
+		case LONG:
+			return "int64";
+		case INT:
+			return "int32";
+		case DOUBLE:
+			return "float64";
+		case FLOAT:
+			return "float32";
+		case BOOLEAN:
+			return "boolean";
+		default:
+			break;
+		}
+		throw new IllegalArgumentException("Avro type " + avroSchema.getType() + " has no SPL mapping");
+	}
+
+	/**
+	 * Parse an Avro schema file.
+	 *
+	 * @param fileName
+	 *            The schema file
+	 * @return The schema
+	 * @throws IOException
+	 *             If the file cannot be read or parsed
+	 */
+	public static Schema parseSchema(String fileName) throws IOException {
+		return new Schema.Parser().parse(new File(fileName));
+	}
+
+}
@@ -0,0 +1,152 @@
+package com.ibm.streamsx.avro.test;
+
+import java.util.Arrays;
+
+import com.ibm.streams.flow.declare.OperatorGraph;
+import com.ibm.streams.flow.declare.OperatorGraphFactory;
+import com.ibm.streams.flow.declare.OperatorInvocation;
+import com.ibm.streams.flow.declare.OutputPortDeclaration;
+import com.ibm.streams.flow.javaprimitives.JavaOperatorTester;
+import com.ibm.streams.flow.javaprimitives.JavaTestableGraph;
+import com.ibm.streamsx.avro.AvroToJSON;
+import com.ibm.streamsx.avro.JSONToAvro;
+import com.ibm.streamsx.avro.TupleToAvro;
+
+/**
+ * Runs the conversion operators with generated load and reports throughput
+ * and latency per configuration. Each configuration is a graph
+ * AvroRecordGenerator -> TupleToAvro or JSONToAvro -> AvroToJSON ->
+ * ThroughputSink, executed to completion with the JavaOperatorTester.
+ * <P>
+ * Arguments (all optional): number of records, string length, list size and
+ * the Avro schema files to run. The defaults are 100000 records, strings of
+ * 32 characters, lists of 10 elements and the twitter schemas in the data
+ * directory.
+ * </P>
+ * <P>
+ * The latency of a record is measured from its generation to its arrival as
+ * JSON in the sink. When records are batched in Avro blocks, the output
+ * tuples of a block carry the generation time of the last tuple of the block,
+ * so the reported latency does not include the time records wait for their
+ * block to fill.
+ * </P>
+ */
+public class ThroughputHarness {
+
+	private static final String AVRO_BLOB_ATTRIBUTES = "blob avroMessage, int64 generatedNanos";
+	private static final String JSON_STRING_T = "tuple<rstring jsonMessage, int64 generatedNanos>";
+	private static final long TUPLES_PER_BLOCK = 100;
+
+	private final long count;
+	private final int stringLength;
+	private final int listSize;
+
+	ThroughputHarness(long count, int stringLength, int listSize) {
+		this.count = count;
+		this.stringLength = stringLength;
+		this.listSize = listSize;
+	}
+
+	/**
+	 * @param args
+	 *            count, string length, list size, schema files
+	 */
+	public static void main(String[] args) throws Exception {
+		long count = args.length > 0 ? Long.parseLong(args[0]) : 100000;
+		int stringLength = args.length > 1 ? Integer.parseInt(args[1]) : 32;
+		int listSize = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+		String[] schemaFiles = args.length > 3 ? Arrays.copyOfRange(args, 3, args.length)
+				: new String[] { "data/twitter.avsc", "data/twitter_complex.avsc" };
+
+		ThroughputHarness harness = new ThroughputHarness(count, stringLength, listSize);
+		System.out.println(String.format("%-28s %-44s %12s %12s %10s %10s %10s %10s", "schema", "configuration",
+				"tuples/s", "MB/s", "p50 us", "p90 us", "p99 us", "max us"));
+		for (String schemaFile : schemaFiles) {
+			harness.runTupleToAvro(schemaFile, false);
+			harness.runTupleToAvro(schemaFile, true);
+			harness.runJSONToAvro(schemaFile, false, 1);
+			harness.runJSONToAvro(schemaFile, true, 1);
+			harness.runJSONToAvro(schemaFile, false, 4);
+			harness.runJSONToAvro(schemaFile, true, 4);
+		}
+	}
+
+	void runTupleToAvro(String schemaFile, boolean embedAvroSchema) throws Exception {
+		String tupleT = AvroRecordGenerator.toSplType(AvroRecordGenerator.parseSchema(schemaFile));
+		tupleT = tupleT.substring(0, tupleT.length() - 1) + ", int64 generatedNanos>";
+
+		OperatorGraph graph = OperatorGraphFactory.newGraph();
+		OutputPortDeclaration generatorOut = addGenerator(graph, schemaFile, tupleT);
+
+		OperatorInvocation<TupleToAvro> tupleToAvroOp = graph.addOperator(TupleToAvro.class);
+		tupleToAvroOp.setStringParameter("avroMessageSchemaFile", schemaFile);
+		setBatching(tupleToAvroOp, embedAvroSchema);
+		tupleToAvroOp.addInput(generatorOut);
+		OutputPortDeclaration tupleToAvroOut = tupleToAvroOp.addOutput("tuple<" + AVRO_BLOB_ATTRIBUTES + ">");
+
+		run(graph, tupleToAvroOut, schemaFile, "TupleToAvro", embedAvroSchema);
+	}
+
+	void runJSONToAvro(String schemaFile, boolean embedAvroSchema, int parallelism) throws Exception {
+		OperatorGraph graph = OperatorGraphFactory.newGraph();
+		OutputPortDeclaration generatorOut = addGenerator(graph, schemaFile, JSON_STRING_T);
+
+		OperatorInvocation<JSONToAvro> jsonToAvroOp = graph.addOperator(JSONToAvro.class);
+		jsonToAvroOp.setStringParameter("avroMessageSchemaFile", schemaFile);
+		jsonToAvroOp.setIntParameter("parallelism", parallelism);
+		setBatching(jsonToAvroOp, embedAvroSchema);
+		jsonToAvroOp.addInput(generatorOut);
+		OutputPortDeclaration jsonToAvroOut = jsonToAvroOp.addOutput("tuple<" + AVRO_BLOB_ATTRIBUTES + ">");
+
+		run(graph, jsonToAvroOut, schemaFile, "JSONToAvro(parallelism " + parallelism + ")", embedAvroSchema);
+	}
+
+	private OutputPortDeclaration addGenerator(OperatorGraph graph, String schemaFile, String tupleT) {
+		OperatorInvocation<AvroRecordGenerator> generatorOp = graph.addOperator(AvroRecordGenerator.class);
+		generatorOp.setStringParameter("avroMessageSchemaFile", schemaFile);
+		generatorOp.setLongParameter("count", count);
+		generatorOp.setIntParameter("stringLength", stringLength);
+		generatorOp.setIntParameter("listSize", listSize);
+		return generatorOp.addOutput(tupleT);
+	}
+
+	private void setBatching(OperatorInvocation<?> op, boolean embedAvroSchema) {
+		op.setBooleanParameter("embedAvroSchema", embedAvroSchema);
+		if (embedAvroSchema) {
+			op.setLongParameter("tuplesPerMessage", TUPLES_PER_BLOCK);
+			op.setBooleanParameter("submitOnPunct", true);
+		}
+	}
+
+	/*
+	 * Add AvroToJSON and the sink to the graph, run it and print the result
+	 */
+	private void run(OperatorGraph graph, OutputPortDeclaration avroOut, String schemaFile, String converter,
+			boolean embedAvroSchema) throws Exception {
+		OperatorInvocation<AvroToJSON> avroToJSONOp = graph.addOperator(AvroToJSON.class);
+		if (embedAvroSchema)
+			avroToJSONOp.setBooleanParameter("avroSchemaEmbedded", true);
+		else
+			avroToJSONOp.setStringParameter("avroMessageSchemaFile", schemaFile);
+		avroToJSONOp.addInput(avroOut);
+		OutputPortDeclaration avroToJsonOut = avroToJSONOp.addOutput(JSON_STRING_T);
+
+		OperatorInvocation<ThroughputSink> sinkOp = graph.addOperator(ThroughputSink.class);
+		sinkOp.addInput(avroToJsonOut);
+
+		JavaTestableGraph executableGraph = new JavaOperatorTester().executable(graph);
+		executableGraph.executeToCompletion();
+
+		String configuration = converter + "->AvroToJSON" + (embedAvroSchema ? " blocks of " + TUPLES_PER_BLOCK : "");
+		ThroughputSink.Result result = ThroughputSink.getResult(sinkOp.getName());
+		if (result == null) {
+			System.out.println(String.format("%-28s %-44s no result", schemaFile, configuration));
+			return;
+		}
+		System.out.println(String.format("%-28s %-44s %12.0f %12.2f %10.1f %10.1f %10.1f %10.1f", schemaFile,
+				configuration, result.getTuplesPerSecond(), result.getBytesPerSecond() / (1024 * 1024),
+				result.getLatencyMicros(50), result.getLatencyMicros(90), result.getLatencyMicros(99),
+				result.getLatencyMicros(100)));
+	}
+
+}
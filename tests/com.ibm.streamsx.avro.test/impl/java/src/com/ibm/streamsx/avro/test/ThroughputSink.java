@@ -0,0 +1,160 @@
+package com.ibm.streamsx.avro.test;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.ibm.streams.operator.AbstractOperator;
+import com.ibm.streams.operator.Attribute;
+import com.ibm.streams.operator.OperatorContext;
+import com.ibm.streams.operator.StreamSchema;
+import com.ibm.streams.operator.StreamingData.Punctuation;
+import com.ibm.streams.operator.StreamingInput;
+import com.ibm.streams.operator.Tuple;
+import com.ibm.streams.operator.model.InputPortSet;
+import com.ibm.streams.operator.model.InputPortSet.WindowMode;
+import com.ibm.streams.operator.model.InputPortSet.WindowPunctuationInputMode;
+import com.ibm.streams.operator.model.InputPorts;
+import com.ibm.streams.operator.model.PrimitiveOperator;
+import com.ibm.streams.operator.types.RString;
+
+/**
+ * Sink operator that measures the throughput and the latency of the tuples it
+ * receives. The payload size of a tuple is the sum of the lengths of its
+ * rstring, ustring and blob attributes. Rstring and blob attributes are
+ * counted in bytes, ustring attributes in characters, so the byte rate of
+ * ustring payloads is an estimate. If the tuples have an int64 attribute
+ * {@code generatedNanos}, as set by {@link AvroRecordGenerator}, the latency
+ * of every tuple is recorded.
+ * <P>
+ * When the final punctuation arrives the result is stored under the name of
+ * the operator and can be retrieved with {@link #getResult(String)} by a
+ * harness that runs in the same JVM.
+ * </P>
+ */
+@PrimitiveOperator(name = "ThroughputSink", namespace = "com.ibm.streamsx.avro.test", description = "Measures throughput and latency of the received tuples")
+@InputPorts({
+		@InputPortSet(description = "Port that ingests the tuples to measure", cardinality = 1, optional = false, windowingMode = WindowMode.NonWindowed, windowPunctuationInputMode = WindowPunctuationInputMode.Oblivious) })
+public class ThroughputSink extends AbstractOperator {
+
+	private static final String GENERATED_NANOS_ATTRIBUTE = "generatedNanos";
+
+	private static final Map<String, Result> RESULTS = new ConcurrentHashMap<String, Result>();
+
+	private int generatedNanosIndex = -1;
+	private long tupleCount = 0;
+	private long byteCount = 0;
+	private long firstGenerated = Long.MAX_VALUE;
+	private long lastReceived = 0;
+	private long[] latencies = new long[1024];
+
+	/**
+	 * Get the result of a sink that has received the final punctuation.
+	 *
+	 * @param operatorName
+	 *            Name of the sink operator
+	 * @return The result or null if the sink has not finished
+	 */
+	public static Result getResult(String operatorName) {
+		return RESULTS.get(operatorName);
+	}
+
+	@Override
+	public synchronized void initialize(OperatorContext context) throws Exception {
+		super.initialize(context);
+		StreamSchema inputSchema = context.getStreamingInputs().get(0).getStreamSchema();
+		Attribute generatedNanos = inputSchema.getAttribute(GENERATED_NANOS_ATTRIBUTE);
+		if (generatedNanos != null)
+			generatedNanosIndex = generatedNanos.getIndex();
+		RESULTS.remove(context.getName());
+	}
+
+	@Override
+	public synchronized void process(StreamingInput<Tuple> stream, Tuple tuple) throws Exception {
+		long now = System.nanoTime();
+		for (Attribute attribute : tuple.getStreamSchema()) {
+			switch (attribute.getType().getMetaType()) {
+			case RSTRING:
+				byteCount += ((RString) tuple.getObject(attribute.getIndex())).getLength();
+				break;
+			case USTRING:
+				// Counted in characters, the encoded size is not known
+				byteCount += tuple.getString(attribute.getIndex()).length();
+				break;
+			case BLOB:
+				byteCount += tuple.getBlob(attribute.getIndex()).getLength();
+				break;
+			default:
+				break;
+			}
+		}
+		if (generatedNanosIndex >= 0) {
+			long generated = tuple.getLong(generatedNanosIndex);
+			if (generated < firstGenerated)
+				firstGenerated = generated;
+			if (tupleCount == latencies.length)
+				latencies = Arrays.copyOf(latencies, latencies.length * 2);
+			latencies[(int) tupleCount] = now - generated;
+		}
+		tupleCount++;
+		lastReceived = now;
+	}
+
+	@Override
+	public synchronized void processPunctuation(StreamingInput<Tuple> stream, Punctuation mark) throws Exception {
+		if (mark == Punctuation.FINAL_MARKER) {
+			long[] sortedLatencies = Arrays.copyOf(latencies, generatedNanosIndex >= 0 ? (int) tupleCount : 0);
+			Arrays.sort(sortedLatencies);
+			long elapsed = firstGenerated == Long.MAX_VALUE ? 0 : lastReceived - firstGenerated;
+			RESULTS.put(getOperatorContext().getName(), new Result(tupleCount, byteCount, elapsed, sortedLatencies));
+		}
+	}
+
+	/**
+	 * Throughput and latency measured by a sink.
+	 */
+	public static class Result {
+		private final long tuples;
+		private final long bytes;
+		private final long elapsedNanos;
+		private final long[] sortedLatencies;
+
+		Result(long tuples, long bytes, long elapsedNanos, long[] sortedLatencies) {
+			this.tuples = tuples;
+			this.bytes = bytes;
+			this.elapsedNanos = elapsedNanos;
+			this.sortedLatencies = sortedLatencies;
+		}
+
+		public long getTuples() {
+			return tuples;
+		}
+
+		public long getBytes() {
+			return bytes;
+		}
+
+		public double getTuplesPerSecond() {
+			return elapsedNanos == 0 ? 0 : tuples * 1e9 / elapsedNanos;
+		}
+
+		public double getBytesPerSecond() {
+			return elapsedNanos == 0 ? 0 : bytes * 1e9 / elapsedNanos;
+		}
+
+		/**
+		 * Get a latency percentile in microseconds.
+		 *
+		 * @param percentile
+		 *            Percentile between 0 and 100
+		 * @return The latency or 0 if no latencies were recorded
+		 */
+		public double getLatencyMicros(double percentile) {
+			if (sortedLatencies.length == 0)
+				return 0;
+			int index = (int) Math.ceil(percentile / 100 * sortedLatencies.length) - 1;
+			return sortedLatencies[Math.max(0, Math.min(index, sortedLatencies.length - 1))] / 1000.0;
+		}
+	}
+
+}
@@ -0,0 +1,29 @@
+#--variantList='tuple json'
+
+PREPS='copyAndMorphSpl'
+
+STEPS=(
+	"splCompile"
+	'submitJob'
+	'checkJobNo'
+	'waitForFinAndHealth'
+	'cancelJobAndLog'
+	'checkOutput'
+)
+
+FINS='cancelJobAndLog'
+
+checkOutput() {
+	local tuplecount=$(grep 'typ_="t",' data/Tuples | wc -l | cut -f1 -d' ')
+	printInfo "Result contains $tuplecount tuples"
+	if [[ $tuplecount -ne 2000 ]]; then
+		setFailure "Wrong tuple counts $tuplecount"
+	fi
+	# The 4 seconds of tuples are submitted within the target latency of
+	# 0.5 seconds, in blocks of many records
+	local blockcount=$(grep 'typ_="w",' data/Tuples | wc -l | cut -f1 -d' ')
+	printInfo "Result contains $blockcount blocks"
+	if [[ $blockcount -lt 4 || $blockcount -gt 100 ]]; then
+		setFailure "Wrong block counts $blockcount"
+	fi
+}
@@ -0,0 +1,27 @@
+#--variantList='nocache cache evict'
+
+PREPS='copyAndMorphSpl'
+
+STEPS=(
+	"splCompile"
+	'submitJob'
+	'checkJobNo'
+	'waitForFinAndHealth'
+	'cancelJobAndLog'
+	'checkOutput'
+)
+
+FINS='cancelJobAndLog'
+
+checkOutput() {
+	local tuplecount=$(grep 'typ_="t",' data/Tuples | wc -l | cut -f1 -d' ')
+	printInfo "Result contains $tuplecount tuples"
+	if [[ $tuplecount -ne 100 ]]; then
+		setFailure "Wrong tuple counts $tuplecount"
+	fi
+	local keycount=$(grep 'typ_="t",' data/Tuples | grep -o 'jsonKey=.*' | sort -u | wc -l | cut -f1 -d' ')
+	printInfo "Result contains $keycount different keys"
+	if [[ $keycount -ne 5 ]]; then
+		setFailure "Wrong count of different keys $keycount"
+	fi
+}
@@ -0,0 +1,31 @@
+PREPS='copyOnly'
+
+STEPS=(
+	"splCompile"
+	'submitJob'
+	'checkJobNo'
+	'waitForFinAndHealth'
+	'cancelJobAndLog'
+	'checkOutput'
+)
+
+FINS='cancelJobAndLog'
+
+checkOutput() {
+	local tuplecount=$(grep 'typ_="t",' data/Tuples | wc -l | cut -f1 -d' ')
+	printInfo "Result contains $tuplecount tuples"
+	if [[ $tuplecount -ne 100 ]]; then
+		setFailure "Wrong tuple counts $tuplecount"
+	fi
+	local indexcount=$(grep 'typ_="t",' data/Index | wc -l | cut -f1 -d' ')
+	printInfo "Index contains $indexcount tuples"
+	if [[ $indexcount -ne 10 ]]; then
+		setFailure "Wrong index tuple counts $indexcount"
+	fi
+	if ! grep -q 'offset=0,.*recordCount=10,firstRecord=0,lastRecord=9,minValue="0",maxValue="9"' data/Index; then
+		setFailure "First index tuple not found"
+	fi
+	if ! grep -q 'firstRecord=90,lastRecord=99,minValue="90",maxValue="99"' data/Index; then
+		setFailure "Last index tuple not found"
+	fi
+}
@@ -0,0 +1,29 @@
+#--variantList='range bloom'
+
+PREPS='copyAndMorphSpl'
+
+STEPS=(
+	"splCompile"
+	'submitJob'
+	'checkJobNo'
+	'waitForFinAndHealth'
+	'cancelJobAndLog'
+	'checkOutput'
+)
+
+FINS='cancelJobAndLog'
+
+checkOutput() {
+	local expected
+	case "$TTRO_variantCase" in
+	range)
+		expected=30;;
+	bloom)
+		expected=10;;
+	esac
+	local tuplecount=$(grep 'typ_="t",' data/Tuples | wc -l | cut -f1 -d' ')
+	printInfo "Result contains $tuplecount tuples"
+	if [[ $tuplecount -ne $expected ]]; then
+		setFailure "Wrong tuple counts $tuplecount"
+	fi
+}
@@ -0,0 +1,28 @@
+#--variantList='rstring_embed rstring_plain blob_embed blob_plain'
+
+PREPS='copyAndMorphSpl'
+
+STEPS=(
+	"splCompile"
+	'submitJob'
+	'checkJobNo'
+	'waitForFinAndHealth'
+	'cancelJobAndLog'
+	'checkOutput'
+)
+
+FINS='cancelJobAndLog'
+
+# Tweet 5 follows the malformed document and is skipped
+checkOutput() {
+	local tweets=$(grep 'typ_="t",' data/Tuples | grep -o 'Tweet [0-9]*' | tr '\n' ',')
+	printInfo "Result contains $tweets"
+	if [[ $tweets != 'Tweet 0,Tweet 1,Tweet 2,Tweet 3,Tweet 4,Tweet 6,Tweet 7,' ]]; then
+		setFailure "Wrong converted documents $tweets"
+	fi
+	local errorcount=$(grep 'typ_="t",' data/Errors | grep 'errorReason="[^"]' | wc -l | cut -f1 -d' ')
+	printInfo "Error port received $errorcount tuples with reason"
+	if [[ $errorcount -ne 1 ]]; then
+		setFailure "Wrong error tuple counts $errorcount"
+	fi
+}
@@ -0,0 +1,26 @@
+#--variantList='ndjson_rstring ndjson_blob jsonArray_rstring jsonArray_blob'
+
+PREPS='copyAndMorphSpl'
+
+STEPS=(
+	"splCompile"
+	'submitJob'
+	'checkJobNo'
+	'waitForFinAndHealth'
+	'cancelJobAndLog'
+	'checkOutput'
+)
+
+FINS='cancelJobAndLog'
+
+# The operator compares the text of every block, the test counts the matches
+checkOutput() {
+	local matchcount=$(grep 'typ_="t",' data/Tuples | grep 'result="match"' | wc -l | cut -f1 -d' ')
+	printInfo "Result contains $matchcount matching blocks"
+	if [[ $matchcount -ne 2 ]]; then
+		setFailure "Wrong count of matching blocks $matchcount"
+	fi
+	if grep -q 'result="mismatch' data/Tuples; then
+		setFailure "Unexpected JSON text $(grep 'result="mismatch' data/Tuples)"
+	fi
+}
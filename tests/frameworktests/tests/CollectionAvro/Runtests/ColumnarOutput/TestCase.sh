@@ -0,0 +1,26 @@
+PREPS='copyOnly'
+
+STEPS=(
+	"splCompile"
+	'submitJob'
+	'checkJobNo'
+	'waitForFinAndHealth'
+	'cancelJobAndLog'
+	'checkOutput'
+)
+
+FINS='cancelJobAndLog'
+
+checkOutput() {
+	local tuplecount=$(grep 'typ_="t",' data/Tuples | wc -l | cut -f1 -d' ')
+	printInfo "Result contains $tuplecount tuples"
+	if [[ $tuplecount -ne 10 ]]; then
+		setFailure "Wrong tuple counts $tuplecount"
+	fi
+	if ! grep -q 'id=\[0,1,2,3,4,5,6,7,8,9\]' data/Tuples; then
+		setFailure "Column of the first block not found"
+	fi
+	if ! grep -q 'id=\[90,91,92,93,94,95,96,97,98,99\]' data/Tuples; then
+		setFailure "Column of the last block not found"
+	fi
+}
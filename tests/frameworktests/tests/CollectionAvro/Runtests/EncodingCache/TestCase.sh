@@ -0,0 +1,27 @@
+#--variantList='single parallelism'
+
+PREPS='copyAndMorphSpl'
+
+STEPS=(
+	'splCompile'
+	'executeAndLog output/bin/standalone -t 3'
+	'checkOutput'
+)
+
+# 100 JSON strings out of 5 different ones: a single thread finds all but the
+# first of every string in the cache, with worker threads a string may be
+# converted again while its first occurrence is still being converted
+checkOutput() {
+	if [[ $TTTT_result -ne 0 ]]; then
+		setFailure "Unexpected result $TTTT_result"
+		return 0
+	fi
+	case "$TTRO_variantCase" in
+	single)
+		linewisePatternMatchInterceptAndSuccess "$TT_evaluationFile" "true" '*Received 100 tuples*' '*Encoding cache: 95 hits, 5 misses, 0 evictions*';;
+	parallelism)
+		linewisePatternMatchInterceptAndSuccess "$TT_evaluationFile" "true" '*Received 100 tuples*' '*Encoding cache: * hits, * misses, 0 evictions*';;
+	*)
+		printErrorAndExit "Wrong variant $TTRO_variantCase" $errRt;;
+	esac
+}
@@ -0,0 +1,27 @@
+#--variantList='single parallelism cache'
+
+PREPS='copyAndMorphSpl'
+
+STEPS=(
+	"splCompile"
+	'submitJob'
+	'checkJobNo'
+	'waitForFinAndHealth'
+	'cancelJobAndLog'
+	'checkOutput'
+)
+
+FINS='cancelJobAndLog'
+
+checkOutput() {
+	local tuplecount=$(grep 'typ_="t",' data/Tuples | wc -l | cut -f1 -d' ')
+	printInfo "Result contains $tuplecount tuples"
+	if [[ $tuplecount -ne 90 ]]; then
+		setFailure "Wrong tuple counts $tuplecount"
+	fi
+	local errorcount=$(grep 'typ_="t",' data/Errors | grep 'errorReason="[^"]' | wc -l | cut -f1 -d' ')
+	printInfo "Error port received $errorcount tuples with reason"
+	if [[ $errorcount -ne 10 ]]; then
+		setFailure "Wrong error tuple counts $errorcount"
+	fi
+}
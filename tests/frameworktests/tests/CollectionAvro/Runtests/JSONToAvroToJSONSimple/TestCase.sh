@@ -1,4 +1,4 @@
-#--variantList='embedAvroSchema_false submitOnPunct tuplesPerMessage timePerMessage bytesPerMessage'
+#--variantList='embedAvroSchema_false submitOnPunct tuplesPerMessage timePerMessage bytesPerMessage parallelism'
 
 if [[ $TTRO_variantCase == embedAvroSchema_false ]]; then
 	setCategory 'quick'
@@ -0,0 +1,42 @@
+#--variantList='error submit'
+
+PREPS='copyAndMorphSpl'
+
+STEPS=(
+	"splCompile"
+	'submitJob'
+	'checkJobNo'
+	'waitForFinAndHealth'
+	'cancelJobAndLog'
+	'checkOutput'
+)
+
+FINS='cancelJobAndLog'
+
+checkOutput() {
+	local expectedTuples expectedErrors expectedLarge
+	case "$TTRO_variantCase" in
+	error)
+		expectedTuples=99; expectedErrors=1; expectedLarge=0;;
+	submit)
+		expectedTuples=100; expectedErrors=0; expectedLarge=1;;
+	esac
+	local tuplecount=$(grep 'typ_="t",' data/Tuples | wc -l | cut -f1 -d' ')
+	printInfo "Result contains $tuplecount tuples"
+	if [[ $tuplecount -ne $expectedTuples ]]; then
+		setFailure "Wrong tuple counts $tuplecount"
+	fi
+	local errorcount=0
+	if [[ -f data/Errors ]]; then
+		errorcount=$(grep 'typ_="t",' data/Errors | wc -l | cut -f1 -d' ')
+	fi
+	printInfo "Errors contains $errorcount tuples"
+	if [[ $errorcount -ne $expectedErrors ]]; then
+		setFailure "Wrong error tuple counts $errorcount"
+	fi
+	local largecount=$(grep 'tooLarge=true' data/Blocks | wc -l | cut -f1 -d' ')
+	printInfo "$largecount blocks exceed the maximum size"
+	if [[ $largecount -ne $expectedLarge ]]; then
+		setFailure "Wrong count of blocks exceeding the maximum size $largecount"
+	fi
+}
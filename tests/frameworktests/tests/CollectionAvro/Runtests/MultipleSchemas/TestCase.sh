@@ -0,0 +1,38 @@
+#--variantList='list directory plain'
+
+PREPS='copyAndMorphSpl'
+
+STEPS=(
+	"splCompile"
+	'submitJob'
+	'checkJobNo'
+	'waitForFinAndHealth'
+	'cancelJobAndLog'
+	'checkOutput'
+)
+
+FINS='cancelJobAndLog'
+
+checkOutput() {
+	local tuplecount=$(grep 'typ_="t",' data/Tuples | wc -l | cut -f1 -d' ')
+	printInfo "Result contains $tuplecount tuples"
+	if [[ $tuplecount -ne 100 ]]; then
+		setFailure "Wrong tuple counts $tuplecount"
+	fi
+	# Without embedded schema, every tuple is one message, also when the
+	# open schema is evicted by every other tuple
+	if [[ $TTRO_variantCase == plain ]]; then
+		return 0
+	fi
+	local usercount=$(grep 'typ_="t",.*username' data/Tuples | wc -l | cut -f1 -d' ')
+	printInfo "Result contains $usercount tuples with user schema"
+	if [[ $usercount -ne 50 ]]; then
+		setFailure "Wrong user schema tuple counts $usercount"
+	fi
+	# Every block holds the records of a single schema
+	local blockcount=$(grep 'typ_="w",' data/Tuples | wc -l | cut -f1 -d' ')
+	printInfo "Result contains $blockcount blocks"
+	if [[ $blockcount -ne 20 ]]; then
+		setFailure "Wrong block counts $blockcount"
+	fi
+}
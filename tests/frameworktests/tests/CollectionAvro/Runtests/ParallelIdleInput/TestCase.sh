@@ -0,0 +1,24 @@
+#--variantList='embedAvroSchema_false tuplesPerMessage'
+
+PREPS='copyAndMorphSpl'
+
+STEPS=(
+	"splCompile"
+	'submitJob'
+	'checkJobNo'
+	'waitForFinAndHealth'
+	'cancelJobAndLog'
+	'checkOutput'
+)
+
+FINS='cancelJobAndLog'
+
+# Fewer tuples than the worker threads keep in flight arrive without a
+# punctuation, all of them must be converted and submitted
+checkOutput() {
+	local tuplecount=$(grep 'typ_="t",' data/Tuples | wc -l | cut -f1 -d' ')
+	printInfo "Result contains $tuplecount tuples"
+	if [[ $tuplecount -ne 5 ]]; then
+		setFailure "Wrong tuple counts $tuplecount"
+	fi
+}
@@ -0,0 +1,43 @@
+#--variantList='default evicted'
+
+PREPS='copyAndMorphSpl'
+
+STEPS=(
+	"splCompile"
+	'submitJob'
+	'checkJobNo'
+	'waitForFinAndHealth'
+	'cancelJobAndLog'
+	'checkOutput'
+)
+
+FINS='cancelJobAndLog'
+
+checkOutput() {
+	local tuplecount=$(grep 'typ_="t",' data/Tuples | wc -l | cut -f1 -d' ')
+	printInfo "Result contains $tuplecount tuples"
+	if [[ $tuplecount -ne 99 ]]; then
+		setFailure "Wrong tuple counts $tuplecount"
+	fi
+	# Every record carries the partition key of its block
+	local keycount=$(grep -E 'jsonMessage=".*\\"key\\":\\"(K[0-2])\\".*",key="\1"' data/Tuples | wc -l | cut -f1 -d' ')
+	printInfo "Result contains $keycount tuples with the key of their block"
+	if [[ $keycount -ne 99 ]]; then
+		setFailure "Wrong partition key counts $keycount"
+	fi
+	# Each of the 3 partitions is submitted in 6 full blocks and a final
+	# block of 3 records. With a single open partition, every record of
+	# another key evicts the open partition, so every record is a block.
+	local expected
+	case "$TTRO_variantCase" in
+	default)
+		expected=21;;
+	evicted)
+		expected=99;;
+	esac
+	local blockcount=$(grep 'typ_="w",' data/Tuples | wc -l | cut -f1 -d' ')
+	printInfo "Result contains $blockcount blocks"
+	if [[ $blockcount -ne $expected ]]; then
+		setFailure "Wrong block counts $blockcount"
+	fi
+}
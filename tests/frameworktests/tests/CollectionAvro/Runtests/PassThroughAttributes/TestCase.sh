@@ -0,0 +1,23 @@
+PREPS='copyOnly'
+
+STEPS=(
+	"splCompile"
+	'submitJob'
+	'checkJobNo'
+	'waitForFinAndHealth'
+	'cancelJobAndLog'
+	'checkOutput'
+)
+
+FINS='cancelJobAndLog'
+
+checkOutput() {
+	local tuplecount=$(grep 'typ_="t",' data/Tuples | wc -l | cut -f1 -d' ')
+	printInfo "Result contains $tuplecount tuples"
+	if [[ $tuplecount -ne 100 ]]; then
+		setFailure "Wrong tuple counts $tuplecount"
+	fi
+	if ! grep -q 'jsonMessage=".*\\"id\\":42,.*",seq=84' data/Tuples; then
+		setFailure "Pass-through attribute of tuple 42 not found"
+	fi
+}
@@ -0,0 +1,43 @@
+#--variantList='blob file'
+
+PREPS='copyAndMorphSpl'
+
+STEPS=(
+	"splCompile"
+	'submitJob'
+	'checkJobNo'
+	'waitForFinAndHealth'
+	'cancelJobAndLog'
+	'checkOutput'
+)
+
+FINS='cancelJobAndLog'
+
+checkOutput() {
+	case "$TTRO_variantCase" in
+	blob)
+		local tuplecount=$(grep 'typ_="t",' data/Tuples | wc -l | cut -f1 -d' ')
+		printInfo "Result contains $tuplecount tuples"
+		if [[ $tuplecount -ne 20000 ]]; then
+			setFailure "Wrong tuple counts $tuplecount"
+		fi;;
+	file)
+		# Every block is handed off as an Avro container file, which the
+		# receiver deletes
+		local filecount=0
+		local file
+		for file in $(grep -o '/[^"]*\.avro' data/Tuples); do
+			if [[ $(head -c 3 "$file") != Obj ]]; then
+				setFailure "File $file is no Avro container file"
+			fi
+			rm -f "$file"
+			filecount=$((filecount + 1))
+		done
+		printInfo "Result contains $filecount files"
+		if [[ $filecount -ne 2 ]]; then
+			setFailure "Wrong file counts $filecount"
+		fi;;
+	*)
+		printErrorAndExit "Wrong variant $TTRO_variantCase" $errRt;;
+	esac
+}
@@ -0,0 +1,40 @@
+#--variantList='embedAvroSchema_false tuplesPerMessage'
+
+PREPS='copyAndMorphSpl'
+
+STEPS=(
+	"splCompile"
+	'submitJob'
+	'checkJobNo'
+	'waitForFinAndHealth'
+	'cancelJobAndLog'
+	'checkOutput'
+)
+
+FINS='cancelJobAndLog'
+
+checkOutput() {
+	local tuplecount=$(grep 'typ_="t",' data/Tuples | wc -l | cut -f1 -d' ')
+	printInfo "Result contains $tuplecount tuples"
+	if [[ $tuplecount -ne 100 ]]; then
+		setFailure "Wrong tuple counts $tuplecount"
+	fi
+	#remove seq number and window marker entries
+	{
+		while read -r; do
+			if [[ $REPLY == *,typ_=\"t\",* ]]; then
+				local lin="${REPLY#*,typ_=\"t\",}"
+				echo "$lin" >> data/TuplesOnly
+			fi
+		done
+	} < data/Tuples
+	{
+		while read -r; do
+			if [[ $REPLY == *,typ_=\"t\",* ]]; then
+				local lin="${REPLY#*,typ_=\"t\",}"
+				echo "$lin" >> data/TuplesOnlyReference
+			fi
+		done
+	} < data/TuplesReference
+	echoExecuteInterceptAndSuccess diff data/TuplesOnly data/TuplesOnlyReference
+}